@@ -0,0 +1,51 @@
+package mixinsudoku;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Chain-reaction deduction over a complete synthetic ring graph, starting from the zero-mixin spends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ChainReactionBenchmark {
+
+    @Param("100000")
+    public int inputs;
+
+    @Param("3")
+    public int ringSize;
+
+    @Param({"UNIFORM", "RECENT"})
+    public String reuse;
+
+    @Param("0.6")
+    public double zeroMixinFraction;
+
+    @Param("42")
+    public long seed;
+
+    private SyntheticRings rings;
+
+    @Setup
+    public void generate() {
+        rings = SyntheticRings.generate(inputs, ringSize, SyntheticRings.Reuse.valueOf(reuse),
+                zeroMixinFraction, seed);
+    }
+
+    @Benchmark
+    public int chainReaction() {
+        return new ChainReaction(rings.graph, rings.iterations.clone()).run();
+    }
+
+    @Benchmark
+    public int components() {
+        return Components.of(rings.graph).size();
+    }
+}
@@ -0,0 +1,67 @@
+package mixinsudoku;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Clause building and backbone computation for what the chain reaction leaves of a synthetic ring graph.
+ * Nothing is written to a database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SatBenchmark {
+
+    @Param("2000")
+    public int inputs;
+
+    @Param("5")
+    public int ringSize;
+
+    @Param({"UNIFORM", "RECENT"})
+    public String reuse;
+
+    @Param("0.3")
+    public double zeroMixinFraction;
+
+    @Param("42")
+    public long seed;
+
+    @Param("AUTO")
+    public String encoding;
+
+    private RingGraph graph;
+    private AtMostOne.Encoding atMostOne;
+
+    @Setup
+    public void generate() {
+        atMostOne = AtMostOne.Encoding.parse(encoding);
+        graph = SyntheticRings.generate(inputs, ringSize, SyntheticRings.Reuse.valueOf(reuse),
+                zeroMixinFraction, seed).openGraph();
+    }
+
+    @Benchmark
+    public long buildClauses() {
+        long clauses = 0;
+        for (SudokuSolver solver : SudokuSolver.decompose(null, 0, graph, atMostOne, SolverBudget.DEFAULT)) {
+            clauses += solver.buildSatProblem().nConstraints();
+        }
+        return clauses;
+    }
+
+    @Benchmark
+    public int solve() {
+        List<SudokuSolver> solvers = SudokuSolver.decompose(null, 0, graph, atMostOne, SolverBudget.DEFAULT);
+        int spends = 0;
+        for (SudokuSolver solver : solvers) {
+            spends += solver.deduce().spends();
+        }
+        return spends;
+    }
+}
@@ -0,0 +1,147 @@
+package mixinsudoku;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Seeded synthetic ring graph of a single denomination.
+ * <p>
+ * Outputs are created two per input in chronological order. Every input spends one earlier unspent output and
+ * hides it among ringSize - 1 decoys that are drawn from all earlier outputs according to the reuse distribution.
+ * Zero-mixin inputs reference their real spend only. Input i has node id i, output o has node id o and references
+ * are numbered consecutively.
+ */
+final class SyntheticRings {
+
+    enum Reuse {
+        /**
+         * Decoys are drawn uniformly from all earlier outputs.
+         */
+        UNIFORM,
+        /**
+         * Decoys are drawn with an exponentially decreasing probability by age, so recent outputs are reused a lot.
+         */
+        RECENT
+    }
+
+    private static final int OUTPUTS_PER_INPUT = 2;
+    private static final int SPEND_ATTEMPTS = 64;
+
+    /**
+     * The complete ring graph, including zero-mixin inputs.
+     */
+    final RingGraph graph;
+
+    /**
+     * Per output, {@link ChainReaction#NO_ITERATION} if it is spent by a zero-mixin input,
+     * {@link ChainReaction#NOT_SPENT} otherwise.
+     */
+    final int[] iterations;
+
+    private SyntheticRings(RingGraph graph, int[] iterations) {
+        this.graph = graph;
+        this.iterations = iterations;
+    }
+
+    static SyntheticRings generate(int nInputs, int ringSize, Reuse reuse, double zeroMixinFraction, long seed) {
+        Random random = new Random(seed);
+        int nOutputs = nInputs * OUTPUTS_PER_INPUT;
+        boolean[] spent = new boolean[nOutputs];
+        int[] iterations = new int[nOutputs];
+        Arrays.fill(iterations, ChainReaction.NOT_SPENT);
+
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        for (int o = 0; o < nOutputs; o++) {
+            builder.addOutput(o);
+        }
+
+        long nReferences = 0;
+        for (int i = 0; i < nInputs; i++) {
+            // outputs 0 until available exist when input i is created
+            int available = (i + 1) * OUTPUTS_PER_INPUT;
+            int real = chooseUnspent(random, reuse, available, spent);
+            spent[real] = true;
+            builder.addInput(i);
+
+            if (random.nextDouble() < zeroMixinFraction) {
+                builder.addReference(nReferences++, real);
+                iterations[real] = ChainReaction.NO_ITERATION;
+                continue;
+            }
+            int realPosition = random.nextInt(ringSize);
+            for (int k = 0; k < ringSize; k++) {
+                int output = k == realPosition ? real : draw(random, reuse, available);
+                builder.addReference(nReferences++, output);
+            }
+        }
+        return new SyntheticRings(builder.build(), iterations);
+    }
+
+    private static int chooseUnspent(Random random, Reuse reuse, int available, boolean[] spent) {
+        for (int attempt = 0; attempt < SPEND_ATTEMPTS; attempt++) {
+            int output = draw(random, reuse, available);
+            if (!spent[output]) {
+                return output;
+            }
+        }
+        // at most half of the available outputs are spent, so there always is a free one
+        int output = available - 1;
+        while (spent[output]) {
+            output -= 1;
+        }
+        return output;
+    }
+
+    private static int draw(Random random, Reuse reuse, int available) {
+        if (reuse == Reuse.RECENT) {
+            double meanAge = available / 10.0 + 1;
+            int age = (int) (-Math.log(1 - random.nextDouble()) * meanAge);
+            if (age < available) {
+                return available - 1 - age;
+            }
+        }
+        return random.nextInt(available);
+    }
+
+    /**
+     * Runs the chain reaction and returns what is left for the SAT solver, like
+     * {@link RingGraphLoader#loadDenomination}: inputs that do not spend a known output yet, with their
+     * references to outputs that are not known to be spent.
+     */
+    RingGraph openGraph() {
+        int[] spent = iterations.clone();
+        ChainReaction chainReaction = new ChainReaction(graph, spent);
+        chainReaction.run();
+
+        boolean[] closed = new boolean[graph.inputCount()];
+        for (int k = 0; k < chainReaction.deducedInputs().size(); k++) {
+            closed[chainReaction.deducedInputs().get(k)] = true;
+        }
+
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        for (int i = 0; i < graph.inputCount(); i++) {
+            if (closed[i] || isZeroMixin(i)) {
+                continue;
+            }
+            builder.addInput(graph.inputIds[i]);
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                int target = graph.inputTargets[r];
+                if (spent[target] != ChainReaction.NOT_SPENT) {
+                    continue;
+                }
+                int output = builder.outputIndex(graph.outputIds[target]);
+                if (output == LongIntHashMap.MISSING) {
+                    output = builder.addOutput(graph.outputIds[target]);
+                }
+                builder.addReference(graph.referenceIds[r], output);
+            }
+        }
+        return builder.build();
+    }
+
+    private boolean isZeroMixin(int input) {
+        return graph.inputDegree(input) == 1
+                && iterations[graph.inputTargets[graph.inputOffsets[input]]] == ChainReaction.NO_ITERATION;
+    }
+}
@@ -0,0 +1,107 @@
+package mixinsudoku;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A block and its transactions, decoded from the JSON of the getblock and gettransactions calls of monerod.
+ */
+final class MoneroBlock {
+
+    final long height;
+    final String hash;
+    final long timestamp;
+    final Transaction coinbase;
+    final List<String> transactionHashes;
+    final List<Transaction> transactions = new ArrayList<>();
+
+    private MoneroBlock(long height, String hash, long timestamp, Transaction coinbase,
+                        List<String> transactionHashes) {
+        this.height = height;
+        this.hash = hash;
+        this.timestamp = timestamp;
+        this.coinbase = coinbase;
+        this.transactionHashes = transactionHashes;
+    }
+
+    /**
+     * @param result the result of getblock
+     * @param json   the block itself, decoded from the json field of result
+     */
+    static MoneroBlock fromRpc(JsonNode result, JsonNode json) {
+        JsonNode header = result.get("block_header");
+        List<String> transactionHashes = new ArrayList<>();
+        for (JsonNode hash : json.path("tx_hashes")) {
+            transactionHashes.add(hash.asText());
+        }
+        return new MoneroBlock(header.get("height").asLong(), header.get("hash").asText(),
+                header.get("timestamp").asLong(), Transaction.coinbaseFromRpc(json.get("miner_tx")),
+                transactionHashes);
+    }
+
+
+    static final class Transaction {
+
+        final String hash;
+        final long fee;
+        final long[] inputAmounts;
+        final long[][] keyOffsets;
+        final long[] outputAmounts;
+
+        private Transaction(String hash, long fee, long[] inputAmounts, long[][] keyOffsets, long[] outputAmounts) {
+            this.hash = hash;
+            this.fee = fee;
+            this.inputAmounts = inputAmounts;
+            this.keyOffsets = keyOffsets;
+            this.outputAmounts = outputAmounts;
+        }
+
+        static Transaction coinbaseFromRpc(JsonNode json) {
+            // RCT coinbase transactions have a single output that counts as a 0-value output
+            // https://github.com/monero-project/monero/blob/c534fe8d19aa20a30849ca123f0bd90314659970/src/blockchain_db/blockchain_db.cpp#L179
+            long[] outputAmounts = json.get("version").asInt() == 2 ? new long[]{0} : amounts(json.get("vout"));
+            return new Transaction("", 0, new long[0], new long[0][], outputAmounts);
+        }
+
+        static Transaction fromRpc(String hash, JsonNode json) {
+            JsonNode inputs = json.get("vin");
+            long[] inputAmounts = new long[inputs.size()];
+            long[][] keyOffsets = new long[inputs.size()][];
+            for (int k = 0; k < inputs.size(); k++) {
+                JsonNode key = inputs.get(k).get("key");
+                inputAmounts[k] = key.get("amount").asLong();
+                JsonNode offsets = key.get("key_offsets");
+                keyOffsets[k] = new long[offsets.size()];
+                for (int j = 0; j < offsets.size(); j++) {
+                    keyOffsets[k][j] = offsets.get(j).asLong();
+                }
+            }
+            long[] outputAmounts = amounts(json.get("vout"));
+
+            long fee;
+            if (json.has("rct_signatures")) {
+                fee = json.get("rct_signatures").path("txnFee").asLong();
+            } else {
+                fee = 0;
+                for (long amount : inputAmounts) {
+                    fee += amount;
+                }
+                for (long amount : outputAmounts) {
+                    fee -= amount;
+                }
+            }
+            return new Transaction(hash, fee, inputAmounts, keyOffsets, outputAmounts);
+        }
+
+        private static long[] amounts(JsonNode outputs) {
+            long[] amounts = new long[outputs.size()];
+            for (int k = 0; k < outputs.size(); k++) {
+                amounts[k] = outputs.get(k).get("amount").asLong();
+            }
+            return amounts;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package mixinsudoku;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Exports the blockchain from the RPC interface of monerod into the nine CSV files of monero-to-csv.py.
+ * <p>
+ * Blocks and their transactions are fetched and decoded by a thread pool, with a bounded number of blocks in
+ * flight, and written strictly in the order of their height, so that transactions, inputs and the outputs of every
+ * value are numbered exactly as by the script (OUTPUT_COUNTER).
+ * <p>
+ * Every few blocks the writers are flushed and the counters, the next height and the lengths of all files are
+ * stored in export-state.properties. A later export continues from there, after cutting off any rows written after
+ * the last checkpoint.
+ */
+public final class MoneroExporter implements Closeable {
+
+    static final String STATE = "export-state.properties";
+
+    static final String[] FILES = {"blocks.csv", "blocks-rels.csv", "transactions.csv", "tx-blocks.csv",
+            "outputs.csv", "output-rels.csv", "inputs.csv", "input-rels.csv", "input-output-refs.csv"};
+
+    private static final int BLOCKS = 0;
+    private static final int BLOCKS_RELS = 1;
+    private static final int TRANSACTIONS = 2;
+    private static final int TX_BLOCKS = 3;
+    private static final int OUTPUTS = 4;
+    private static final int OUTPUT_RELS = 5;
+    private static final int INPUTS = 6;
+    private static final int INPUT_RELS = 7;
+    private static final int REFERENCES = 8;
+
+    private static final int ATTEMPTS = 5;
+
+    private final MoneroRpc rpc;
+    private final File directory;
+    private final int nThreads;
+    private final int inFlight;
+    private final int checkpointInterval;
+
+    private final FileOutputStream[] streams = new FileOutputStream[FILES.length];
+    private final BufferedWriter[] writers = new BufferedWriter[FILES.length];
+
+    private long nextHeight = 0;
+    private long nTransactions = 0;
+    private long nInputs = 0;
+    private final Map<Long, Long> outputCounter = new HashMap<>();
+
+    /**
+     * Opens the CSV files in the given directory, continuing an earlier export if there is one.
+     *
+     * @param inFlight           maximum number of blocks fetched ahead of the one being written
+     * @param checkpointInterval number of blocks between two checkpoints
+     */
+    MoneroExporter(MoneroRpc rpc, File directory, int nThreads, int inFlight, int checkpointInterval)
+            throws IOException {
+        this.rpc = rpc;
+        this.directory = directory;
+        this.nThreads = nThreads;
+        this.inFlight = inFlight;
+        this.checkpointInterval = checkpointInterval;
+
+        Files.createDirectories(directory.toPath());
+        Properties state = readState();
+        for (int k = 0; k < FILES.length; k++) {
+            File file = new File(directory, FILES[k]);
+            long length = Long.parseLong(state.getProperty("length." + FILES[k], "0"));
+            if (state.isEmpty() && file.length() > 0) {
+                throw new IOException(file + " exists, but there is no " + STATE + " to continue from.");
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() < length) {
+                    throw new IOException(file + " is shorter than recorded in " + STATE + ".");
+                }
+                raf.setLength(length);
+            }
+            streams[k] = new FileOutputStream(file, true);
+            writers[k] = new BufferedWriter(new OutputStreamWriter(streams[k], StandardCharsets.UTF_8), 1 << 16);
+        }
+    }
+
+    private Properties readState() throws IOException {
+        Properties state = new Properties();
+        File file = new File(directory, STATE);
+        if (file.exists()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                state.load(reader);
+            }
+            nextHeight = Long.parseLong(state.getProperty("height"));
+            nTransactions = Long.parseLong(state.getProperty("transactions"));
+            nInputs = Long.parseLong(state.getProperty("inputs"));
+            for (String name : state.stringPropertyNames()) {
+                if (name.startsWith("outputs.")) {
+                    outputCounter.put(Long.parseLong(name.substring(8)), Long.parseLong(state.getProperty(name)));
+                }
+            }
+        }
+        return state;
+    }
+
+    private void checkpoint() throws IOException {
+        Properties state = new Properties();
+        state.setProperty("height", String.valueOf(nextHeight));
+        state.setProperty("transactions", String.valueOf(nTransactions));
+        state.setProperty("inputs", String.valueOf(nInputs));
+        for (Map.Entry<Long, Long> counter : outputCounter.entrySet()) {
+            state.setProperty("outputs." + counter.getKey(), String.valueOf(counter.getValue()));
+        }
+        for (int k = 0; k < FILES.length; k++) {
+            writers[k].flush();
+            state.setProperty("length." + FILES[k], String.valueOf(streams[k].getChannel().size()));
+        }
+        File temporary = new File(directory, STATE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+            state.store(writer, "Next block to export and the counters of the export");
+        }
+        Files.move(temporary.toPath(), new File(directory, STATE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    long nextHeight() {
+        return nextHeight;
+    }
+
+    /**
+     * Exports all blocks from the next height until toHeight (exclusive).
+     */
+    void export(long toHeight) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        Deque<Future<MoneroBlock>> pending = new ArrayDeque<>();
+        long requested = nextHeight;
+        try {
+            while (nextHeight < toHeight) {
+                while (requested < toHeight && pending.size() < inFlight) {
+                    long height = requested++;
+                    pending.add(pool.submit(() -> fetch(height)));
+                }
+                write(pending.remove().get());
+                nextHeight += 1;
+                if (nextHeight % checkpointInterval == 0) {
+                    checkpoint();
+                }
+            }
+            checkpoint();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted at block " + nextHeight, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not fetch block " + nextHeight, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private MoneroBlock fetch(long height) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                MoneroBlock block = rpc.block(height);
+                if (!block.transactionHashes.isEmpty()) {
+                    rpc.transactions(block.transactionHashes, block.transactions);
+                }
+                return block;
+            } catch (IOException e) {
+                if (attempt == ATTEMPTS) {
+                    throw e;
+                }
+                Thread.sleep(1000L * attempt);
+            }
+        }
+    }
+
+    private void write(MoneroBlock block) throws IOException {
+        long height = block.height;
+        write(BLOCKS, height, height, block.hash, block.timestamp);
+        if (height > 0) {
+            write(BLOCKS_RELS, height, height - 1);
+        }
+        write(block.coinbase, height);
+        for (MoneroBlock.Transaction transaction : block.transactions) {
+            write(transaction, height);
+        }
+    }
+
+    private void write(MoneroBlock.Transaction transaction, long height) throws IOException {
+        String transactionId = "t" + nTransactions++;
+        write(TRANSACTIONS, transactionId, transaction.hash, transaction.fee);
+        write(TX_BLOCKS, transactionId, height);
+
+        for (int k = 0; k < transaction.inputAmounts.length; k++) {
+            long value = transaction.inputAmounts[k];
+            Long anonset = outputCounter.get(value);
+            if (anonset == null) {
+                throw new IllegalStateException("Input of value " + value + " without outputs in block " + height);
+            }
+            String inputId = "i" + nInputs++;
+            long[] offsets = transaction.keyOffsets[k];
+            write(INPUTS, inputId, value, offsets.length - 1, anonset);
+            write(INPUT_RELS, transactionId, inputId);
+            long index = 0;
+            for (long offset : offsets) {
+                index += offset;
+                write(REFERENCES, inputId, value + "-" + index);
+            }
+        }
+
+        for (long value : transaction.outputAmounts) {
+            long index = outputCounter.getOrDefault(value, 0L);
+            outputCounter.put(value, index + 1);
+            String outputId = value + "-" + index;
+            write(OUTPUTS, outputId, value, index);
+            write(OUTPUT_RELS, transactionId, outputId);
+        }
+    }
+
+    private void write(int file, Object... values) throws IOException {
+        BufferedWriter writer = writers[file];
+        for (int k = 0; k < values.length; k++) {
+            if (k > 0) {
+                writer.write(',');
+            }
+            writer.write(String.valueOf(values[k]));
+        }
+        writer.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BufferedWriter writer : writers) {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Parses --name value pairs like the tools of the plugin, which this module does not depend on. Prints the
+     * usage and exits if an argument is unknown, repeated or has no value.
+     */
+    static Map<String, String> arguments(String[] args) {
+        List<String> known = Arrays.asList("url", "dir", "to", "threads", "in-flight", "checkpoint");
+        Map<String, String> arguments = new HashMap<>();
+        for (int k = 0; k < args.length; k += 2) {
+            String problem = null;
+            if (!args[k].startsWith("--") || !known.contains(args[k].substring(2))) {
+                problem = "Unknown argument " + args[k] + ".";
+            } else if (k + 1 == args.length) {
+                problem = "Missing value for " + args[k] + ".";
+            } else if (arguments.put(args[k].substring(2), args[k + 1]) != null) {
+                problem = "Repeated argument " + args[k] + ".";
+            }
+            if (problem != null) {
+                System.err.println(problem);
+                System.err.println("Usage: java -jar exporter.jar [--url <URL>] [--dir <DIRECTORY>] [--to <HEIGHT>] " +
+                        "[--threads <N>] [--in-flight <N>] [--checkpoint <BLOCKS>]");
+                System.exit(2);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Arguments: --url (default http://127.0.0.1:18081/), --dir (default csv-export/csv), --to (default the
+     * current block count), --threads (default 16), --in-flight (default 4 per thread) and --checkpoint (default
+     * every 1000 blocks).
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = arguments(args);
+        MoneroRpc rpc = new MoneroRpc(arguments.getOrDefault("url", "http://127.0.0.1:18081/"));
+        File directory = new File(arguments.getOrDefault("dir", "csv-export/csv"));
+        int nThreads = Integer.parseInt(arguments.getOrDefault("threads", "16"));
+        int inFlight = Integer.parseInt(arguments.getOrDefault("in-flight", String.valueOf(4 * nThreads)));
+        int checkpointInterval = Integer.parseInt(arguments.getOrDefault("checkpoint", "1000"));
+        long toHeight = arguments.containsKey("to") ? Long.parseLong(arguments.get("to")) : rpc.blockCount();
+
+        try (MoneroExporter exporter = new MoneroExporter(rpc, directory, nThreads, inFlight, checkpointInterval)) {
+            long fromHeight = exporter.nextHeight();
+            long start = System.currentTimeMillis();
+            exporter.export(toHeight);
+            double seconds = (System.currentTimeMillis() - start) / 1000.0;
+            System.out.println(String.format("Exported blocks %d to %d to %s in %.1f s (%.1f blocks/s).", fromHeight,
+                    toHeight - 1, directory, seconds, (toHeight - fromHeight) / Math.max(seconds, 0.001)));
+        }
+    }
+}
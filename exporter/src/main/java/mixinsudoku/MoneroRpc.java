@@ -0,0 +1,97 @@
+package mixinsudoku;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+
+/**
+ * Client for the RPC interface of monerod, safe to be used by several threads at once.
+ */
+final class MoneroRpc {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int TIMEOUT_MILLIS = 60_000;
+
+    private final String url;
+
+    MoneroRpc(String url) {
+        this.url = url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * @return the number of blocks in the Monero blockchain
+     */
+    long blockCount() throws IOException {
+        return jsonRpc("getblockcount", null).get("count").asLong();
+    }
+
+    MoneroBlock block(long height) throws IOException {
+        ObjectNode params = MAPPER.createObjectNode();
+        params.put("height", height);
+        JsonNode result = jsonRpc("getblock", params);
+        MoneroBlock block = MoneroBlock.fromRpc(result, MAPPER.readTree(result.get("json").asText()));
+        if (block.height != height) {
+            throw new IOException("Requested block " + height + ", got " + block.height);
+        }
+        return block;
+    }
+
+    /**
+     * Fetches and decodes the given transactions, in the same order.
+     */
+    void transactions(List<String> hashes, List<MoneroBlock.Transaction> transactions) throws IOException {
+        ObjectNode request = MAPPER.createObjectNode();
+        ArrayNode txsHashes = request.putArray("txs_hashes");
+        hashes.forEach(txsHashes::add);
+        request.put("decode_as_json", true);
+        JsonNode json = post("gettransactions", request).path("txs_as_json");
+        if (json.size() != hashes.size()) {
+            throw new IOException("Requested " + hashes.size() + " transactions, got " + json.size());
+        }
+        for (int k = 0; k < hashes.size(); k++) {
+            transactions.add(MoneroBlock.Transaction.fromRpc(hashes.get(k), MAPPER.readTree(json.get(k).asText())));
+        }
+    }
+
+    private JsonNode jsonRpc(String method, JsonNode params) throws IOException {
+        ObjectNode request = MAPPER.createObjectNode();
+        request.put("jsonrpc", "2.0");
+        request.put("id", "0");
+        request.put("method", method);
+        if (params != null) {
+            request.set("params", params);
+        }
+        JsonNode response = post("json_rpc", request);
+        if (response.has("error")) {
+            throw new IOException(method + " failed: " + response.get("error"));
+        }
+        return response.get("result");
+    }
+
+    private JsonNode post(String path, JsonNode request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            MAPPER.writeValue(out, request);
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException(path + " returned HTTP " + connection.getResponseCode());
+        }
+        try (InputStream in = connection.getInputStream()) {
+            return MAPPER.readTree(in);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package mixinsudoku;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class MoneroExporterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // miner_tx and transactions of every block, in the JSON returned by monerod
+    private static final String[][] CHAIN = {
+            {"{'version': 1, 'vout': [{'amount': 10}, {'amount': 20}]}"},
+            {"{'version': 1, 'vout': [{'amount': 10}]}",
+                    "{'vin': [{'key': {'amount': 10, 'key_offsets': [0, 1]}}], 'vout': [{'amount': 4}, {'amount': 5}]}"},
+            {"{'version': 2, 'vout': [{'amount': 0}]}",
+                    "{'vin': [{'key': {'amount': 4, 'key_offsets': [0]}}], 'vout': [{'amount': 0}, {'amount': 0}], " +
+                            "'rct_signatures': {'type': 1, 'txnFee': 7}}",
+                    "{'vin': [{'key': {'amount': 10, 'key_offsets': [1]}}], 'vout': [{'amount': 2}]}"},
+    };
+
+    private static final Map<String, List<String>> EXPECTED = new HashMap<>();
+
+    static {
+        EXPECTED.put("blocks.csv", Arrays.asList("0,0,h0,1000", "1,1,h1,1120", "2,2,h2,1240"));
+        EXPECTED.put("blocks-rels.csv", Arrays.asList("1,0", "2,1"));
+        EXPECTED.put("transactions.csv", Arrays.asList("t0,,0", "t1,,0", "t2,tx1-1,1", "t3,,0", "t4,tx2-1,7",
+                "t5,tx2-2,8"));
+        EXPECTED.put("tx-blocks.csv", Arrays.asList("t0,0", "t1,1", "t2,1", "t3,2", "t4,2", "t5,2"));
+        EXPECTED.put("outputs.csv", Arrays.asList("10-0,10,0", "20-0,20,0", "10-1,10,1", "4-0,4,0", "5-0,5,0",
+                "0-0,0,0", "0-1,0,1", "0-2,0,2", "2-0,2,0"));
+        EXPECTED.put("output-rels.csv", Arrays.asList("t0,10-0", "t0,20-0", "t1,10-1", "t2,4-0", "t2,5-0",
+                "t3,0-0", "t4,0-1", "t4,0-2", "t5,2-0"));
+        EXPECTED.put("inputs.csv", Arrays.asList("i0,10,1,2", "i1,4,0,1", "i2,10,0,2"));
+        EXPECTED.put("input-rels.csv", Arrays.asList("t2,i0", "t4,i1", "t5,i2"));
+        EXPECTED.put("input-output-refs.csv", Arrays.asList("i0,10-0", "i0,10-1", "i1,4-0", "i2,10-1"));
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private MoneroRpc rpc;
+
+    @Before
+    public void startStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/json_rpc", this::jsonRpc);
+        server.createContext("/gettransactions", this::getTransactions);
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.start();
+        rpc = new MoneroRpc("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @After
+    public void stopStubServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldExportLikeTheScript() throws IOException {
+        File directory = folder.newFolder("csv");
+        try (MoneroExporter exporter = new MoneroExporter(rpc, directory, 4, 3, 1000)) {
+            exporter.export(rpc.blockCount());
+        }
+        assertFiles(directory);
+    }
+
+    @Test
+    public void shouldResumeFromLastCheckpoint() throws IOException {
+        File directory = folder.newFolder("csv");
+        try (MoneroExporter exporter = new MoneroExporter(rpc, directory, 2, 2, 1)) {
+            exporter.export(2);
+        }
+        // rows written after the last checkpoint, e.g. by an export that was killed
+        Files.write(new File(directory, "outputs.csv").toPath(), "9-9,9,9\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (MoneroExporter exporter = new MoneroExporter(rpc, directory, 2, 2, 1)) {
+            assertEquals(2, exporter.nextHeight());
+            exporter.export(3);
+        }
+        assertFiles(directory);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotOverwriteExportWithoutState() throws IOException {
+        File directory = folder.newFolder("csv");
+        Files.write(new File(directory, "blocks.csv").toPath(), "0,0,h0,1000\n".getBytes(StandardCharsets.UTF_8));
+        new MoneroExporter(rpc, directory, 1, 1, 1).close();
+    }
+
+    private static void assertFiles(File directory) throws IOException {
+        for (String file : MoneroExporter.FILES) {
+            assertEquals(file, EXPECTED.get(file),
+                    Files.readAllLines(new File(directory, file).toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private void jsonRpc(HttpExchange exchange) throws IOException {
+        JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+        ObjectNode response = MAPPER.createObjectNode();
+        ObjectNode result = response.putObject("result");
+        if (request.get("method").asText().equals("getblockcount")) {
+            result.put("count", CHAIN.length);
+        } else {
+            int height = request.get("params").get("height").asInt();
+            // earlier blocks take longer, so that they are completed out of order
+            sleep(50 * (CHAIN.length - height));
+            ObjectNode header = result.putObject("block_header");
+            header.put("height", height);
+            header.put("hash", "h" + height);
+            header.put("timestamp", 1000 + 120 * height);
+            ObjectNode block = MAPPER.createObjectNode();
+            block.set("miner_tx", json(CHAIN[height][0]));
+            for (int k = 1; k < CHAIN[height].length; k++) {
+                block.withArray("tx_hashes").add("tx" + height + "-" + k);
+            }
+            result.put("json", MAPPER.writeValueAsString(block));
+        }
+        respond(exchange, response);
+    }
+
+    private void getTransactions(HttpExchange exchange) throws IOException {
+        JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+        ObjectNode response = MAPPER.createObjectNode();
+        for (JsonNode hash : request.get("txs_hashes")) {
+            String[] parts = hash.asText().substring(2).split("-");
+            response.withArray("txs_as_json").add(MAPPER.writeValueAsString(
+                    json(CHAIN[Integer.parseInt(parts[0])][Integer.parseInt(parts[1])])));
+        }
+        respond(exchange, response);
+    }
+
+    private static JsonNode json(String json) throws IOException {
+        return MAPPER.readTree(json.replace('\'', '"'));
+    }
+
+    private static void respond(HttpExchange exchange, JsonNode response) throws IOException {
+        byte[] body = MAPPER.writeValueAsBytes(response);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
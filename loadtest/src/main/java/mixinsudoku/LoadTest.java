@@ -0,0 +1,174 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.impl.proc.Procedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.tooling.ImportTool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * End-to-end load test: generates a synthetic data set, imports it into a fresh embedded database with the import
+ * tool and runs the whole analysis, timing every stage.
+ * <p>
+ * Example: {@code java -jar loadtest.jar --dir /tmp/loadtest --blocks 200000 --threads 8}. Use --csv to import an
+ * existing export instead of generating one, and --headers if not started from the repository root.
+ */
+public final class LoadTest {
+
+    private static final String[][] NODES = {
+            {"Block", "blocks.csv"},
+            {"Transaction", "transactions.csv"},
+            {"Output", "outputs.csv"},
+            {"Input", "inputs.csv"},
+    };
+
+    private static final String[][] RELATIONSHIPS = {
+            {"PREV_BLOCK", "blocks-rels.csv"},
+            {"IN_BLOCK", "tx-blocks.csv"},
+            {"TX_OUTPUT", "output-rels.csv"},
+            {"TX_INPUT", "input-rels.csv"},
+            {"REFERENCES", "input-output-refs.csv"},
+    };
+
+    private final List<String> report = new ArrayList<>();
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = parseArguments(args);
+        File directory = new File(arguments.getOrDefault("dir", "loadtest"));
+        File headers = new File(arguments.getOrDefault("headers", "csv-export/csv-headers"));
+        File store = new File(directory, "graph.db");
+        int nThreads = Integer.parseInt(arguments.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        LoadTest loadTest = new LoadTest();
+        File csv;
+        if (arguments.containsKey("csv")) {
+            csv = new File(arguments.get("csv"));
+        } else {
+            csv = new File(directory, "csv");
+            MoneroCsvGenerator.Options options = MoneroCsvGenerator.Options.parse(arguments);
+            long start = System.currentTimeMillis();
+            try (MoneroCsvGenerator generator = new MoneroCsvGenerator(csv, options)) {
+                generator.generate();
+                loadTest.record("generate", start, generator.summary());
+            }
+        }
+
+        FileUtils.deleteRecursively(store);
+        long start = System.currentTimeMillis();
+        ImportTool.main(importArguments(store, headers, csv), false);
+        loadTest.record("import", start, "");
+
+        GraphDatabaseService db = new GraphDatabaseFactory()
+                .newEmbeddedDatabaseBuilder(store)
+                .setConfig(GraphDatabaseSettings.procedure_unrestricted, "mixinsudoku.*")
+                .newGraphDatabase();
+        try {
+            registerProcedures(db);
+            loadTest.run(db, nThreads);
+        } finally {
+            db.shutdown();
+        }
+        loadTest.report.forEach(System.out::println);
+    }
+
+    private void run(GraphDatabaseService db, int nThreads) {
+        long start = System.currentTimeMillis();
+        db.execute("CALL mixinsudoku.schema()").close();
+        try (Transaction tx = db.beginTx()) {
+            db.schema().awaitIndexesOnline(1, TimeUnit.DAYS);
+            tx.success();
+        }
+        record("schema", start, "");
+
+        stage(db, "coinbase", "CALL mixinsudoku.coinbase()");
+        stage(db, "zeromixin", "CALL mixinsudoku.zeromixin(10000, " + nThreads + ")");
+        stage(db, "sudoku", "CALL mixinsudoku.sudoku()");
+        stage(db, "sat.all", "CALL mixinsudoku.sat.all(" + nThreads + ")");
+
+        String spends = count(db, "MATCH (o:UniqueSpend) RETURN count(o)") + " unique spends, " +
+                count(db, "MATCH (o:SatSpend) RETURN count(o)") + " SAT spends";
+        report.add(String.format("%-10s %s", "result", spends));
+    }
+
+    private void stage(GraphDatabaseService db, String name, String query) {
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        try (Result result = db.execute(query)) {
+            while (result.hasNext()) {
+                result.next();
+                rows += 1;
+            }
+        }
+        record(name, start, rows > 0 ? rows + " rows" : "");
+    }
+
+    private void record(String stage, long start, String details) {
+        String line = String.format("%-10s %10.1f s  %s", stage, (System.currentTimeMillis() - start) / 1000.0,
+                details);
+        System.out.println(line);
+        report.add(line);
+    }
+
+    private static long count(GraphDatabaseService db, String query) {
+        try (Result result = db.execute(query)) {
+            return ((Number) result.next().values().iterator().next()).longValue();
+        }
+    }
+
+    private static String[] importArguments(File store, File headers, File csv) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--into");
+        arguments.add(store.getPath());
+        for (String[] nodes : NODES) {
+            arguments.add("--nodes:" + nodes[0]);
+            arguments.add(new File(headers, nodes[1]) + "," + new File(csv, nodes[1]));
+        }
+        for (String[] relationships : RELATIONSHIPS) {
+            arguments.add("--relationships:" + relationships[0]);
+            arguments.add(new File(headers, relationships[1]) + "," + new File(csv, relationships[1]));
+        }
+        return arguments.toArray(new String[0]);
+    }
+
+    private static void registerProcedures(GraphDatabaseService db) {
+        Procedures procedures = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Procedures.class);
+        try {
+            for (Class<?> procedure : new Class<?>[]{DatabaseHelpers.class, MixinSudoku.class, SATSudoku.class}) {
+                procedures.registerProcedure(procedure);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not register procedures.", e);
+        }
+    }
+
+    /**
+     * Parses arguments of the form {@code --name value}.
+     */
+    static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> arguments = new HashMap<>();
+        for (int k = 0; k < args.length; k++) {
+            if (!args[k].startsWith("--") || k + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[k]);
+            }
+            arguments.put(args[k].substring(2), args[++k]);
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,288 @@
+package mixinsudoku;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Writes a seeded synthetic blockchain in the layout of csv-export/monero-to-csv.py, to be imported together with
+ * the files in csv-export/csv-headers.
+ * <p>
+ * Every block has a coinbase transaction and a number of regular transactions. Before ringctHeight all amounts are
+ * taken from the pre-RingCT denominations and ring sizes follow the given mixin distribution; from ringctHeight on
+ * new outputs have value 0 and inputs of value 0 use ringctMixin. Real spends are drawn uniformly from all unspent
+ * outputs, decoys are drawn from all outputs of the same value with a preference for recent ones.
+ */
+final class MoneroCsvGenerator implements Closeable {
+
+    static final class Options {
+        int blocks = 10000;
+        int transactionsPerBlock = 4;
+        int ringctHeight = -1;
+        double[] mixinWeights = {0.5, 0.1, 0.2, 0.1, 0.1};
+        int ringctMixin = 4;
+        long seed = 42;
+
+        static Options parse(Map<String, String> arguments) {
+            Options options = new Options();
+            options.blocks = Integer.parseInt(arguments.getOrDefault("blocks", String.valueOf(options.blocks)));
+            options.transactionsPerBlock = Integer.parseInt(arguments.getOrDefault("tx-per-block",
+                    String.valueOf(options.transactionsPerBlock)));
+            options.ringctHeight = Integer.parseInt(arguments.getOrDefault("ringct-height",
+                    String.valueOf(options.blocks * 7 / 10)));
+            if (arguments.containsKey("mixins")) {
+                options.mixinWeights = parseWeights(arguments.get("mixins"));
+            }
+            options.ringctMixin = Integer.parseInt(arguments.getOrDefault("ringct-mixin",
+                    String.valueOf(options.ringctMixin)));
+            options.seed = Long.parseLong(arguments.getOrDefault("seed", String.valueOf(options.seed)));
+            return options;
+        }
+
+        /**
+         * Parses a mixin distribution such as "0:0.5,2:0.3,4:0.2".
+         */
+        private static double[] parseWeights(String distribution) {
+            double[] weights = new double[0];
+            for (String entry : distribution.split(",")) {
+                String[] parts = entry.split(":");
+                int mixin = Integer.parseInt(parts[0].trim());
+                if (mixin >= weights.length) {
+                    weights = Arrays.copyOf(weights, mixin + 1);
+                }
+                weights[mixin] = Double.parseDouble(parts[1].trim());
+            }
+            return weights;
+        }
+    }
+
+    private static final long BASE_REWARD = 10_000_000_000_000L;
+    private static final long GENESIS_TIMESTAMP = 1397818193L;
+    private static final int BLOCK_TIME = 120;
+
+    private final Options options;
+    private final Random random;
+    private final double totalMixinWeight;
+
+    private final BufferedWriter blocks;
+    private final BufferedWriter blocksRels;
+    private final BufferedWriter transactions;
+    private final BufferedWriter txBlocks;
+    private final BufferedWriter outputs;
+    private final BufferedWriter outputRels;
+    private final BufferedWriter inputs;
+    private final BufferedWriter inputRels;
+    private final BufferedWriter references;
+
+    /**
+     * Number of outputs per value, i.e. the next output index (OUTPUT_COUNTER of the export script).
+     */
+    private final Map<Long, Integer> outputCounter = new HashMap<>();
+
+    private long[] unspentValues = new long[1024];
+    private int[] unspentIndexes = new int[1024];
+    private int nUnspent = 0;
+
+    private long nTransactions = 0;
+    private long nInputs = 0;
+    private long nOutputs = 0;
+    private long nReferences = 0;
+
+    MoneroCsvGenerator(File directory, Options options) throws IOException {
+        this.options = options;
+        this.random = new Random(options.seed);
+        this.totalMixinWeight = Arrays.stream(options.mixinWeights).sum();
+
+        Files.createDirectories(directory.toPath());
+        blocks = open(directory, "blocks.csv");
+        blocksRels = open(directory, "blocks-rels.csv");
+        transactions = open(directory, "transactions.csv");
+        txBlocks = open(directory, "tx-blocks.csv");
+        outputs = open(directory, "outputs.csv");
+        outputRels = open(directory, "output-rels.csv");
+        inputs = open(directory, "inputs.csv");
+        inputRels = open(directory, "input-rels.csv");
+        references = open(directory, "input-output-refs.csv");
+    }
+
+    private static BufferedWriter open(File directory, String name) throws IOException {
+        return Files.newBufferedWriter(new File(directory, name).toPath(), StandardCharsets.UTF_8);
+    }
+
+    void generate() throws IOException {
+        for (int height = 0; height < options.blocks; height++) {
+            boolean ringct = height >= options.ringctHeight;
+            write(blocks, height, height, hash(), GENESIS_TIMESTAMP + (long) height * BLOCK_TIME);
+            if (height > 0) {
+                write(blocksRels, height, height - 1);
+            }
+
+            String coinbase = createTransaction(height, "", 0);
+            if (ringct) {
+                createOutput(0, coinbase);
+            } else {
+                for (int k = 1 + random.nextInt(4); k > 0; k--) {
+                    createOutput(denomination(BASE_REWARD), coinbase);
+                }
+            }
+
+            int nTransactions = random.nextInt(2 * options.transactionsPerBlock + 1);
+            for (int t = 0; t < nTransactions && nUnspent > 0; t++) {
+                String transaction = createTransaction(height, hash(), 1_000_000 + random.nextInt(100_000_000));
+                for (int k = Math.min(nUnspent, 1 + random.nextInt(3)); k > 0; k--) {
+                    createInput(transaction);
+                }
+                for (int k = ringct ? 2 : 2 + random.nextInt(3); k > 0; k--) {
+                    createOutput(ringct ? 0 : denomination(BASE_REWARD / 10), transaction);
+                }
+            }
+        }
+    }
+
+    private String createTransaction(int height, String hash, long fee) throws IOException {
+        String id = "t" + nTransactions++;
+        write(transactions, id, hash, fee);
+        write(txBlocks, id, height);
+        return id;
+    }
+
+    private void createOutput(long value, String transaction) throws IOException {
+        int index = outputCounter.getOrDefault(value, 0);
+        outputCounter.put(value, index + 1);
+        String id = value + "-" + index;
+        write(outputs, id, value, index);
+        write(outputRels, transaction, id);
+        addUnspent(value, index);
+        nOutputs += 1;
+    }
+
+    private void createInput(String transaction) throws IOException {
+        // spend a random unspent output
+        int k = random.nextInt(nUnspent);
+        long value = unspentValues[k];
+        int real = unspentIndexes[k];
+        nUnspent -= 1;
+        unspentValues[k] = unspentValues[nUnspent];
+        unspentIndexes[k] = unspentIndexes[nUnspent];
+
+        int anonset = outputCounter.get(value);
+        int mixin = Math.min(anonset - 1, value == 0 ? options.ringctMixin : mixin());
+        int[] ring = new int[mixin + 1];
+        ring[0] = real;
+        for (int size = 1; size < ring.length; ) {
+            int decoy = decoy(anonset);
+            if (!contains(ring, size, decoy)) {
+                ring[size++] = decoy;
+            }
+        }
+        Arrays.sort(ring);
+
+        String id = "i" + nInputs++;
+        write(inputs, id, value, mixin, anonset);
+        write(inputRels, transaction, id);
+        for (int index : ring) {
+            write(references, id, value + "-" + index);
+        }
+        nReferences += ring.length;
+    }
+
+    private void addUnspent(long value, int index) {
+        if (nUnspent == unspentValues.length) {
+            unspentValues = Arrays.copyOf(unspentValues, nUnspent * 2);
+            unspentIndexes = Arrays.copyOf(unspentIndexes, nUnspent * 2);
+        }
+        unspentValues[nUnspent] = value;
+        unspentIndexes[nUnspent] = index;
+        nUnspent += 1;
+    }
+
+    private int mixin() {
+        double u = random.nextDouble() * totalMixinWeight;
+        for (int mixin = 0; mixin < options.mixinWeights.length; mixin++) {
+            u -= options.mixinWeights[mixin];
+            if (u < 0) {
+                return mixin;
+            }
+        }
+        return options.mixinWeights.length - 1;
+    }
+
+    /**
+     * Draws an output index with an exponentially decreasing probability by age.
+     */
+    private int decoy(int anonset) {
+        int age = (int) (-Math.log(1 - random.nextDouble()) * (anonset / 10.0 + 1));
+        return age < anonset ? anonset - 1 - age : random.nextInt(anonset);
+    }
+
+    /**
+     * @return a pre-RingCT denomination, a single digit times a power of ten below the given maximum
+     */
+    private long denomination(long maximum) {
+        long power = 1_000_000L;
+        for (int k = random.nextInt(7); k > 0 && power * 10 < maximum; k--) {
+            power *= 10;
+        }
+        return (1 + random.nextInt(9)) * power;
+    }
+
+    private static boolean contains(int[] array, int size, int value) {
+        for (int k = 0; k < size; k++) {
+            if (array[k] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String hash() {
+        StringBuilder hash = new StringBuilder(64);
+        for (int k = 0; k < 4; k++) {
+            hash.append(String.format("%016x", random.nextLong()));
+        }
+        return hash.toString();
+    }
+
+    private static void write(BufferedWriter writer, Object... values) throws IOException {
+        for (int k = 0; k < values.length; k++) {
+            if (k > 0) {
+                writer.write(',');
+            }
+            writer.write(String.valueOf(values[k]));
+        }
+        writer.newLine();
+    }
+
+    String summary() {
+        return options.blocks + " blocks, " + nTransactions + " transactions, " + nInputs + " inputs, " +
+                nOutputs + " outputs, " + nReferences + " references";
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BufferedWriter writer : new BufferedWriter[]{blocks, blocksRels, transactions, txBlocks, outputs,
+                outputRels, inputs, inputRels, references}) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a synthetic data set, e.g. {@code --dir csv --blocks 100000 --mixins 0:0.6,2:0.3,4:0.1}.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = LoadTest.parseArguments(args);
+        File directory = new File(arguments.getOrDefault("dir", "csv"));
+        try (MoneroCsvGenerator generator = new MoneroCsvGenerator(directory, Options.parse(arguments))) {
+            generator.generate();
+            System.out.println("Wrote " + generator.summary() + " to " + directory + ".");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package mixinsudoku;
+
+
+/**
+ * One bucket of the histogram of reference ages.
+ */
+public class AgeOutput {
+
+    /**
+     * The UTC year of the block of the inputs, or null if the block has no timestamp.
+     */
+    public Long year;
+    public long mixin;
+    public long value;
+
+    /**
+     * One of spend, decoy or unknown.
+     */
+    public String kind;
+
+    /**
+     * The lower bound of the bucket, in blocks.
+     */
+    public long age;
+    public long references;
+
+    AgeOutput(Long year, long mixin, long value, String kind, long age, long references) {
+        this.year = year;
+        this.mixin = mixin;
+        this.value = value;
+        this.kind = kind;
+        this.age = age;
+        this.references = references;
+    }
+}
@@ -0,0 +1,162 @@
+package mixinsudoku;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+
+import java.util.Arrays;
+
+
+/**
+ * Encodings of the constraint that at most one of a set of literals is true.
+ * <p>
+ * The pairwise encoding needs k * (k - 1) / 2 binary clauses for k literals, which becomes prohibitive for outputs
+ * that are referenced by thousands of inputs. The other encodings introduce auxiliary variables (taken from
+ * {@link ISolver#nextFreeVarId(boolean)}) and only need a linear number of clauses.
+ */
+final class AtMostOne {
+
+    enum Encoding {
+        /**
+         * Chooses an encoding based on the number of literals.
+         */
+        AUTO,
+        PAIRWISE,
+        SEQUENTIAL,
+        COMMANDER,
+        PRODUCT,
+        /**
+         * Uses the cardinality constraints of sat4j instead of clauses.
+         */
+        NATIVE;
+
+        static Encoding parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    static final int PAIRWISE_LIMIT = 6;
+    static final int SEQUENTIAL_LIMIT = 100;
+
+    private static final int COMMANDER_GROUP_SIZE = 3;
+
+    private AtMostOne() {
+    }
+
+    static Encoding choose(int nLiterals) {
+        if (nLiterals <= PAIRWISE_LIMIT) {
+            return Encoding.PAIRWISE;
+        } else if (nLiterals <= SEQUENTIAL_LIMIT) {
+            return Encoding.SEQUENTIAL;
+        }
+        return Encoding.PRODUCT;
+    }
+
+    static void add(ISolver solver, int[] literals, Encoding encoding) throws ContradictionException {
+        if (literals.length < 2) {
+            return;
+        }
+        if (encoding == Encoding.AUTO) {
+            encoding = choose(literals.length);
+        }
+        switch (encoding) {
+            case PAIRWISE:
+                pairwise(solver, literals);
+                break;
+            case SEQUENTIAL:
+                sequential(solver, literals);
+                break;
+            case COMMANDER:
+                commander(solver, literals);
+                break;
+            case PRODUCT:
+                product(solver, literals);
+                break;
+            case NATIVE:
+                solver.addAtMost(new VecInt(literals), 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown encoding " + encoding);
+        }
+    }
+
+    private static void pairwise(ISolver solver, int[] literals) throws ContradictionException {
+        for (int i = 0; i < literals.length - 1; i++) {
+            for (int j = i + 1; j < literals.length; j++) {
+                binary(solver, -literals[i], -literals[j]);
+            }
+        }
+    }
+
+    /**
+     * Sequential counter (Sinz 2005): 3k - 4 clauses and k - 1 auxiliary variables.
+     */
+    private static void sequential(ISolver solver, int[] literals) throws ContradictionException {
+        int n = literals.length;
+        int previous = solver.nextFreeVarId(true);
+        binary(solver, -literals[0], previous);
+        for (int i = 1; i < n - 1; i++) {
+            int current = solver.nextFreeVarId(true);
+            binary(solver, -literals[i], current);
+            binary(solver, -previous, current);
+            binary(solver, -literals[i], -previous);
+            previous = current;
+        }
+        binary(solver, -literals[n - 1], -previous);
+    }
+
+    /**
+     * Commander encoding (Klieber and Kwon 2007): literals are split into small groups, each group gets a commander
+     * variable that is implied by its members, and the commanders are constrained recursively.
+     */
+    private static void commander(ISolver solver, int[] literals) throws ContradictionException {
+        if (literals.length <= PAIRWISE_LIMIT) {
+            pairwise(solver, literals);
+            return;
+        }
+        int nGroups = (literals.length + COMMANDER_GROUP_SIZE - 1) / COMMANDER_GROUP_SIZE;
+        int[] commanders = new int[nGroups];
+        for (int g = 0; g < nGroups; g++) {
+            int[] group = Arrays.copyOfRange(literals, g * COMMANDER_GROUP_SIZE,
+                    Math.min(literals.length, (g + 1) * COMMANDER_GROUP_SIZE));
+            commanders[g] = solver.nextFreeVarId(true);
+            pairwise(solver, group);
+            for (int literal : group) {
+                binary(solver, -literal, commanders[g]);
+            }
+        }
+        commander(solver, commanders);
+    }
+
+    /**
+     * Product encoding (Chen 2010): literals are arranged in a grid and each literal implies its row and its column,
+     * of which at most one may be selected each.
+     */
+    private static void product(ISolver solver, int[] literals) throws ContradictionException {
+        if (literals.length <= PAIRWISE_LIMIT) {
+            pairwise(solver, literals);
+            return;
+        }
+        int nRows = (int) Math.ceil(Math.sqrt(literals.length));
+        int nColumns = (literals.length + nRows - 1) / nRows;
+        int[] rows = new int[nRows];
+        int[] columns = new int[nColumns];
+        for (int r = 0; r < nRows; r++) {
+            rows[r] = solver.nextFreeVarId(true);
+        }
+        for (int c = 0; c < nColumns; c++) {
+            columns[c] = solver.nextFreeVarId(true);
+        }
+        for (int i = 0; i < literals.length; i++) {
+            binary(solver, -literals[i], rows[i / nColumns]);
+            binary(solver, -literals[i], columns[i % nColumns]);
+        }
+        product(solver, rows);
+        product(solver, columns);
+    }
+
+    private static void binary(ISolver solver, int a, int b) throws ContradictionException {
+        int[] clause = {a, b};
+        solver.addClause(new VecInt(clause));
+    }
+}
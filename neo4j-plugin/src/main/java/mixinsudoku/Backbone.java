@@ -0,0 +1,253 @@
+package mixinsudoku;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.IConstr;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.ISolverService;
+import org.sat4j.specs.TimeoutException;
+import org.sat4j.tools.SearchListenerAdapter;
+
+
+/**
+ * Computes the backbone of a Mixin Sudoku SAT problem, i.e. the references that are the real spend in every valid
+ * assignment (positive literals) and the references that are never the real spend (negative literals).
+ * <p>
+ * Candidates are taken from a first model and tested one at a time under the assumption of their negation. Every
+ * model found along the way removes all candidates it disagrees with. Proven literals are added to the solver as
+ * unit clauses and propagated along the rings: a spent reference rules out all other references of its input and
+ * of its output, and an input with a single reference left has to spend it. Literals settled by this propagation
+ * do not need a solver call.
+ * <p>
+ * {@link #compute(SolverBudget)} can be called again after it ran out of budget and continues with the references
+ * that are neither proven nor known to take both values.
+ */
+final class Backbone {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = -1;
+
+    private final ISolver solver;
+    private final RingGraph graph;
+    private final int[] variables;
+    private final int[] inputOf;
+    private final byte[] state;
+    /**
+     * References that take both values in the models found so far, so they are not part of the backbone.
+     */
+    private final boolean[] free;
+
+    private final VecInt pending = new VecInt();
+    /**
+     * The conflicts the running solver call may still spend, or -1 for no limit.
+     */
+    private long remainingConflicts = -1;
+    private int solverCalls = 0;
+    private int models = 0;
+    private int settled = 0;
+    private int nFree = 0;
+    private boolean contradiction = false;
+
+    /**
+     * @param solver    a solver that contains all clauses of the problem
+     * @param graph     the ring graph of the problem
+     * @param variables the solver variable of every reference of the graph
+     */
+    Backbone(ISolver solver, RingGraph graph, int[] variables) {
+        this.solver = solver;
+        this.graph = graph;
+        this.variables = variables;
+        this.state = new byte[graph.referenceCount()];
+        this.free = new boolean[graph.referenceCount()];
+        this.inputOf = new int[graph.referenceCount()];
+        for (int i = 0; i < graph.inputCount(); i++) {
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                inputOf[r] = i;
+            }
+        }
+        solver.setSearchListener(new ConflictLimit());
+    }
+
+    /**
+     * @return false if the problem does not have a single valid assignment
+     * @throws TimeoutException if the budget is exhausted, literals proven so far are kept
+     */
+    boolean compute(SolverBudget budget) throws TimeoutException {
+        long deadline = System.currentTimeMillis() + budget.timeout;
+        long conflictLimit = budget.conflicts > 0 ? conflicts() + budget.conflicts : Long.MAX_VALUE;
+
+        if (contradiction) {
+            return false;
+        }
+        arm(deadline, conflictLimit);
+        solverCalls += 1;
+        if (!solver.isSatisfiable()) {
+            return false;
+        }
+        models += 1;
+
+        boolean[] candidateValue = new boolean[graph.referenceCount()];
+        for (int r = 0; r < graph.referenceCount(); r++) {
+            candidateValue[r] = solver.model(variables[r]);
+        }
+
+        for (int r = 0; r < graph.referenceCount(); r++) {
+            if (state[r] != UNKNOWN || free[r]) {
+                continue;
+            }
+            int literal = candidateValue[r] ? variables[r] : -variables[r];
+
+            arm(deadline, conflictLimit);
+            solverCalls += 1;
+            if (solver.isSatisfiable(new VecInt(new int[]{-literal}))) {
+                models += 1;
+                for (int s = r; s < graph.referenceCount(); s++) {
+                    if (state[s] == UNKNOWN && !free[s] && solver.model(variables[s]) != candidateValue[s]) {
+                        free[s] = true;
+                        nFree += 1;
+                    }
+                }
+            } else {
+                prove(r, candidateValue[r]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Limits the next solver call to what is left of the budget. sat4j only counts either time or conflicts, so it
+     * gets the time, and the search listener expires the call from the solver thread once it has used up its
+     * conflicts.
+     */
+    private void arm(long deadline, long conflictLimit) throws TimeoutException {
+        long remainingTime = deadline - System.currentTimeMillis();
+        long conflicts = conflictLimit - conflicts();
+        if (remainingTime <= 0 || conflicts <= 0) {
+            throw new TimeoutException("Solver budget exhausted.");
+        }
+        solver.setTimeoutMs(remainingTime);
+        remainingConflicts = conflictLimit == Long.MAX_VALUE ? -1 : conflicts;
+    }
+
+    private long conflicts() {
+        Number conflicts = solver.getStat().get("conflicts");
+        return conflicts == null ? 0 : conflicts.longValue();
+    }
+
+    /**
+     * Adds a reference that is known to be impossible, and everything that follows from it.
+     */
+    void exclude(int reference) {
+        if (state[reference] == UNKNOWN) {
+            prove(reference, false);
+        }
+    }
+
+    private void prove(int reference, boolean value) {
+        enqueue(reference, value);
+        while (pending.size() > 0) {
+            int r = pending.last();
+            pending.pop();
+            try {
+                solver.addClause(new VecInt(new int[]{state[r] == TRUE ? variables[r] : -variables[r]}));
+            } catch (ContradictionException e) {
+                // literals that hold in every model cannot contradict, so there is no model at all
+                contradiction = true;
+            }
+
+            int input = inputOf[r];
+            if (state[r] == TRUE) {
+                // the input spends this output, so neither of them takes part in any other reference
+                for (int s = graph.inputOffsets[input]; s < graph.inputOffsets[input + 1]; s++) {
+                    enqueue(s, false);
+                }
+                int output = graph.inputTargets[r];
+                for (int p = graph.outputOffsets[output]; p < graph.outputOffsets[output + 1]; p++) {
+                    enqueue(graph.outputReferences[p], false);
+                }
+            } else {
+                // an input with a single reference left has to spend it
+                int open = -1;
+                int nOpen = 0;
+                for (int s = graph.inputOffsets[input]; s < graph.inputOffsets[input + 1]; s++) {
+                    if (state[s] != FALSE) {
+                        open = s;
+                        nOpen += 1;
+                    }
+                }
+                if (nOpen == 1) {
+                    enqueue(open, true);
+                }
+            }
+        }
+    }
+
+    private void enqueue(int reference, boolean value) {
+        if (state[reference] == UNKNOWN) {
+            state[reference] = value ? TRUE : FALSE;
+            pending.push(reference);
+            settled += 1;
+        }
+    }
+
+    /**
+     * @return all proven literals: the positive variable of every forced spend and the negative variable of every
+     * impossible reference
+     */
+    VecInt literals() {
+        VecInt literals = new VecInt();
+        for (int r = 0; r < graph.referenceCount(); r++) {
+            if (state[r] == TRUE) {
+                literals.push(variables[r]);
+            } else if (state[r] == FALSE) {
+                literals.push(-variables[r]);
+            }
+        }
+        return literals;
+    }
+
+    int solverCalls() {
+        return solverCalls;
+    }
+
+    int models() {
+        return models;
+    }
+
+    /**
+     * @return the number of literals that were settled, by a solver call or by propagation
+     */
+    int settled() {
+        return settled;
+    }
+
+    /**
+     * @return the number of references that are neither proven nor known not to be part of the backbone
+     */
+    int undecided() {
+        return graph.referenceCount() - settled - nFree;
+    }
+
+    /**
+     * @return the fraction of references that are decided
+     */
+    double progress() {
+        return graph.referenceCount() == 0 ? 1 : 1 - undecided() / (double) graph.referenceCount();
+    }
+
+    /**
+     * Expires the running solver call once it has used up the conflicts it may spend, from the solver thread.
+     */
+    private class ConflictLimit extends SearchListenerAdapter<ISolverService> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void conflictFound(IConstr confl, int dlevel, int trailLevel) {
+            if (remainingConflicts > 0 && --remainingConflicts == 0) {
+                solver.expireTimeout();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.concurrent.*;
+
+
+/**
+ * Groups writes into transactions of a fixed size, so that large write-backs do not have to be held in memory
+ * as a single transaction.
+ * <p>
+ * Procedures always run inside a transaction of their own, so a committer has to be used from a thread that is
+ * not bound to a transaction yet, e.g. via {@link #runDetached(Callable)}.
+ */
+final class BatchCommitter implements AutoCloseable {
+
+    static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private final GraphDatabaseService db;
+    private final int batchSize;
+    private Transaction tx;
+    private int pending = 0;
+    private long committed = 0;
+
+    BatchCommitter(GraphDatabaseService db, int batchSize) {
+        this.db = db;
+        this.batchSize = batchSize;
+        this.tx = db.beginTx();
+    }
+
+    /**
+     * Counts one write and commits the current transaction once the batch is full.
+     */
+    void increment() {
+        pending += 1;
+        if (pending >= batchSize) {
+            commit();
+            tx = db.beginTx();
+        }
+    }
+
+    private void commit() {
+        tx.success();
+        tx.close();
+        committed += pending;
+        pending = 0;
+    }
+
+    /**
+     * @return the number of writes that have been committed so far
+     */
+    long committed() {
+        return committed;
+    }
+
+    @Override
+    public void close() {
+        if (tx != null) {
+            commit();
+            tx = null;
+        }
+    }
+
+    /**
+     * Runs a task on a fresh thread and waits for its result.
+     */
+    static <T> T runDetached(Callable<T> task) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
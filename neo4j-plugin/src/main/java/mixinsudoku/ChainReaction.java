@@ -0,0 +1,116 @@
+package mixinsudoku;
+
+import org.sat4j.core.VecInt;
+
+
+/**
+ * Worklist-based chain-reaction deduction over a {@link RingGraph}.
+ * <p>
+ * Keeps, for every input, the number of referenced outputs that are not yet known to be spent. An input whose
+ * counter drops to one (and that references at least one spent output) spends its last remaining output.
+ * Marking that output as spent only touches the inputs that reference it, so the whole propagation is a single
+ * pass over the references.
+ */
+final class ChainReaction {
+
+    /**
+     * Marks outputs that are not known to be spent.
+     */
+    static final int NOT_SPENT = -1;
+
+    /**
+     * Marks spent outputs without an iteration property.
+     */
+    static final int NO_ITERATION = 0;
+
+    private final RingGraph graph;
+    private final int[] iterations;
+    private final int[] remaining;
+
+    private final VecInt deducedInputs = new VecInt();
+    private final VecInt deducedOutputs = new VecInt();
+
+    /**
+     * @param graph      the ring graph
+     * @param iterations per output, the iteration in which it was found to be spent, {@link #NO_ITERATION} if
+     *                   it is spent but has no iteration, or {@link #NOT_SPENT}. Updated in place.
+     */
+    ChainReaction(RingGraph graph, int[] iterations) {
+        this.graph = graph;
+        this.iterations = iterations;
+        this.remaining = new int[graph.inputCount()];
+    }
+
+    /**
+     * Propagates all deductions until no input with a single remaining output is left.
+     *
+     * @return the number of new spends
+     */
+    int run() {
+        VecInt queue = new VecInt(1024);
+
+        for (int i = 0; i < graph.inputCount(); i++) {
+            int spent = 0;
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                if (iterations[graph.inputTargets[r]] != NOT_SPENT) {
+                    spent += 1;
+                }
+            }
+            remaining[i] = graph.inputDegree(i) - spent;
+            if (remaining[i] == 1 && spent > 0) {
+                queue.push(i);
+            }
+        }
+
+        for (int head = 0; head < queue.size(); head++) {
+            int input = queue.get(head);
+            if (remaining[input] != 1) {
+                // the last output was claimed by another input in the meantime
+                continue;
+            }
+
+            int output = -1;
+            int maxIteration = NO_ITERATION;
+            for (int r = graph.inputOffsets[input]; r < graph.inputOffsets[input + 1]; r++) {
+                int o = graph.inputTargets[r];
+                if (iterations[o] == NOT_SPENT) {
+                    output = o;
+                } else {
+                    maxIteration = Math.max(maxIteration, iterations[o]);
+                }
+            }
+
+            iterations[output] = maxIteration == NO_ITERATION ? NO_ITERATION : maxIteration + 1;
+            deducedInputs.push(input);
+            deducedOutputs.push(output);
+
+            for (int p = graph.outputOffsets[output]; p < graph.outputOffsets[output + 1]; p++) {
+                int other = graph.outputSources[p];
+                remaining[other] -= 1;
+                if (remaining[other] == 1) {
+                    queue.push(other);
+                }
+            }
+        }
+
+        return deducedInputs.size();
+    }
+
+    int[] iterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the input indexes of all deduced spends, in the order they were found
+     */
+    VecInt deducedInputs() {
+        return deducedInputs;
+    }
+
+    /**
+     * @return the output indexes of all deduced spends, aligned with {@link #deducedInputs()}
+     */
+    VecInt deducedOutputs() {
+        return deducedOutputs;
+    }
+}
@@ -0,0 +1,236 @@
+package mixinsudoku;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Finds closed sets in a {@link RingGraph}: k inputs whose rings together reference exactly k outputs. Each of
+ * these outputs is spent by one of the k inputs, so the references of all other inputs to them are impossible.
+ * <p>
+ * Two searches run in turns until neither finds anything new: inputs with identical rings are grouped by hashing
+ * their rings, and every input with a small ring is grown greedily into a set by absorbing the inputs whose rings
+ * are covered and adding the neighbor that adds the fewest outputs, up to {@link #MAX_OUTPUTS} outputs. Removing
+ * references shrinks other rings, which can close further sets. Both searches are polynomial; sets that need a
+ * larger or less greedy search are left to the SAT solver.
+ */
+final class ClosedSets {
+
+    static final int MAX_OUTPUTS = 8;
+    private static final int MAX_ROUNDS = 16;
+
+    private final RingGraph graph;
+    private final boolean[] impossible;
+    private final int[] degree;
+    private final boolean[] closed;
+
+    // scratch space of the greedy search, valid for the current stamp
+    private final int[] inputStamp;
+    private final int[] outputStamp;
+    private final int[] candidateStamp;
+    private final int[] covered;
+    private int stamp = 0;
+    private int scan = 0;
+    private int nClosedSets = 0;
+    private int nImpossible = 0;
+
+    ClosedSets(RingGraph graph) {
+        this.graph = graph;
+        this.impossible = new boolean[graph.referenceCount()];
+        this.degree = new int[graph.inputCount()];
+        this.closed = new boolean[graph.inputCount()];
+        this.inputStamp = new int[graph.inputCount()];
+        this.outputStamp = new int[graph.outputCount()];
+        this.candidateStamp = new int[graph.inputCount()];
+        this.covered = new int[graph.inputCount()];
+        for (int i = 0; i < graph.inputCount(); i++) {
+            degree[i] = graph.inputDegree(i);
+        }
+    }
+
+    /**
+     * @return per reference, whether it is impossible because its output is spent within a closed set
+     */
+    boolean[] run() {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            int before = nImpossible;
+            groupIdenticalRings();
+            growSets();
+            if (nImpossible == before) {
+                break;
+            }
+        }
+        return impossible;
+    }
+
+    int closedSets() {
+        return nClosedSets;
+    }
+
+    int impossibleReferences() {
+        return nImpossible;
+    }
+
+    private void groupIdenticalRings() {
+        Map<Ring, int[]> groups = new HashMap<>();
+        for (int i = 0; i < graph.inputCount(); i++) {
+            if (closed[i] || degree[i] == 0) {
+                continue;
+            }
+            groups.computeIfAbsent(new Ring(ring(i)), ring -> new int[1])[0] += 1;
+        }
+        for (Map.Entry<Ring, int[]> entry : groups.entrySet()) {
+            int[] outputs = entry.getKey().outputs;
+            if (entry.getValue()[0] != outputs.length) {
+                continue;
+            }
+            // all inputs that still have this ring form the set, sets closed before may have changed it
+            stamp += 1;
+            int nInputs = 0;
+            for (int p = graph.outputOffsets[outputs[0]]; p < graph.outputOffsets[outputs[0] + 1]; p++) {
+                int input = graph.outputSources[p];
+                if (!impossible[graph.outputReferences[p]] && !closed[input] && degree[input] == outputs.length &&
+                        Arrays.equals(ring(input), outputs)) {
+                    inputStamp[input] = stamp;
+                    nInputs += 1;
+                }
+            }
+            if (nInputs == outputs.length) {
+                close(outputs);
+            }
+        }
+    }
+
+    private void growSets() {
+        int[] union = new int[MAX_OUTPUTS];
+        for (int seed = 0; seed < graph.inputCount(); seed++) {
+            if (closed[seed] || degree[seed] == 0 || degree[seed] > MAX_OUTPUTS) {
+                continue;
+            }
+            stamp += 1;
+            inputStamp[seed] = stamp;
+            int nInputs = 1;
+            int nOutputs = 0;
+            for (int r = graph.inputOffsets[seed]; r < graph.inputOffsets[seed + 1]; r++) {
+                if (!impossible[r]) {
+                    union[nOutputs++] = graph.inputTargets[r];
+                    outputStamp[graph.inputTargets[r]] = stamp;
+                }
+            }
+
+            while (nInputs < nOutputs) {
+                // count how many references of every neighbor are covered by the union
+                scan += 1;
+                int best = -1;
+                int bestGrowth = MAX_OUTPUTS - nOutputs + 1;
+                for (int k = 0; k < nOutputs; k++) {
+                    int o = union[k];
+                    for (int p = graph.outputOffsets[o]; p < graph.outputOffsets[o + 1]; p++) {
+                        int input = graph.outputSources[p];
+                        if (impossible[graph.outputReferences[p]] || inputStamp[input] == stamp) {
+                            continue;
+                        }
+                        if (candidateStamp[input] != scan) {
+                            candidateStamp[input] = scan;
+                            covered[input] = 0;
+                        }
+                        covered[input] += 1;
+                    }
+                }
+                for (int k = 0; k < nOutputs; k++) {
+                    int o = union[k];
+                    for (int p = graph.outputOffsets[o]; p < graph.outputOffsets[o + 1]; p++) {
+                        int input = graph.outputSources[p];
+                        if (impossible[graph.outputReferences[p]] || inputStamp[input] == stamp) {
+                            continue;
+                        }
+                        int growth = degree[input] - covered[input];
+                        if (growth == 0) {
+                            // absorb inputs whose rings are covered
+                            inputStamp[input] = stamp;
+                            nInputs += 1;
+                        } else if (growth < bestGrowth) {
+                            best = input;
+                            bestGrowth = growth;
+                        }
+                    }
+                }
+                if (nInputs >= nOutputs || best < 0) {
+                    break;
+                }
+                inputStamp[best] = stamp;
+                nInputs += 1;
+                for (int r = graph.inputOffsets[best]; r < graph.inputOffsets[best + 1]; r++) {
+                    int o = graph.inputTargets[r];
+                    if (!impossible[r] && outputStamp[o] != stamp) {
+                        outputStamp[o] = stamp;
+                        union[nOutputs++] = o;
+                    }
+                }
+            }
+
+            // more inputs than outputs cannot happen in a consistent graph
+            if (nInputs == nOutputs) {
+                close(Arrays.copyOf(union, nOutputs));
+            }
+        }
+    }
+
+    /**
+     * Marks the inputs of the current stamp as a closed set over the given outputs and removes all other references
+     * to these outputs.
+     */
+    private void close(int[] outputs) {
+        nClosedSets += 1;
+        for (int o : outputs) {
+            for (int p = graph.outputOffsets[o]; p < graph.outputOffsets[o + 1]; p++) {
+                int input = graph.outputSources[p];
+                int r = graph.outputReferences[p];
+                if (inputStamp[input] == stamp) {
+                    closed[input] = true;
+                } else if (!impossible[r]) {
+                    impossible[r] = true;
+                    degree[input] -= 1;
+                    nImpossible += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the outputs of the possible references of an input, sorted
+     */
+    private int[] ring(int input) {
+        int[] ring = new int[degree[input]];
+        int n = 0;
+        for (int r = graph.inputOffsets[input]; r < graph.inputOffsets[input + 1]; r++) {
+            if (!impossible[r]) {
+                ring[n++] = graph.inputTargets[r];
+            }
+        }
+        Arrays.sort(ring);
+        return ring;
+    }
+
+    private static final class Ring {
+
+        private final int[] outputs;
+        private final int hash;
+
+        Ring(int[] outputs) {
+            this.outputs = outputs;
+            this.hash = Arrays.hashCode(outputs);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Ring && Arrays.equals(outputs, ((Ring) other).outputs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package mixinsudoku;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Parses the --name value arguments of the command line tools of the plugin, {@link OfflineSudoku} and
+ * {@link RingStoreConverter}.
+ */
+final class CommandLine {
+
+    private CommandLine() {
+    }
+
+    /**
+     * @param names the accepted argument names, without the leading dashes
+     * @return the value of every given argument by name
+     * @throws IllegalArgumentException if an argument is unknown, repeated or has no value
+     */
+    static Map<String, String> parse(String[] args, String... names) {
+        List<String> known = Arrays.asList(names);
+        Map<String, String> arguments = new HashMap<>();
+        for (int k = 0; k < args.length; k += 2) {
+            if (!args[k].startsWith("--") || !known.contains(args[k].substring(2))) {
+                throw new IllegalArgumentException("Unknown argument " + args[k] + ".");
+            }
+            if (k + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[k] + ".");
+            }
+            if (arguments.put(args[k].substring(2), args[k + 1]) != null) {
+                throw new IllegalArgumentException("Repeated argument " + args[k] + ".");
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Like {@link #parse(String[], String...)}, but prints the problem and the usage and exits if the arguments are
+     * invalid.
+     */
+    static Map<String, String> parseOrExit(String usage, String[] args, String... names) {
+        try {
+            return parse(args, names);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: " + usage);
+            System.exit(2);
+            throw e;
+        }
+    }
+}
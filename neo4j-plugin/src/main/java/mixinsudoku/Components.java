@@ -0,0 +1,78 @@
+package mixinsudoku;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Splits a {@link RingGraph} into its connected components.
+ * <p>
+ * Two inputs belong to the same component if their rings share an output, directly or through other inputs.
+ * Components are independent of each other, so each of them can be solved on its own.
+ */
+final class Components {
+
+    private Components() {
+    }
+
+    /**
+     * @return the input indexes of every component; inputs without references are not part of any component
+     */
+    static List<int[]> of(RingGraph graph) {
+        int[] parent = new int[graph.outputCount()];
+        for (int o = 0; o < parent.length; o++) {
+            parent[o] = o;
+        }
+
+        for (int i = 0; i < graph.inputCount(); i++) {
+            int first = graph.inputOffsets[i];
+            for (int r = first + 1; r < graph.inputOffsets[i + 1]; r++) {
+                union(parent, graph.inputTargets[first], graph.inputTargets[r]);
+            }
+        }
+
+        // assign dense component numbers and count their inputs
+        int[] componentOf = new int[graph.outputCount()];
+        int nComponents = 0;
+        for (int o = 0; o < parent.length; o++) {
+            if (find(parent, o) == o) {
+                componentOf[o] = nComponents++;
+            }
+        }
+        int[] sizes = new int[nComponents];
+        for (int i = 0; i < graph.inputCount(); i++) {
+            if (graph.inputDegree(i) > 0) {
+                sizes[componentOf[find(parent, graph.inputTargets[graph.inputOffsets[i]])]] += 1;
+            }
+        }
+
+        List<int[]> components = new ArrayList<>(nComponents);
+        int[] fill = new int[nComponents];
+        for (int c = 0; c < nComponents; c++) {
+            components.add(new int[sizes[c]]);
+        }
+        for (int i = 0; i < graph.inputCount(); i++) {
+            if (graph.inputDegree(i) > 0) {
+                int c = componentOf[find(parent, graph.inputTargets[graph.inputOffsets[i]])];
+                components.get(c)[fill[c]++] = i;
+            }
+        }
+        return components;
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[rootB] = rootA;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package mixinsudoku;
 import org.neo4j.graphdb.*;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
 
 import java.util.Arrays;
@@ -33,6 +34,9 @@ public class DatabaseHelpers {
         db.execute("CREATE INDEX ON :Output(value)");
         db.execute("CREATE INDEX ON :Input(mixin)");
         db.execute("CREATE INDEX ON :Input(value)");
+        db.execute("CREATE INDEX ON :Input(height)");
+        db.execute("CREATE INDEX ON :Output(height)");
+        db.execute("CREATE INDEX ON :Input(effectiveRingSize)");
     }
 
     @Procedure(name = "mixinsudoku.coinbase", mode = WRITE)
@@ -42,6 +46,121 @@ public class DatabaseHelpers {
     }
 
 
+    /**
+     * Stores the height and timestamp of its block on every input and output, in parallel, see
+     * {@link HeightDenormalizer}. Only blocks added since the last run are processed.
+     *
+     * @param nThreads the number of writers, or 0 for one per available core
+     */
+    @Procedure(name = "mixinsudoku.heights", mode = WRITE)
+    public Stream<HeightsOutput> storeHeights(@Name(value = "batchSize", defaultValue = "10000") long batchSize,
+                                              @Name(value = "nThreads", defaultValue = "0") long nThreads) {
+        if (batchSize < 1 || batchSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("batchSize has to be positive.");
+        }
+        int threads = nThreads > 0 ? (int) nThreads : Runtime.getRuntime().availableProcessors();
+        HeightDenormalizer denormalizer = BatchCommitter.runDetached(() ->
+                new HeightDenormalizer(db, log, (int) batchSize, threads).run());
+        return Stream.of(new HeightsOutput(denormalizer));
+    }
+
+    /**
+     * Stores the number of references that are not ruled out on every input of the given blocks, see
+     * {@link EffectiveRingSize}. Later spends and impossible references keep it up to date.
+     *
+     * @param nThreads the number of writers, or 0 for one per available core
+     */
+    @Procedure(name = "mixinsudoku.effectiveringsize", mode = WRITE)
+    public Stream<EffectiveRingSizeOutput> storeEffectiveRingSize(
+            @Name(value = "batchSize", defaultValue = "10000") long batchSize,
+            @Name(value = "nThreads", defaultValue = "0") long nThreads,
+            @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+            @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        if (batchSize < 1 || batchSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("batchSize has to be positive.");
+        }
+        int threads = nThreads > 0 ? (int) nThreads : Runtime.getRuntime().availableProcessors();
+        EffectiveRingSize effectiveRingSize = BatchCommitter.runDetached(() -> new EffectiveRingSize(db, log,
+                (int) batchSize, threads, (int) fromHeight, (int) toHeight).run());
+        return Stream.of(new EffectiveRingSizeOutput(effectiveRingSize));
+    }
+
+    /**
+     * Checks the whole graph for inconsistencies left by a bad export or import, see {@link IntegrityVerifier}.
+     *
+     * @param nThreads the number of workers, or 0 for one per available core
+     */
+    @Procedure(name = "mixinsudoku.verify", mode = READ)
+    public Stream<Violation> verify(@Name(value = "nThreads", defaultValue = "0") long nThreads) {
+        int threads = nThreads > 0 ? (int) nThreads : Runtime.getRuntime().availableProcessors();
+        return new IntegrityVerifier(db, log, threads).verify();
+    }
+
+    /**
+     * Histogram of the age in blocks of the references of all inputs, by year, mixin, denomination and whether the
+     * reference is the known spend, a decoy or of an input without known spend, see {@link SpendAges}.
+     *
+     * @param bucket     the width of the age buckets in blocks
+     * @param minAnonset only inputs with at least this anonset
+     * @param nThreads   the number of workers, or 0 for one per available core
+     */
+    @Procedure(name = "mixinsudoku.ages", mode = READ)
+    public Stream<AgeOutput> ages(@Name(value = "bucket", defaultValue = "720") long bucket,
+                                  @Name(value = "minAnonset", defaultValue = "0") long minAnonset,
+                                  @Name(value = "nThreads", defaultValue = "0") long nThreads,
+                                  @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                  @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        if (bucket < 1) {
+            throw new IllegalArgumentException("The bucket must be at least one block.");
+        }
+        return spendAges((int) bucket, minAnonset, nThreads, fromHeight, toHeight).ages();
+    }
+
+    /**
+     * The number of inputs with a known spend per year, mixin, denomination and rank of the spend in its ring, i.e.
+     * the number of newer outputs in the ring, see {@link SpendAges}.
+     */
+    @Procedure(name = "mixinsudoku.ranks", mode = READ)
+    public Stream<RankOutput> ranks(@Name(value = "minAnonset", defaultValue = "0") long minAnonset,
+                                    @Name(value = "nThreads", defaultValue = "0") long nThreads,
+                                    @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                    @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        return spendAges(0, minAnonset, nThreads, fromHeight, toHeight).ranks();
+    }
+
+    /**
+     * The accuracy of the guess-newest heuristic on the inputs with a known spend, per year, mixin and denomination.
+     */
+    @Procedure(name = "mixinsudoku.newest", mode = READ)
+    public Stream<NewestOutput> newest(@Name(value = "minAnonset", defaultValue = "0") long minAnonset,
+                                       @Name(value = "nThreads", defaultValue = "0") long nThreads,
+                                       @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                       @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        return spendAges(0, minAnonset, nThreads, fromHeight, toHeight).newest();
+    }
+
+    private SpendAges spendAges(int bucket, long minAnonset, long nThreads, long fromHeight, long toHeight) {
+        int threads = nThreads > 0 ? (int) nThreads : Runtime.getRuntime().availableProcessors();
+        return new SpendAges(db, log, threads, bucket, minAnonset, (int) fromHeight, (int) toHeight).run();
+    }
+
+    /**
+     * Counters of every solver stage and denomination since the plugin was loaded or the last stats.reset, see
+     * {@link Metrics}. Can be called while another procedure is still running.
+     */
+    @Procedure(name = "mixinsudoku.stats", mode = READ)
+    public Stream<StatsOutput> stats() {
+        return Metrics.stages().stream().map(StatsOutput::new);
+    }
+
+    @Procedure(name = "mixinsudoku.stats.reset", mode = READ)
+    public void resetStats() {
+        Metrics.reset();
+    }
+
+    /**
+     * Spot checks of a few blocks and transactions of the main chain.
+     */
     @Procedure(name = "mixinsudoku.checkdb", mode = READ)
     public Stream<QueryOutput> checkDatabase() {
         int unsuccessful = 0;
@@ -0,0 +1,88 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Catalog entry of a denomination that still has inputs without a known spend.
+ */
+public class Denomination {
+
+    public long value;
+    public long inputs;
+    public long references;
+
+    /**
+     * Heuristic cost of solving the denomination: the number of references times the mean ring size.
+     */
+    public double estimatedCost;
+
+    Denomination(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Counts the open inputs and references of every denomination in a single pass over all inputs, with the same
+     * notion of open as {@link RingGraphLoader#loadDenomination}: references that are known to be impossible or
+     * that point to outputs known to be spent are not counted. Must be called from within a transaction.
+     *
+     * @return all denominations, ordered by decreasing estimated cost
+     */
+    static List<Denomination> catalog(GraphDatabaseService db) {
+        Map<Long, Denomination> denominations = new HashMap<>();
+        LongIntHashMap openOutputs = new LongIntHashMap();
+
+        try (ResourceIterator<Node> nodes = db.findNodes(RingGraphLoader.INPUT)) {
+            while (nodes.hasNext()) {
+                Node input = nodes.next();
+                if (!RingGraphLoader.isOpenInput(input)) {
+                    continue;
+                }
+                Object value = input.getProperty("value", null);
+                if (value == null) {
+                    continue;
+                }
+                Denomination denomination = denominations.computeIfAbsent(((Number) value).longValue(),
+                        Denomination::new);
+                denomination.inputs += 1;
+                denomination.references += openReferences(input, openOutputs);
+            }
+        }
+
+        List<Denomination> catalog = new ArrayList<>(denominations.values());
+        for (Denomination denomination : catalog) {
+            denomination.estimatedCost = (double) denomination.references * denomination.references / denomination.inputs;
+        }
+        catalog.sort((a, b) -> Double.compare(b.estimatedCost, a.estimatedCost));
+        return catalog;
+    }
+
+    /**
+     * @param openOutputs whether an output is open (1) or not (0), by id, filled as outputs are seen
+     */
+    private static int openReferences(Node input, LongIntHashMap openOutputs) {
+        int references = 0;
+        for (Relationship ref : input.getRelationships(RingGraphLoader.REFERENCES, Direction.OUTGOING)) {
+            if (ref.hasProperty(RingGraphLoader.IMPOSSIBLE)) {
+                continue;
+            }
+            long outputId = ref.getEndNodeId();
+            int open = openOutputs.get(outputId);
+            if (open == LongIntHashMap.MISSING) {
+                open = RingGraphLoader.isOpenOutput(ref.getEndNode()) ? 1 : 0;
+                openOutputs.put(outputId, open);
+            }
+            references += open;
+        }
+        return references;
+    }
+}
@@ -0,0 +1,20 @@
+package mixinsudoku;
+
+
+/**
+ * One row of sat.dimacs, describing a written problem.
+ */
+public class DimacsOutput {
+
+    public String file;
+    public long inputs;
+    public long variables;
+    public long clauses;
+
+    DimacsOutput(String file, long inputs, long variables, long clauses) {
+        this.file = file;
+        this.inputs = inputs;
+        this.variables = variables;
+        this.clauses = clauses;
+    }
+}
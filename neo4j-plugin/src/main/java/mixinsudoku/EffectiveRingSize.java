@@ -0,0 +1,248 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Stores the effective ring size of every input, i.e. the number of its references that are not ruled out: 1 for
+ * an input with a known spend, otherwise its references to outputs without a known spend that are not marked as
+ * impossible.
+ * <p>
+ * {@link #run()} computes it for the inputs of a range of blocks, in parallel like {@link HeightDenormalizer}.
+ * Afterwards, every stage that writes a spend or an impossible reference keeps it up to date through
+ * {@link #spent(GraphDatabaseService, Node, Node)} and {@link #ruledOut(GraphDatabaseService, Relationship)}, for
+ * the inputs that have it. Inputs imported later get it from the next run. Parallel writers that must not lock the
+ * inputs of other workers use {@link #spent(Node, Node, List)} and apply the decrements afterwards.
+ * <p>
+ * {@link #run()} must be run from a thread that is not bound to a transaction.
+ */
+final class EffectiveRingSize {
+
+    static final String PROPERTY = "effectiveRingSize";
+
+    private static final int RANGES_PER_THREAD = 4;
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final int batchSize;
+    private final int nThreads;
+    private final int fromHeight;
+    private int toHeight;
+
+    private final Metrics.Stage stage = Metrics.stage(Metrics.EFFECTIVE_RING_SIZE, Metrics.ALL_VALUES);
+    private final AtomicLong inputs = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private long duration = 0;
+
+    /**
+     * @param toHeight only inputs of blocks below this height, or {@link RingGraphLoader#LATEST}
+     */
+    EffectiveRingSize(GraphDatabaseService db, Log log, int batchSize, int nThreads, int fromHeight, int toHeight) {
+        this.db = db;
+        this.log = log;
+        this.batchSize = batchSize;
+        this.nThreads = nThreads;
+        this.fromHeight = Math.max(0, fromHeight);
+        this.toHeight = toHeight;
+    }
+
+    EffectiveRingSize run() {
+        long stageStart = stage.begin();
+        try {
+            return computeAll();
+        } finally {
+            stage.end(stageStart);
+        }
+    }
+
+    private EffectiveRingSize computeAll() {
+        long start = System.currentTimeMillis();
+        try (Transaction tx = db.beginTx()) {
+            toHeight = RingGraphLoader.resolveToHeight(db, toHeight);
+            tx.success();
+        }
+        int nBlocks = Math.max(0, toHeight - fromHeight);
+        int nRanges = Math.max(1, Math.min(nThreads * RANGES_PER_THREAD, nBlocks));
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int k = 0; k < nRanges; k++) {
+                int from = fromHeight + (int) ((long) nBlocks * k / nRanges);
+                int to = fromHeight + (int) ((long) nBlocks * (k + 1) / nRanges);
+                futures.add(executor.submit(() -> write(from, to)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        duration = System.currentTimeMillis() - start;
+        log.info("Computed the effective ring size of " + inputs.get() + " inputs of blocks " + fromHeight + " to " +
+                (toHeight - 1) + ", " + changed.get() + " changed, with " + nThreads + " threads in " + duration +
+                " ms.");
+        return this;
+    }
+
+    private void write(int from, int to) {
+        List<Node> rangeInputs;
+        try (Transaction tx = db.beginTx()) {
+            rangeInputs = RingGraphLoader.inputsBetween(db, from, to);
+            tx.success();
+        }
+        try (BatchCommitter batch = new BatchCommitter(db, batchSize)) {
+            for (Node input : rangeInputs) {
+                long size = compute(input);
+                Object stored = input.getProperty(PROPERTY, null);
+                if (!(stored instanceof Number) || ((Number) stored).longValue() != size) {
+                    input.setProperty(PROPERTY, size);
+                    changed.incrementAndGet();
+                    batch.increment();
+                }
+                inputs.incrementAndGet();
+            }
+        }
+        stage.rows.add(rangeInputs.size());
+    }
+
+    /**
+     * @return the effective ring size of an input, from scratch
+     */
+    static long compute(Node input) {
+        if (input.hasRelationship(Direction.OUTGOING, RingGraphLoader.SPENDS, RingGraphLoader.SAT_SPEND)) {
+            return 1;
+        }
+        long size = 0;
+        for (Relationship ref : input.getRelationships(RingGraphLoader.REFERENCES, Direction.OUTGOING)) {
+            if (!isImpossible(ref) && !isSpent(ref.getEndNode())) {
+                size += 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Updates the inputs affected by a new spend. Must be called within the writing transaction, before the spend
+     * is written.
+     */
+    static void spent(GraphDatabaseService db, Node input, Node output) {
+        List<Long> decrements = new ArrayList<>();
+        spent(input, output, decrements);
+        try (Transaction tx = db.beginTx()) {
+            for (long inputId : decrements) {
+                decrement(tx, db.getNodeById(inputId));
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Like {@link #spent(GraphDatabaseService, Node, Node)}, but only updates the spending input and collects the
+     * ids of the other inputs that lose a reference, once per reference, instead of locking them. They must be
+     * passed to {@link #decrement(GraphDatabaseService, long)} after the spend is written.
+     */
+    static void spent(Node input, Node output, List<Long> decrements) {
+        if (input.hasProperty(PROPERTY)) {
+            input.setProperty(PROPERTY, 1L);
+        }
+        if (isSpent(output)) {
+            return;
+        }
+        for (Relationship ref : output.getRelationships(RingGraphLoader.REFERENCES, Direction.INCOMING)) {
+            if (!ref.getStartNode().equals(input) && !isImpossible(ref) && ref.getStartNode().hasProperty(PROPERTY)) {
+                decrements.add(ref.getStartNodeId());
+            }
+        }
+    }
+
+    /**
+     * Removes one reference from the effective ring size of an input, unless it has a known spend by now. Must be
+     * called within the writing transaction.
+     */
+    static void decrement(GraphDatabaseService db, long inputId) {
+        try (Transaction tx = db.beginTx()) {
+            decrement(tx, db.getNodeById(inputId));
+            tx.success();
+        }
+    }
+
+    /**
+     * Updates the input of a reference that has been proven impossible. Must be called within the writing
+     * transaction, before the reference is marked.
+     */
+    static void ruledOut(GraphDatabaseService db, Relationship ref) {
+        if (isImpossible(ref) || isSpent(ref.getEndNode())) {
+            return;
+        }
+        decrement(db, ref.getStartNodeId());
+    }
+
+    /**
+     * Locks the input before reading the old value, so that concurrent writers count every exclusion once.
+     */
+    private static void decrement(Transaction tx, Node input) {
+        if (!input.hasProperty(PROPERTY)) {
+            return;
+        }
+        tx.acquireWriteLock(input);
+        if (input.hasRelationship(Direction.OUTGOING, RingGraphLoader.SPENDS, RingGraphLoader.SAT_SPEND)) {
+            return;
+        }
+        long size = ((Number) input.getProperty(PROPERTY)).longValue();
+        input.setProperty(PROPERTY, Math.max(0, size - 1));
+    }
+
+    private static boolean isSpent(Node output) {
+        return output.hasLabel(RingGraphLoader.UNIQUE_SPEND) || output.hasLabel(RingGraphLoader.SAT_SPEND_LABEL);
+    }
+
+    private static boolean isImpossible(Relationship ref) {
+        return Boolean.TRUE.equals(ref.getProperty(RingGraphLoader.IMPOSSIBLE, null));
+    }
+
+    long inputs() {
+        return inputs.get();
+    }
+
+    long changed() {
+        return changed.get();
+    }
+
+    int fromHeight() {
+        return fromHeight;
+    }
+
+    int toHeight() {
+        return toHeight;
+    }
+
+    /**
+     * @return the wall time in milliseconds
+     */
+    long duration() {
+        return duration;
+    }
+}
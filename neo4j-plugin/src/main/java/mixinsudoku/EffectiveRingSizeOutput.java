@@ -0,0 +1,33 @@
+package mixinsudoku;
+
+
+/**
+ * Result of storing the effective ring size of inputs.
+ */
+public class EffectiveRingSizeOutput {
+
+    /**
+     * The blocks that were processed, from fromHeight (inclusive) to toHeight (exclusive).
+     */
+    public long fromHeight;
+    public long toHeight;
+    public long inputs;
+
+    /**
+     * Inputs whose stored value was missing or different.
+     */
+    public long changed;
+
+    /**
+     * Wall time in milliseconds.
+     */
+    public long duration;
+
+    EffectiveRingSizeOutput(EffectiveRingSize effectiveRingSize) {
+        this.fromHeight = effectiveRingSize.fromHeight();
+        this.toHeight = effectiveRingSize.toHeight();
+        this.inputs = effectiveRingSize.inputs();
+        this.changed = effectiveRingSize.changed();
+        this.duration = effectiveRingSize.duration();
+    }
+}
@@ -0,0 +1,181 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Stores the height and timestamp of its block on every Input and Output node, so that height ranges can be found
+ * by a range scan of the indexes on :Input(height) and :Output(height) instead of a traversal per node.
+ * <p>
+ * Blocks are split into contiguous ranges of heights, one task per range. Every node belongs to a single block, so
+ * the tasks never write the same node. The highest block done is stored in a {@link SudokuCheckpoint} node named
+ * heights once all tasks have finished; after importing further blocks, a run continues from there.
+ * <p>
+ * Must be run from a thread that is not bound to a transaction.
+ */
+final class HeightDenormalizer {
+
+    static final String HEIGHT = "height";
+    static final String TIMESTAMP = "timestamp";
+
+    private static final String CHECKPOINT = "heights";
+    private static final int RANGES_PER_THREAD = 4;
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final int batchSize;
+    private final int nThreads;
+
+    private final Metrics.Stage stage = Metrics.stage(Metrics.HEIGHTS, Metrics.ALL_VALUES);
+    private final AtomicLong inputs = new AtomicLong();
+    private final AtomicLong outputs = new AtomicLong();
+    private int fromHeight;
+    private int toHeight;
+    private long duration = 0;
+
+    HeightDenormalizer(GraphDatabaseService db, Log log, int batchSize, int nThreads) {
+        this.db = db;
+        this.log = log;
+        this.batchSize = batchSize;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * @return the height of the highest block whose inputs and outputs have their height, or -1 if there is none
+     */
+    static int storedHeight(GraphDatabaseService db) {
+        Node node = db.findNode(SudokuCheckpoint.CHECKPOINT, "name", CHECKPOINT);
+        return node == null ? -1 : ((Number) node.getProperty("height")).intValue();
+    }
+
+    HeightDenormalizer run() {
+        long stageStart = stage.begin();
+        try {
+            return denormalize();
+        } finally {
+            stage.end(stageStart);
+        }
+    }
+
+    private HeightDenormalizer denormalize() {
+        long start = System.currentTimeMillis();
+        try (Transaction tx = db.beginTx()) {
+            fromHeight = storedHeight(db) + 1;
+            toHeight = RingGraphLoader.maxBlockHeight(db) + 1;
+            tx.success();
+        }
+        int nBlocks = Math.max(0, toHeight - fromHeight);
+        int nRanges = Math.max(1, Math.min(nThreads * RANGES_PER_THREAD, nBlocks));
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int k = 0; k < nRanges; k++) {
+                int from = fromHeight + (int) ((long) nBlocks * k / nRanges);
+                int to = fromHeight + (int) ((long) nBlocks * (k + 1) / nRanges);
+                futures.add(executor.submit(() -> write(from, to)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        if (nBlocks > 0) {
+            try (Transaction tx = db.beginTx()) {
+                Node node = db.findNode(SudokuCheckpoint.CHECKPOINT, "name", CHECKPOINT);
+                if (node == null) {
+                    node = db.createNode(SudokuCheckpoint.CHECKPOINT);
+                    node.setProperty("name", CHECKPOINT);
+                }
+                node.setProperty("height", (long) toHeight - 1);
+                tx.success();
+            }
+        }
+
+        duration = System.currentTimeMillis() - start;
+        log.info("Stored the heights of " + inputs.get() + " inputs and " + outputs.get() + " outputs of blocks " +
+                fromHeight + " to " + (toHeight - 1) + " with " + nThreads + " threads in " + duration + " ms.");
+        return this;
+    }
+
+    private void write(int from, int to) {
+        try (BatchCommitter batch = new BatchCommitter(db, batchSize)) {
+            for (int height = from; height < to; height++) {
+                Node block = db.findNode(RingGraphLoader.BLOCK, HEIGHT, height);
+                if (block == null) {
+                    continue;
+                }
+                Object timestamp = block.getProperty(TIMESTAMP, null);
+                for (Relationship inBlock : block.getRelationships(RingGraphLoader.IN_BLOCK, Direction.INCOMING)) {
+                    Node transaction = inBlock.getStartNode();
+                    for (Relationship txInput : transaction.getRelationships(RingGraphLoader.TX_INPUT,
+                            Direction.OUTGOING)) {
+                        store(txInput.getEndNode(), height, timestamp);
+                        inputs.incrementAndGet();
+                        batch.increment();
+                    }
+                    for (Relationship txOutput : transaction.getRelationships(RingGraphLoader.TX_OUTPUT,
+                            Direction.OUTGOING)) {
+                        store(txOutput.getEndNode(), height, timestamp);
+                        outputs.incrementAndGet();
+                        batch.increment();
+                    }
+                }
+                stage.rows.add(1);
+            }
+        }
+    }
+
+    private static void store(Node node, int height, Object timestamp) {
+        node.setProperty(HEIGHT, height);
+        if (timestamp != null) {
+            node.setProperty(TIMESTAMP, timestamp);
+        }
+    }
+
+    long inputs() {
+        return inputs.get();
+    }
+
+    long outputs() {
+        return outputs.get();
+    }
+
+    int fromHeight() {
+        return fromHeight;
+    }
+
+    int toHeight() {
+        return toHeight;
+    }
+
+    /**
+     * @return the wall time in milliseconds
+     */
+    long duration() {
+        return duration;
+    }
+}
@@ -0,0 +1,29 @@
+package mixinsudoku;
+
+
+/**
+ * Result of storing block heights on inputs and outputs.
+ */
+public class HeightsOutput {
+
+    /**
+     * The blocks that were processed, from fromHeight (inclusive) to toHeight (exclusive).
+     */
+    public long fromHeight;
+    public long toHeight;
+    public long inputs;
+    public long outputs;
+
+    /**
+     * Wall time in milliseconds.
+     */
+    public long duration;
+
+    HeightsOutput(HeightDenormalizer denormalizer) {
+        this.fromHeight = denormalizer.fromHeight();
+        this.toHeight = denormalizer.toHeight();
+        this.inputs = denormalizer.inputs();
+        this.outputs = denormalizer.outputs();
+        this.duration = denormalizer.duration();
+    }
+}
@@ -0,0 +1,222 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.sat4j.core.VecInt;
+
+import java.util.Arrays;
+
+
+/**
+ * Brings the zero-mixin and chain-reaction deductions up to date with blocks appended since the last
+ * {@link SudokuCheckpoint}.
+ * <p>
+ * Only the inputs of new blocks and the rings of newly spent outputs are examined. Deductions are made round by
+ * round: every round runs a {@link ChainReaction} on the rings that may have changed, and the outputs it spends
+ * determine the rings of the next round. Zero-mixin spends get iteration 1 and every other spend the maximum
+ * iteration of the other outputs in its ring plus one, exactly as in a full run.
+ * <p>
+ * Before a round is written, its outputs are added to the frontier of the checkpoint, so an interrupted run can
+ * simply be started again. Must be run from a thread that is not bound to a transaction.
+ */
+final class IncrementalSudoku {
+
+    private final GraphDatabaseService db;
+    private final Log log;
+
+    private int fromHeight;
+    private int toHeight;
+    private int newInputs = 0;
+    private long zeroMixinSpends = 0;
+    private long chainSpends = 0;
+    private int rounds = 0;
+
+    IncrementalSudoku(GraphDatabaseService db, Log log) {
+        this.db = db;
+        this.log = log;
+    }
+
+    /**
+     * @return a summary of the run
+     */
+    String run() {
+        IdSet frontier = new IdSet();
+        IdSet examine = new IdSet();
+        IdSet zeroMixinInputs = new IdSet();
+        IdSet zeroMixinOutputs = new IdSet();
+        try (Transaction tx = db.beginTx()) {
+            SudokuCheckpoint checkpoint = SudokuCheckpoint.read(db);
+            fromHeight = checkpoint.height + 1;
+            toHeight = RingGraphLoader.maxBlockHeight(db);
+            frontier.addAll(checkpoint.frontier);
+
+            for (Node input : RingGraphLoader.inputsBetween(db, fromHeight, toHeight + 1)) {
+                newInputs += 1;
+                if (input.hasRelationship(RingGraphLoader.SPENDS, Direction.OUTGOING)) {
+                    continue;
+                }
+                if (isZeroMixin(input)) {
+                    zeroMixinInputs.add(input.getId());
+                    zeroMixinOutputs.add(input.getSingleRelationship(RingGraphLoader.REFERENCES,
+                            Direction.OUTGOING).getEndNodeId());
+                } else {
+                    examine.add(input.getId());
+                }
+            }
+            tx.success();
+        }
+        log.info("Examining " + newInputs + " inputs of blocks " + fromHeight + " to " + toHeight + ".");
+
+        if (zeroMixinInputs.size() > 0) {
+            writeCheckpoint(fromHeight - 1, frontier.union(zeroMixinOutputs));
+            zeroMixinSpends = writeZeroMixinSpends(zeroMixinInputs.toArray());
+            frontier.addAll(zeroMixinOutputs);
+        }
+        examine.addAll(referencingInputs(frontier.toArray()));
+
+        Metrics.Stage stage = Metrics.stage(Metrics.CHAIN_REACTION, Metrics.ALL_VALUES);
+        while (examine.size() > 0) {
+            rounds += 1;
+            long start = stage.begin();
+            try {
+                VecInt iterations = new VecInt();
+                RingGraph graph;
+                try (Transaction tx = db.beginTx()) {
+                    graph = RingGraphLoader.loadInputs(db, examine.toArray(), iterations);
+                    tx.success();
+                }
+                stage.rows.add(graph.inputCount() + graph.referenceCount());
+                ChainReaction chainReaction = new ChainReaction(graph, iterations.toArray());
+                chainReaction.run();
+
+                IdSet deduced = new IdSet();
+                for (int k = 0; k < chainReaction.deducedOutputs().size(); k++) {
+                    deduced.add(graph.outputIds[chainReaction.deducedOutputs().get(k)]);
+                }
+                log.info("Round " + rounds + ": examined " + graph.inputCount() + " inputs, found " +
+                        deduced.size() + " new spends.");
+                if (deduced.size() == 0) {
+                    break;
+                }
+                writeCheckpoint(fromHeight - 1, frontier.union(deduced));
+                long written = MixinSudoku.writeChainReaction(db, graph, chainReaction);
+                stage.relationships.add(written);
+                chainSpends += written;
+                frontier = deduced;
+                examine = referencingInputs(deduced.toArray());
+            } finally {
+                stage.end(start);
+            }
+        }
+        writeCheckpoint(Math.max(toHeight, fromHeight - 1), new long[0]);
+
+        return "Blocks " + fromHeight + " to " + toHeight + ": " + newInputs + " new inputs, " +
+                zeroMixinSpends + " zero-mixin spends, " + chainSpends + " chain-reaction spends in " + rounds +
+                " rounds.";
+    }
+
+    private static boolean isZeroMixin(Node input) {
+        Object mixin = input.getProperty("mixin", null);
+        return mixin != null && ((Number) mixin).longValue() == 0 && input.getDegree(RingGraphLoader.REFERENCES,
+                Direction.OUTGOING) == 1;
+    }
+
+    private long writeZeroMixinSpends(long[] inputs) {
+        Metrics.Stage stage = Metrics.stage(Metrics.ZERO_MIXIN, Metrics.ALL_VALUES);
+        long start = stage.begin();
+        try (BatchCommitter batch = new BatchCommitter(db, BatchCommitter.DEFAULT_BATCH_SIZE)) {
+            for (long inputId : inputs) {
+                Node input = db.getNodeById(inputId);
+                Node output = input.getSingleRelationship(RingGraphLoader.REFERENCES, Direction.OUTGOING)
+                        .getEndNode();
+                EffectiveRingSize.spent(db, input, output);
+                output.addLabel(RingGraphLoader.UNIQUE_SPEND);
+                output.setProperty("iteration", 1L);
+                input.createRelationshipTo(output, RingGraphLoader.SPENDS);
+                batch.increment();
+            }
+        } finally {
+            stage.end(start);
+        }
+        stage.rows.add(inputs.length);
+        stage.relationships.add(inputs.length);
+        return inputs.length;
+    }
+
+    /**
+     * @return all inputs that reference one of the given outputs and do not spend a known output yet
+     */
+    private IdSet referencingInputs(long[] outputs) {
+        IdSet inputs = new IdSet();
+        try (Transaction tx = db.beginTx()) {
+            for (long outputId : outputs) {
+                for (Relationship ref : db.getNodeById(outputId).getRelationships(RingGraphLoader.REFERENCES,
+                        Direction.INCOMING)) {
+                    Node input = ref.getStartNode();
+                    if (!input.hasRelationship(RingGraphLoader.SPENDS, Direction.OUTGOING)) {
+                        inputs.add(input.getId());
+                    }
+                }
+            }
+            tx.success();
+        }
+        return inputs;
+    }
+
+    private void writeCheckpoint(int height, long[] frontier) {
+        try (Transaction tx = db.beginTx()) {
+            SudokuCheckpoint.write(db, height, frontier);
+            tx.success();
+        }
+    }
+
+
+    /**
+     * Insertion-ordered set of node ids.
+     */
+    private static final class IdSet {
+
+        private final LongIntHashMap index = new LongIntHashMap();
+        private long[] ids = new long[16];
+
+        void add(long id) {
+            if (index.containsKey(id)) {
+                return;
+            }
+            if (index.size() == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[index.size()] = id;
+            index.put(id, index.size());
+        }
+
+        void addAll(long[] other) {
+            for (long id : other) {
+                add(id);
+            }
+        }
+
+        void addAll(IdSet other) {
+            addAll(other.toArray());
+        }
+
+        long[] union(IdSet other) {
+            IdSet union = new IdSet();
+            union.addAll(toArray());
+            union.addAll(other);
+            return union.toArray();
+        }
+
+        int size() {
+            return index.size();
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(ids, index.size());
+        }
+    }
+}
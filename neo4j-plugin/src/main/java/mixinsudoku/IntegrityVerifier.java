@@ -0,0 +1,410 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Verifies the whole graph after an import:
+ * <ul>
+ * <li>block heights are contiguous from 0 and every block but the first has a PREV_BLOCK to its predecessor</li>
+ * <li>every transaction has exactly one IN_BLOCK</li>
+ * <li>the indexes of the outputs of every value are 0, 1, ... in the order of their blocks</li>
+ * <li>every input has mixin + 1 references, all to outputs of its value that existed before it</li>
+ * <li>the anonset of every input lies between the number of outputs of its value before its block and at the end
+ * of its block</li>
+ * </ul>
+ * A coordinating thread scans one label or denomination at a time and hands the node ids to the workers in chunks.
+ * At most two chunks per worker are in flight, and violations are streamed through a bounded queue, so the memory
+ * used stays small; only the block heights of the outputs of the denomination being checked are held in memory.
+ * Closing the stream early stops the verification.
+ */
+final class IntegrityVerifier {
+
+    private static final int CHUNK_SIZE = 10000;
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final Violation END = new Violation(null, -1, null);
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final int nThreads;
+
+    private final BlockingQueue<Violation> violations = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong nViolations = new AtomicLong();
+    private final AtomicLong nChecked = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    private ExecutorService workers;
+    private Semaphore inFlight;
+
+    IntegrityVerifier(GraphDatabaseService db, Log log, int nThreads) {
+        this.db = db;
+        this.log = log;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Starts the verification in the background.
+     *
+     * @return the violations, as they are found
+     */
+    Stream<Violation> verify() {
+        workers = Executors.newFixedThreadPool(nThreads);
+        inFlight = new Semaphore(2 * nThreads);
+        Thread coordinator = new Thread(this::run, "mixinsudoku-verify");
+        coordinator.setDaemon(true);
+        coordinator.start();
+
+        Iterator<Violation> iterator = new Iterator<Violation>() {
+            private Violation next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = violations.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for violations.", e);
+                    }
+                }
+                return next != END;
+            }
+
+            @Override
+            public Violation next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Violation violation = next;
+                next = null;
+                return violation;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    cancelled = true;
+                    workers.shutdownNow();
+                    coordinator.interrupt();
+                });
+    }
+
+    private void run() {
+        long start = System.currentTimeMillis();
+        try {
+            verifyBlocks();
+            forEachNode(() -> db.findNodes(RingGraphLoader.TRANSACTION), transaction -> {
+                int degree = transaction.getDegree(RingGraphLoader.IN_BLOCK, Direction.OUTGOING);
+                if (degree != 1) {
+                    report("in-block", transaction, "Transaction has " + degree + " IN_BLOCK relationships.");
+                }
+            });
+            for (long value : values()) {
+                verifyDenomination(value);
+            }
+            log.info("Checked " + nChecked.get() + " nodes in " + (System.currentTimeMillis() - start) +
+                    " ms, found " + nViolations.get() + " violations.");
+        } catch (CancellationException e) {
+            log.info("Verification cancelled after " + nChecked.get() + " nodes.");
+        } catch (RuntimeException e) {
+            log.error("Verification failed.", e);
+            try {
+                report("error", -1, "Verification failed: " + e);
+            } catch (CancellationException cancelled) {
+                // nobody is listening anymore
+            }
+        } finally {
+            workers.shutdown();
+            if (!cancelled) {
+                try {
+                    violations.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void verifyBlocks() {
+        BitSet heights = new BitSet();
+        forEachNode(() -> db.findNodes(RingGraphLoader.BLOCK), block -> {
+            Integer height = intProperty(block, "height");
+            if (height == null) {
+                return;
+            }
+            if (height < 0) {
+                report("block", block, "Block has the negative height " + height + ".");
+                return;
+            }
+            synchronized (heights) {
+                if (heights.get(height)) {
+                    report("block", block, "Another block has height " + height + ".");
+                }
+                heights.set(height);
+            }
+            int degree = block.getDegree(RingGraphLoader.PREV_BLOCK, Direction.OUTGOING);
+            if (height == 0 && degree != 0) {
+                report("prev-block", block, "The first block has " + degree + " PREV_BLOCK relationships.");
+            } else if (height > 0 && degree != 1) {
+                report("prev-block", block, "Block " + height + " has " + degree + " PREV_BLOCK relationships.");
+            } else if (height > 0) {
+                Node previous = block.getSingleRelationship(RingGraphLoader.PREV_BLOCK, Direction.OUTGOING)
+                        .getEndNode();
+                Integer previousHeight = intProperty(previous, "height");
+                if (previousHeight != null && previousHeight != height - 1) {
+                    report("prev-block", block, "Block " + height + " follows block " + previousHeight + ".");
+                }
+            }
+        });
+        for (int missing = heights.nextClearBit(0); missing < heights.length();
+             missing = heights.nextClearBit(missing + 1)) {
+            int end = heights.nextSetBit(missing);
+            report("block", -1, end - missing > 1 ?
+                    "Blocks " + missing + " to " + (end - 1) + " are missing." : "Block " + missing + " is missing.");
+            missing = end;
+        }
+    }
+
+    /**
+     * @return all values of inputs and outputs, in ascending order
+     */
+    private Set<Long> values() {
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        for (Label label : new Label[]{RingGraphLoader.OUTPUT, RingGraphLoader.INPUT}) {
+            forEachNode(() -> db.findNodes(label), node -> {
+                Long value = longProperty(node, "value");
+                if (value != null) {
+                    values.add(value);
+                }
+            });
+        }
+        return new TreeSet<>(values);
+    }
+
+    private void verifyDenomination(long value) {
+        int nOutputs = 0;
+        try (Transaction tx = db.beginTx();
+             ResourceIterator<Node> outputs = db.findNodes(RingGraphLoader.OUTPUT, "value", value)) {
+            while (outputs.hasNext()) {
+                outputs.next();
+                nOutputs += 1;
+            }
+            tx.success();
+        }
+
+        // block height + 1 of every output index, 0 if there is no output with that index
+        int count = nOutputs;
+        AtomicIntegerArray heightsByIndex = new AtomicIntegerArray(count);
+        forEachNode(() -> db.findNodes(RingGraphLoader.OUTPUT, "value", value), output -> {
+            Long index = longProperty(output, "index");
+            if (index == null) {
+                return;
+            }
+            int height = RingGraphLoader.blockHeight(output, RingGraphLoader.TX_OUTPUT);
+            if (height < 0) {
+                report("in-block", output, "Output " + value + "-" + index + " is not in a block.");
+            } else if (index < 0 || index >= count) {
+                report("output-index", output, "Output " + value + "-" + index + ", but there are only " + count +
+                        " outputs of value " + value + ".");
+            } else if (!heightsByIndex.compareAndSet(index.intValue(), 0, height + 1)) {
+                report("output-index", output, "Another output has the id " + value + "-" + index + ".");
+            }
+        });
+
+        int[] heights = new int[count];
+        boolean ordered = true;
+        for (int index = 0; index < count; index++) {
+            heights[index] = heightsByIndex.get(index) - 1;
+            if (heights[index] < 0) {
+                ordered = false;
+            } else if (index > 0 && heights[index] < heights[index - 1]) {
+                report("output-order", -1, "Output " + value + "-" + index + " is in block " + heights[index] +
+                        ", output " + value + "-" + (index - 1) + " in block " + heights[index - 1] + ".");
+                ordered = false;
+            }
+        }
+        if (!ordered) {
+            report("output-index", -1, "The outputs of value " + value + " are not numbered by block, " +
+                    "skipping the anonset check.");
+        }
+
+        boolean checkAnonset = ordered;
+        forEachNode(() -> db.findNodes(RingGraphLoader.INPUT, "value", value),
+                input -> verifyInput(input, value, checkAnonset ? heights : null));
+    }
+
+    private void verifyInput(Node input, long value, int[] heights) {
+        Long mixin = longProperty(input, "mixin");
+        Long anonset = longProperty(input, "anonset");
+        if (mixin == null || anonset == null) {
+            return;
+        }
+        int degree = input.getDegree(RingGraphLoader.REFERENCES, Direction.OUTGOING);
+        if (mixin != degree - 1) {
+            report("mixin", input, "Input with mixin " + mixin + " has " + degree + " references.");
+        }
+
+        for (Relationship ref : input.getRelationships(RingGraphLoader.REFERENCES, Direction.OUTGOING)) {
+            Node output = ref.getEndNode();
+            Long outputValue = longProperty(output, "value");
+            Long index = longProperty(output, "index");
+            if (outputValue == null || index == null) {
+                continue;
+            }
+            if (outputValue != value) {
+                report("reference-value", input, "Input of value " + value + " references output " + outputValue +
+                        "-" + index + ".");
+            } else if (index >= anonset) {
+                report("reference-index", input, "Input with anonset " + anonset + " references output " + value +
+                        "-" + index + ".");
+            }
+        }
+
+        int height = RingGraphLoader.blockHeight(input, RingGraphLoader.TX_INPUT);
+        if (height < 0) {
+            report("in-block", input, "Input is not in a block.");
+        } else if (heights != null) {
+            long before = firstIndexAfter(heights, height - 1);
+            long atEnd = firstIndexAfter(heights, height);
+            if (anonset < before || anonset > atEnd) {
+                report("anonset", input, "Input in block " + height + " has anonset " + anonset + ", expected " +
+                        (before == atEnd ? String.valueOf(before) : "between " + before + " and " + atEnd) + ".");
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries of the sorted heights that are at most height
+     */
+    private static int firstIndexAfter(int[] heights, int height) {
+        int low = 0;
+        int high = heights.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (heights[mid] <= height) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Long longProperty(Node node, String key) {
+        Object value = node.getProperty(key, null);
+        if (!(value instanceof Number)) {
+            report("missing-property", node, "Node has no numeric property " + key + ".");
+            return null;
+        }
+        return ((Number) value).longValue();
+    }
+
+    private Integer intProperty(Node node, String key) {
+        Long value = longProperty(node, key);
+        return value == null ? null : value.intValue();
+    }
+
+    /**
+     * Checks the nodes of a scan in parallel, in chunks, and waits until all of them are done.
+     */
+    private void forEachNode(Supplier<ResourceIterator<Node>> scan, Consumer<Node> check) {
+        List<Future<?>> futures = new ArrayList<>();
+        try (Transaction tx = db.beginTx(); ResourceIterator<Node> nodes = scan.get()) {
+            long[] chunk = new long[CHUNK_SIZE];
+            int n = 0;
+            while (nodes.hasNext()) {
+                chunk[n++] = nodes.next().getId();
+                if (n == CHUNK_SIZE) {
+                    futures.add(submit(chunk, n, check));
+                    chunk = new long[CHUNK_SIZE];
+                    n = 0;
+                }
+            }
+            if (n > 0) {
+                futures.add(submit(chunk, n, check));
+            }
+            tx.success();
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new CancellationException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private Future<?> submit(long[] chunk, int n, Consumer<Node> check) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            throw new CancellationException();
+        }
+        return workers.submit(() -> {
+            try (Transaction tx = db.beginTx()) {
+                for (int k = 0; k < n; k++) {
+                    check.accept(db.getNodeById(chunk[k]));
+                }
+                tx.success();
+            } finally {
+                nChecked.addAndGet(n);
+                inFlight.release();
+            }
+        });
+    }
+
+    private void report(String check, Node node, String message) {
+        report(check, node.getId(), message);
+    }
+
+    private void report(String check, long nodeId, String message) {
+        nViolations.incrementAndGet();
+        Violation violation = new Violation(check, nodeId, message);
+        try {
+            while (!violations.offer(violation, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package mixinsudoku;
+
+import org.sat4j.core.VecInt;
+
+import java.util.Arrays;
+
+
+/**
+ * Decides every reference of a {@link RingGraph} in polynomial time, without a SAT solver.
+ * <p>
+ * A valid assignment of spends is a matching of the bipartite graph that covers every input, so a reference is a
+ * proven spend if it is part of every maximum matching, and impossible if it is part of none. Hopcroft-Karp finds
+ * one maximum matching M. Orienting matched references from input to output and all other references from output to
+ * input (Dulmage-Mendelsohn), a reference can be swapped out of or into M exactly if it lies on an alternating cycle,
+ * i.e. both ends are in the same strongly connected component, or on an alternating path that starts at an unspent
+ * output, i.e. its output side is reachable from one.
+ * <p>
+ * The result is the same backbone that {@link SudokuSolver} computes. Components in which not every input can be
+ * matched have no valid assignment at all; like the solver, nothing is deduced for them.
+ */
+final class Matching {
+
+    private static final int FREE = -1;
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final RingGraph graph;
+    private final int nInputs;
+    private final int nOutputs;
+
+    // the matched reference of every input and the matched input of every output
+    private final int[] inputMatch;
+    private final int[] outputMatch;
+    private int size = 0;
+    private int inconsistentInputs = 0;
+
+    Matching(RingGraph graph) {
+        this.graph = graph;
+        this.nInputs = graph.inputCount();
+        this.nOutputs = graph.outputCount();
+        this.inputMatch = new int[nInputs];
+        this.outputMatch = new int[nOutputs];
+    }
+
+    /**
+     * @return the proven literals, positive for forced and negative for impossible references, with reference r as
+     * variable r + 1 like in the solver
+     */
+    VecInt run() {
+        maximumMatching();
+        boolean[] inconsistent = markInconsistentInputs();
+        int[] component = components();
+        boolean[] alternating = reachableFromUnspentOutputs();
+
+        VecInt literals = new VecInt();
+        for (int i = 0; i < nInputs; i++) {
+            if (inconsistent[i]) {
+                continue;
+            }
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                int o = graph.inputTargets[r];
+                if (component[i] == component[nInputs + o]) {
+                    continue;
+                }
+                if (r == inputMatch[i]) {
+                    // the output can only be freed for another input along a path that ends at this input
+                    if (!alternating[i]) {
+                        literals.push(r + 1);
+                    }
+                } else if (!alternating[nInputs + o]) {
+                    literals.push(-(r + 1));
+                }
+            }
+        }
+        return literals;
+    }
+
+    /**
+     * @return the size of the maximum matching
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of inputs in components without a valid assignment
+     */
+    int inconsistentInputs() {
+        return inconsistentInputs;
+    }
+
+    private void maximumMatching() {
+        Arrays.fill(inputMatch, FREE);
+        Arrays.fill(outputMatch, FREE);
+
+        // a greedy start leaves only few inputs for the phases
+        for (int i = 0; i < nInputs; i++) {
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                if (outputMatch[graph.inputTargets[r]] == FREE) {
+                    inputMatch[i] = r;
+                    outputMatch[graph.inputTargets[r]] = i;
+                    size += 1;
+                    break;
+                }
+            }
+        }
+
+        int[] distance = new int[nInputs];
+        int[] queue = new int[nInputs];
+        int[] next = new int[nInputs];
+        int[] path = new int[nInputs];
+        while (true) {
+            int limit = layers(distance, queue);
+            if (limit == UNREACHED) {
+                break;
+            }
+            System.arraycopy(graph.inputOffsets, 0, next, 0, nInputs);
+            for (int i = 0; i < nInputs; i++) {
+                if (inputMatch[i] == FREE && augment(i, limit, distance, next, path)) {
+                    size += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Breadth-first search from all unmatched inputs along unmatched references to outputs and back along matched
+     * ones.
+     *
+     * @return the length of the shortest augmenting path, or {@link #UNREACHED} if the matching is maximum
+     */
+    private int layers(int[] distance, int[] queue) {
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < nInputs; i++) {
+            if (inputMatch[i] == FREE) {
+                distance[i] = 0;
+                queue[tail++] = i;
+            } else {
+                distance[i] = UNREACHED;
+            }
+        }
+        int limit = UNREACHED;
+        while (head < tail) {
+            int i = queue[head++];
+            if (distance[i] >= limit) {
+                continue;
+            }
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                int matched = outputMatch[graph.inputTargets[r]];
+                if (matched == FREE) {
+                    limit = Math.min(limit, distance[i] + 1);
+                } else if (distance[matched] == UNREACHED) {
+                    distance[matched] = distance[i] + 1;
+                    queue[tail++] = matched;
+                }
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Depth-first search for a shortest augmenting path from an unmatched input, with an explicit stack because the
+     * paths of large denominations are too long for the call stack. next[i] is the reference that input i is trying.
+     */
+    private boolean augment(int start, int limit, int[] distance, int[] next, int[] path) {
+        int depth = 0;
+        path[0] = start;
+        while (depth >= 0) {
+            int i = path[depth];
+            boolean descended = false;
+            for (; next[i] < graph.inputOffsets[i + 1]; next[i]++) {
+                int matched = outputMatch[graph.inputTargets[next[i]]];
+                if (matched == FREE) {
+                    if (distance[i] + 1 == limit) {
+                        for (int k = depth; k >= 0; k--) {
+                            int input = path[k];
+                            inputMatch[input] = next[input];
+                            outputMatch[graph.inputTargets[next[input]]] = input;
+                        }
+                        return true;
+                    }
+                } else if (distance[matched] == distance[i] + 1) {
+                    path[++depth] = matched;
+                    descended = true;
+                    break;
+                }
+            }
+            if (!descended) {
+                // dead end for this phase
+                distance[i] = UNREACHED;
+                depth -= 1;
+                if (depth >= 0) {
+                    next[path[depth]] += 1;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks all inputs that are connected to an unmatched input.
+     */
+    private boolean[] markInconsistentInputs() {
+        boolean[] inputs = new boolean[nInputs];
+        boolean[] outputs = new boolean[nOutputs];
+        int[] queue = new int[nInputs];
+        int tail = 0;
+        for (int i = 0; i < nInputs; i++) {
+            if (inputMatch[i] == FREE) {
+                inputs[i] = true;
+                queue[tail++] = i;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int i = queue[head];
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                int o = graph.inputTargets[r];
+                if (outputs[o]) {
+                    continue;
+                }
+                outputs[o] = true;
+                for (int p = graph.outputOffsets[o]; p < graph.outputOffsets[o + 1]; p++) {
+                    if (!inputs[graph.outputSources[p]]) {
+                        inputs[graph.outputSources[p]] = true;
+                        queue[tail++] = graph.outputSources[p];
+                    }
+                }
+            }
+        }
+        inconsistentInputs = tail;
+        return inputs;
+    }
+
+    /**
+     * Tarjan's algorithm on the alternating graph, iteratively. Inputs are the nodes 0 until nInputs, outputs follow.
+     *
+     * @return the strongly connected component of every node
+     */
+    private int[] components() {
+        int nNodes = nInputs + nOutputs;
+        int[] index = new int[nNodes];
+        int[] low = new int[nNodes];
+        int[] cursor = new int[nNodes];
+        int[] component = new int[nNodes];
+        boolean[] onStack = new boolean[nNodes];
+        int[] stack = new int[nNodes];
+        int[] calls = new int[nNodes];
+        Arrays.fill(index, -1);
+        for (int o = 0; o < nOutputs; o++) {
+            cursor[nInputs + o] = graph.outputOffsets[o];
+        }
+
+        int nextIndex = 0;
+        int nComponents = 0;
+        int top = 0;
+        for (int root = 0; root < nNodes; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            calls[0] = root;
+            index[root] = low[root] = nextIndex++;
+            stack[top++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int node = calls[depth];
+                int successor = nextSuccessor(node, cursor);
+                if (successor != -1) {
+                    if (index[successor] == -1) {
+                        index[successor] = low[successor] = nextIndex++;
+                        stack[top++] = successor;
+                        onStack[successor] = true;
+                        calls[++depth] = successor;
+                    } else if (onStack[successor]) {
+                        low[node] = Math.min(low[node], index[successor]);
+                    }
+                    continue;
+                }
+                if (low[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--top];
+                        onStack[member] = false;
+                        component[member] = nComponents;
+                    } while (member != node);
+                    nComponents += 1;
+                }
+                depth -= 1;
+                if (depth >= 0) {
+                    low[calls[depth]] = Math.min(low[calls[depth]], low[node]);
+                }
+            }
+        }
+        return component;
+    }
+
+    /**
+     * Advances the cursor of a node in the alternating graph: an input leads to its matched output, an output to all
+     * other inputs that reference it.
+     *
+     * @return the next successor, or -1 if there is none left
+     */
+    private int nextSuccessor(int node, int[] cursor) {
+        if (node < nInputs) {
+            if (cursor[node]++ == 0 && inputMatch[node] != FREE) {
+                return nInputs + graph.inputTargets[inputMatch[node]];
+            }
+            return -1;
+        }
+        int o = node - nInputs;
+        while (cursor[node] < graph.outputOffsets[o + 1]) {
+            int input = graph.outputSources[cursor[node]++];
+            if (input != outputMatch[o]) {
+                return input;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the nodes of the alternating graph that can be reached from an unmatched output
+     */
+    private boolean[] reachableFromUnspentOutputs() {
+        int nNodes = nInputs + nOutputs;
+        boolean[] reached = new boolean[nNodes];
+        int[] queue = new int[nNodes];
+        int[] cursor = new int[nNodes];
+        int tail = 0;
+        for (int o = 0; o < nOutputs; o++) {
+            cursor[nInputs + o] = graph.outputOffsets[o];
+            if (outputMatch[o] == FREE) {
+                reached[nInputs + o] = true;
+                queue[tail++] = nInputs + o;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int node = queue[head];
+            for (int successor = nextSuccessor(node, cursor); successor != -1;
+                 successor = nextSuccessor(node, cursor)) {
+                if (!reached[successor]) {
+                    reached[successor] = true;
+                    queue[tail++] = successor;
+                }
+            }
+        }
+        return reached;
+    }
+}
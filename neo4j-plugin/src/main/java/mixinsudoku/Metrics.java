@@ -0,0 +1,214 @@
+package mixinsudoku;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters of the stages of the solvers, per stage and denomination, shared by all procedure calls of the JVM.
+ * <p>
+ * Every stage is timed with {@link Stage#begin()} and {@link Stage#end(long)}, and the counters are updated as soon
+ * as a stage of one problem has finished, so they can be watched through {@code mixinsudoku.stats()} or JMX
+ * ({@value #OBJECT_NAME}) while a run is in progress.
+ */
+final class Metrics {
+
+    static final String OBJECT_NAME = "mixinsudoku:type=Stats";
+
+    /**
+     * Loading the open rings of a denomination or a block-height window from the database.
+     */
+    static final String EXTRACT = "extract";
+    /**
+     * Finding closed sets before the clauses are created, models counts the sets.
+     */
+    static final String CLOSED_SETS = "closed-sets";
+    /**
+     * Creating the solver and its clauses.
+     */
+    static final String CLAUSES = "clauses";
+    /**
+     * The polynomial engine of {@code mixinsudoku.matching}, models counts the matched inputs.
+     */
+    static final String MATCHING = "matching";
+    /**
+     * Computing the backbone, or the spends of trivial problems.
+     */
+    static final String SOLVE = "solve";
+    /**
+     * Writing SatSpend labels and SAT_SPEND relationships.
+     */
+    static final String WRITE = "write";
+    static final String ZERO_MIXIN = "zeromixin";
+    /**
+     * Storing block heights on inputs and outputs, rows counts the blocks.
+     */
+    static final String HEIGHTS = "heights";
+    /**
+     * Computing the effective ring size of all inputs, rows counts the inputs.
+     */
+    static final String EFFECTIVE_RING_SIZE = "effective-ring-size";
+    /**
+     * Loading, propagating and writing the chain reaction of sudoku and sudoku.incremental.
+     */
+    static final String CHAIN_REACTION = "chain-reaction";
+
+    /**
+     * Denomination of the stages that cover all of them.
+     */
+    static final long ALL_VALUES = -1;
+
+    private static final ConcurrentMap<String, Stage> STAGES = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // already registered by another copy of the plugin, e.g. in tests
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static Stage stage(String name, long value) {
+        return STAGES.computeIfAbsent(name + "/" + value, key -> new Stage(name, value));
+    }
+
+    /**
+     * @return all stages that have run or are running since the last {@link #reset()}, ordered by name and value
+     */
+    static List<Stage> stages() {
+        List<Stage> stages = new ArrayList<>();
+        for (Stage stage : STAGES.values()) {
+            if (stage.active.get() > 0 || stage.runs.sum() > 0) {
+                stages.add(stage);
+            }
+        }
+        stages.sort(Comparator.comparing((Stage stage) -> stage.name).thenComparingLong(stage -> stage.value));
+        return stages;
+    }
+
+    /**
+     * Zeroes the counters of all stages in place, as running tasks keep updating the stages they hold.
+     */
+    static void reset() {
+        for (Stage stage : STAGES.values()) {
+            stage.reset();
+        }
+    }
+
+    static final class Stage {
+
+        final String name;
+        final long value;
+
+        final AtomicLong active = new AtomicLong();
+        final LongAdder runs = new LongAdder();
+        final LongAdder wallTime = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder variables = new LongAdder();
+        final LongAdder clauses = new LongAdder();
+        final LongAdder conflicts = new LongAdder();
+        final LongAdder decisions = new LongAdder();
+        final LongAdder restarts = new LongAdder();
+        final LongAdder models = new LongAdder();
+        final LongAdder relationships = new LongAdder();
+
+        private Stage(String name, long value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        /**
+         * @return the start time, to be passed to {@link #end(long)}
+         */
+        long begin() {
+            active.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        void end(long start) {
+            wallTime.add((System.nanoTime() - start) / 1000000);
+            runs.increment();
+            active.decrementAndGet();
+        }
+
+        /**
+         * Zeroes all counters except the number of active runs, which belong to tasks that are still running.
+         */
+        void reset() {
+            for (LongAdder counter : new LongAdder[]{runs, wallTime, rows, variables, clauses, conflicts, decisions,
+                    restarts, models, relationships}) {
+                counter.reset();
+            }
+        }
+
+        /**
+         * Adds the search statistics of a sat4j solver, see {@link org.sat4j.specs.ISolver#getStat()}.
+         */
+        void addSolverStatistics(Map<String, Number> statistics) {
+            conflicts.add(number(statistics, "conflicts"));
+            decisions.add(number(statistics, "decisions"));
+            restarts.add(number(statistics, "starts"));
+        }
+
+        private static long number(Map<String, Number> statistics, String key) {
+            Number number = statistics.get(key);
+            return number == null ? 0 : number.longValue();
+        }
+
+        Map<String, Long> counters() {
+            Map<String, Long> counters = new TreeMap<>();
+            counters.put("active", active.get());
+            counters.put("runs", runs.sum());
+            counters.put("wallTime", wallTime.sum());
+            counters.put("rows", rows.sum());
+            counters.put("variables", variables.sum());
+            counters.put("clauses", clauses.sum());
+            counters.put("conflicts", conflicts.sum());
+            counters.put("decisions", decisions.sum());
+            counters.put("restarts", restarts.sum());
+            counters.put("models", models.sum());
+            counters.put("relationships", relationships.sum());
+            return counters;
+        }
+    }
+
+    private static final class Bean implements StatsMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> counters = new TreeMap<>();
+            for (Stage stage : stages()) {
+                String prefix = stage.name + (stage.value == ALL_VALUES ? "" : "." + stage.value) + ".";
+                stage.counters().forEach((key, count) -> counters.put(prefix + key, count));
+            }
+            return counters;
+        }
+
+        @Override
+        public long getActiveStages() {
+            long active = 0;
+            for (Stage stage : STAGES.values()) {
+                active += stage.active.get();
+            }
+            return active;
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package mixinsudoku;
 
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
+import org.sat4j.core.VecInt;
+
+import java.util.List;
+import java.util.stream.Stream;
 
 import static org.neo4j.procedure.Mode.WRITE;
 
@@ -21,34 +28,114 @@ public class MixinSudoku {
     @Context
     public Log log;
 
+    /**
+     * Labels all outputs spent by zero-mixin inputs, in parallel batches of the given size.
+     *
+     * @param nThreads   the number of writers, or 0 for one per available core
+     * @param fromHeight only inputs of blocks from this height on
+     * @param toHeight   only inputs of blocks below this height, -1 for all
+     */
     @Procedure(name = "mixinsudoku.zeromixin", mode = WRITE)
-    public void sudokuZeroMixin() {
-        db.execute("CALL apoc.periodic.iterate(" +
-                "\"MATCH (i:Input)" +
-                " WHERE i.mixin = 0" +
-                " RETURN i\"," +
-                " \"MATCH (i)-[:REFERENCES]->(o:Output)" +
-                " SET o:UniqueSpend, o.iteration = 1" +
-                " CREATE (i)-[:SPENDS]->(o)\"," +
-                "{batchSize: 10000, parallel:true, iterateList:true})");
+    public Stream<ZeroMixinOutput> sudokuZeroMixin(
+            @Name(value = "batchSize", defaultValue = "10000") long batchSize,
+            @Name(value = "nThreads", defaultValue = "0") long nThreads,
+            @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+            @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        if (batchSize < 1 || batchSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("batchSize has to be positive.");
+        }
+        int threads = nThreads > 0 ? (int) nThreads : Runtime.getRuntime().availableProcessors();
+        ZeroMixinLabeler labeler = BatchCommitter.runDetached(() ->
+                new ZeroMixinLabeler(db, log, (int) batchSize, threads, (int) fromHeight, (int) toHeight).run());
+        return Stream.of(new ZeroMixinOutput(labeler));
     }
 
+    /**
+     * Iteratively labels outputs that are the only remaining (not yet spent) reference of an input.
+     * The rings are loaded once and all deductions are propagated in memory before being written back.
+     * <p>
+     * With a height range, only the rings of inputs in its blocks are loaded, found through the index on
+     * :Input(height) once mixinsudoku.heights has run. Their deductions are sound, but rings outside the range are
+     * not examined, so the checkpoint of sudoku.incremental is left as it is.
+     */
     @Procedure(name = "mixinsudoku.sudoku", mode = WRITE)
-    public void sudoku() {
-        db.execute("CALL apoc.periodic.commit(\"" +
-                "  MATCH (i:Input)-[:REFERENCES]->(x)" +
-                "  WHERE NOT x:UniqueSpend" +
-                "  WITH i, COUNT(DISTINCT(x)) as cnt" +
-                "  WHERE cnt = 1" +
-                "  WITH i limit {limit}" +
-                "  MATCH (i)-[:REFERENCES]->(y)" +
-                "  WHERE NOT y:UniqueSpend" +
-                "  MATCH (i)-[:REFERENCES]->(z:UniqueSpend)" +
-                "  WITH i, y, MAX(z.iteration) AS iter" +
-                "  SET y:UniqueSpend, y.iteration = iter + 1" +
-                "  CREATE (i)-[:SPENDS]->(y)" +
-                "  RETURN count(*)\"," +
-                "  {limit: 10000}" +
-                ")");
+    public void sudoku(@Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                       @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        boolean allHeights = RingGraphLoader.isAllHeights((int) fromHeight, (int) toHeight);
+        long spends = BatchCommitter.runDetached(() -> {
+            Metrics.Stage stage = Metrics.stage(Metrics.CHAIN_REACTION, Metrics.ALL_VALUES);
+            long start = stage.begin();
+            long written;
+            try {
+                VecInt iterations = new VecInt();
+                RingGraph graph;
+                try (Transaction tx = db.beginTx()) {
+                    if (allHeights) {
+                        graph = RingGraphLoader.loadAll(db, iterations);
+                    } else {
+                        List<Node> inputs = RingGraphLoader.inputsBetween(db, (int) fromHeight,
+                                RingGraphLoader.resolveToHeight(db, (int) toHeight));
+                        long[] inputIds = new long[inputs.size()];
+                        for (int k = 0; k < inputIds.length; k++) {
+                            inputIds[k] = inputs.get(k).getId();
+                        }
+                        graph = RingGraphLoader.loadInputs(db, inputIds, iterations);
+                    }
+                    tx.success();
+                }
+                log.info("Loaded " + graph.inputCount() + " inputs with " + graph.referenceCount() +
+                        " references.");
+                stage.rows.add(graph.inputCount() + graph.referenceCount());
+
+                ChainReaction chainReaction = new ChainReaction(graph, iterations.toArray());
+                chainReaction.run();
+                written = writeChainReaction(db, graph, chainReaction);
+                stage.relationships.add(written);
+            } finally {
+                stage.end(start);
+            }
+
+            if (allHeights) {
+                // all blocks are done, later runs of sudoku.incremental only need to look at new ones
+                try (Transaction tx = db.beginTx()) {
+                    SudokuCheckpoint.write(db, RingGraphLoader.maxBlockHeight(db), new long[0]);
+                    tx.success();
+                }
+            }
+            return written;
+        });
+        log.info("Sudoku added " + spends + " new spends.");
+    }
+
+    /**
+     * Deduces spends in blocks appended since the last run of sudoku or sudoku.incremental. Zero-mixin inputs of
+     * new blocks are handled as well, so zeromixin does not have to be run again.
+     */
+    @Procedure(name = "mixinsudoku.sudoku.incremental", mode = WRITE)
+    public Stream<QueryOutput> sudokuIncremental() {
+        String summary = BatchCommitter.runDetached(() -> new IncrementalSudoku(db, log).run());
+        log.info(summary);
+        return Stream.of(new QueryOutput(summary));
+    }
+
+    static long writeChainReaction(GraphDatabaseService db, RingGraph graph, ChainReaction chainReaction) {
+        VecInt inputs = chainReaction.deducedInputs();
+        VecInt outputs = chainReaction.deducedOutputs();
+        int[] iterations = chainReaction.iterations();
+
+        try (BatchCommitter batch = new BatchCommitter(db, BatchCommitter.DEFAULT_BATCH_SIZE)) {
+            for (int k = 0; k < inputs.size(); k++) {
+                Node input = db.getNodeById(graph.inputIds[inputs.get(k)]);
+                Node output = db.getNodeById(graph.outputIds[outputs.get(k)]);
+                EffectiveRingSize.spent(db, input, output);
+                output.addLabel(RingGraphLoader.UNIQUE_SPEND);
+                if (iterations[outputs.get(k)] != ChainReaction.NO_ITERATION) {
+                    output.setProperty("iteration", (long) iterations[outputs.get(k)]);
+                }
+                input.createRelationshipTo(output, RingGraphLoader.SPENDS);
+                batch.increment();
+            }
+        }
+        return inputs.size();
     }
 }
@@ -0,0 +1,31 @@
+package mixinsudoku;
+
+
+/**
+ * How often guessing the newest output of a ring finds the known spend.
+ */
+public class NewestOutput {
+
+    /**
+     * The UTC year of the block of the inputs, or null if the block has no timestamp.
+     */
+    public Long year;
+    public long mixin;
+    public long value;
+
+    /**
+     * Inputs with a known spend, and how many of them spend the newest output of their ring.
+     */
+    public long inputs;
+    public long newest;
+    public double accuracy;
+
+    NewestOutput(Long year, long mixin, long value, long inputs, long newest) {
+        this.year = year;
+        this.mixin = mixin;
+        this.value = value;
+        this.inputs = inputs;
+        this.newest = newest;
+        this.accuracy = (double) newest / inputs;
+    }
+}
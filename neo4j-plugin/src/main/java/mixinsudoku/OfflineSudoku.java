@@ -0,0 +1,419 @@
+package mixinsudoku;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+
+/**
+ * Runs the zero-mixin, chain-reaction and SAT stages directly on the CSV export of monero-to-csv.py, without
+ * importing it into Neo4j first, or on a {@link RingStore} converted from it.
+ * <p>
+ * Only inputs.csv, outputs.csv and input-output-refs.csv are read. Inputs are expected to have the ids of the
+ * export script (i0, i1, ...) and outputs the ids value-index. Three files are written, matching the headers in
+ * csv-export/csv-headers: sudoku-outputs.csv replaces outputs.csv and adds the iteration and the UniqueSpend or
+ * SatSpend label, spends.csv holds the SPENDS and sat-spends.csv the SAT_SPEND relationships.
+ * <p>
+ * Like sat.all, the SAT stage skips RingCT (value 0). Its problems are solved in parallel, largest first.
+ */
+public final class OfflineSudoku {
+
+    private static final String UNIQUE_SPEND = "UniqueSpend";
+    private static final String SAT_SPEND = "SatSpend";
+
+    private final File source;
+    private final int nThreads;
+    private final AtMostOne.Encoding encoding;
+
+    // outputs have the dense index bases[ordinal of their value] + index
+    private final LongIntHashMap valueOrdinals = new LongIntHashMap();
+    private long[] values = new long[64];
+    private int[] bases;
+    private int nOutputs;
+
+    // read from the store if there is one, otherwise from inputs.csv
+    private RingStore store;
+    private long[] inputNumbers;
+    private long[] inputValues;
+    private boolean[] zeroMixin;
+    private int nInputs;
+
+    private RingGraph graph;
+    private int[] iterations;
+    private int[] spentBy;
+    private int[] satSpentBy;
+
+    /**
+     * @param source the directory of the CSV export or of a ring store
+     */
+    OfflineSudoku(File source, int nThreads, AtMostOne.Encoding encoding) {
+        this.source = source;
+        this.nThreads = nThreads;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Reads the export and runs all stages.
+     *
+     * @return a summary of every stage
+     */
+    List<String> run() throws IOException {
+        List<String> summary = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        if (RingStore.exists(source)) {
+            readStore();
+        } else {
+            readOutputs();
+            readInputs();
+            readReferences();
+        }
+        summary.add(stage("read", start, nInputs + " inputs, " + nOutputs + " outputs, " +
+                graph.referenceCount() + " references"));
+
+        iterations = new int[nOutputs];
+        spentBy = new int[nOutputs];
+        satSpentBy = new int[nOutputs];
+        Arrays.fill(iterations, ChainReaction.NOT_SPENT);
+        Arrays.fill(spentBy, -1);
+        Arrays.fill(satSpentBy, -1);
+
+        start = System.currentTimeMillis();
+        summary.add(stage("zeromixin", start, zeroMixin() + " spends"));
+
+        start = System.currentTimeMillis();
+        ChainReaction chainReaction = new ChainReaction(graph, iterations);
+        chainReaction.run();
+        for (int k = 0; k < chainReaction.deducedInputs().size(); k++) {
+            spentBy[chainReaction.deducedOutputs().get(k)] = chainReaction.deducedInputs().get(k);
+        }
+        summary.add(stage("sudoku", start, chainReaction.deducedInputs().size() + " spends"));
+
+        start = System.currentTimeMillis();
+        summary.add(stage("sat", start, sat() + " spends"));
+        return summary;
+    }
+
+    private static String stage(String name, long start, String details) {
+        return String.format("%-10s %10.1f s  %s", name, (System.currentTimeMillis() - start) / 1000.0, details);
+    }
+
+    /**
+     * Only copies the rings onto the heap; everything else is read from the mapped columns when needed.
+     */
+    private void readStore() throws IOException {
+        store = RingStore.open(source);
+        values = new long[store.valueCount];
+        bases = new int[store.valueCount + 1];
+        for (int v = 0; v < store.valueCount; v++) {
+            values[v] = store.value(v);
+            valueOrdinals.put(values[v], v);
+            bases[v + 1] = store.outputBase(v + 1);
+        }
+        nOutputs = store.outputCount;
+
+        nInputs = store.inputCount;
+        graph = store.ringGraph();
+    }
+
+    private long inputNumber(int input) {
+        return store != null ? store.inputNumber(input) : inputNumbers[input];
+    }
+
+    private long inputValue(int input) {
+        return store != null ? values[store.inputOrdinal(input)] : inputValues[input];
+    }
+
+    private boolean isZeroMixin(int input) {
+        return store != null ? store.inputMixin(input) == 0 : zeroMixin[input];
+    }
+
+    private void readOutputs() throws IOException {
+        int[] counts = new int[values.length];
+        try (BufferedReader reader = open("outputs.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(",");
+                int ordinal = ordinal(Long.parseLong(fields[1]));
+                if (ordinal == counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+                counts[ordinal] = Math.max(counts[ordinal], Integer.parseInt(fields[2]) + 1);
+            }
+        }
+        bases = new int[valueOrdinals.size() + 1];
+        for (int k = 0; k < valueOrdinals.size(); k++) {
+            bases[k + 1] = bases[k] + counts[k];
+        }
+        nOutputs = bases[valueOrdinals.size()];
+    }
+
+    private int ordinal(long value) {
+        int ordinal = valueOrdinals.get(value);
+        if (ordinal == LongIntHashMap.MISSING) {
+            ordinal = valueOrdinals.size();
+            if (ordinal == values.length) {
+                values = Arrays.copyOf(values, ordinal * 2);
+            }
+            values[ordinal] = value;
+            valueOrdinals.put(value, ordinal);
+        }
+        return ordinal;
+    }
+
+    private void readInputs() throws IOException {
+        inputNumbers = new long[1024];
+        inputValues = new long[1024];
+        zeroMixin = new boolean[1024];
+        try (BufferedReader reader = open("inputs.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(",");
+                if (nInputs == inputNumbers.length) {
+                    inputNumbers = Arrays.copyOf(inputNumbers, nInputs * 2);
+                    inputValues = Arrays.copyOf(inputValues, nInputs * 2);
+                    zeroMixin = Arrays.copyOf(zeroMixin, nInputs * 2);
+                }
+                inputNumbers[nInputs] = Long.parseLong(fields[0].substring(1));
+                inputValues[nInputs] = Long.parseLong(fields[1]);
+                zeroMixin[nInputs] = Integer.parseInt(fields[2]) == 0;
+                nInputs += 1;
+            }
+        }
+    }
+
+    private void readReferences() throws IOException {
+        LongIntHashMap inputIndex = new LongIntHashMap(nInputs);
+        for (int i = 0; i < nInputs; i++) {
+            inputIndex.put(inputNumbers[i], i);
+        }
+
+        int[] referenceInputs = new int[1024];
+        int[] referenceOutputs = new int[1024];
+        int nReferences = 0;
+        int[] degrees = new int[nInputs + 1];
+        try (BufferedReader reader = open("input-output-refs.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comma = line.indexOf(',');
+                int input = inputIndex.get(Long.parseLong(line.substring(1, comma)));
+                if (nReferences == referenceInputs.length) {
+                    referenceInputs = Arrays.copyOf(referenceInputs, nReferences * 2);
+                    referenceOutputs = Arrays.copyOf(referenceOutputs, nReferences * 2);
+                }
+                referenceInputs[nReferences] = input;
+                referenceOutputs[nReferences] = outputIndex(line.substring(comma + 1));
+                degrees[input + 1] += 1;
+                nReferences += 1;
+            }
+        }
+
+        // counting sort of the rows by input, in case the rings of several inputs are interleaved
+        for (int i = 0; i < nInputs; i++) {
+            degrees[i + 1] += degrees[i];
+        }
+        int[] rows = new int[nReferences];
+        int[] next = Arrays.copyOf(degrees, nInputs);
+        for (int row = 0; row < nReferences; row++) {
+            rows[next[referenceInputs[row]]++] = row;
+        }
+
+        RingGraph.Builder builder = new RingGraph.Builder(false);
+        for (int o = 0; o < nOutputs; o++) {
+            builder.addOutput(o);
+        }
+        for (int i = 0; i < nInputs; i++) {
+            builder.addInput(i);
+            for (int k = degrees[i]; k < degrees[i + 1]; k++) {
+                builder.addReference(rows[k], referenceOutputs[rows[k]]);
+            }
+        }
+        graph = builder.build();
+    }
+
+    private int outputIndex(String id) {
+        int dash = id.indexOf('-');
+        int ordinal = valueOrdinals.get(Long.parseLong(id.substring(0, dash)));
+        if (ordinal == LongIntHashMap.MISSING) {
+            throw new IllegalArgumentException("Reference to unknown output " + id);
+        }
+        return bases[ordinal] + Integer.parseInt(id.substring(dash + 1));
+    }
+
+    private String outputId(int output) {
+        // every value has at least one output, so the bases are strictly increasing
+        int ordinal = Arrays.binarySearch(bases, output);
+        if (ordinal < 0) {
+            ordinal = -ordinal - 2;
+        }
+        return values[ordinal] + "-" + (output - bases[ordinal]);
+    }
+
+    private int zeroMixin() {
+        int spends = 0;
+        for (int i = 0; i < nInputs; i++) {
+            if (isZeroMixin(i) && graph.inputDegree(i) == 1) {
+                int output = graph.inputTargets[graph.inputOffsets[i]];
+                iterations[output] = 1;
+                spentBy[output] = i;
+                spends += 1;
+            }
+        }
+        return spends;
+    }
+
+    private int sat() throws IOException {
+        boolean[] spends = new boolean[nInputs];
+        for (int output = 0; output < nOutputs; output++) {
+            if (spentBy[output] >= 0) {
+                spends[spentBy[output]] = true;
+            }
+        }
+
+        Map<Long, RingGraph.Builder> denominations = new HashMap<>();
+        for (int i = 0; i < nInputs; i++) {
+            long value = inputValue(i);
+            if (spends[i] || value == 0) {
+                continue;
+            }
+            RingGraph.Builder builder = denominations.computeIfAbsent(value, v -> new RingGraph.Builder(true));
+            builder.addInput(i);
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                int target = graph.inputTargets[r];
+                if (iterations[target] != ChainReaction.NOT_SPENT) {
+                    continue;
+                }
+                int output = builder.outputIndex(target);
+                if (output == LongIntHashMap.MISSING) {
+                    output = builder.addOutput(target);
+                }
+                // the position in the whole graph, mapped back by referenceInput
+                builder.addReference(r, output);
+            }
+        }
+
+        List<SudokuSolver> solvers = new ArrayList<>();
+        for (Map.Entry<Long, RingGraph.Builder> denomination : denominations.entrySet()) {
+            solvers.addAll(SudokuSolver.decompose(null, denomination.getKey(), denomination.getValue().build(),
+                    encoding, SolverBudget.DEFAULT));
+        }
+        solvers.sort((a, b) -> Integer.compare(b.inputCount(), a.inputCount()));
+
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        List<long[]> spentReferences;
+        try {
+            spentReferences = pool.submit(() -> solvers.parallelStream()
+                    .map(solver -> {
+                        solver.deduce();
+                        return solver.spentReferences();
+                    })
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error while solving.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        int nSpends = 0;
+        for (long[] references : spentReferences) {
+            for (long reference : references) {
+                satSpentBy[graph.inputTargets[(int) reference]] = referenceInput((int) reference);
+                nSpends += 1;
+            }
+        }
+        return nSpends;
+    }
+
+    /**
+     * @return the input of the reference at the given position of the graph
+     */
+    private int referenceInput(int reference) {
+        int input = Arrays.binarySearch(graph.inputOffsets, reference);
+        if (input < 0) {
+            input = -input - 2;
+        }
+        // inputs without references share their offset with the next input
+        while (graph.inputOffsets[input + 1] <= reference) {
+            input += 1;
+        }
+        return input;
+    }
+
+    /**
+     * Writes sudoku-outputs.csv, spends.csv and sat-spends.csv.
+     */
+    void write(File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        try (BufferedWriter writer = create(directory, "sudoku-outputs.csv")) {
+            for (int v = 0; v < valueOrdinals.size(); v++) {
+                for (int output = bases[v]; output < bases[v + 1]; output++) {
+                    writer.write(values[v] + "-" + (output - bases[v]) + "," + values[v] + "," +
+                            (output - bases[v]));
+                    if (spentBy[output] >= 0) {
+                        writer.write("," + iterations[output] + "," + UNIQUE_SPEND);
+                    } else if (satSpentBy[output] >= 0) {
+                        writer.write(",," + SAT_SPEND);
+                    } else {
+                        writer.write(",,");
+                    }
+                    writer.newLine();
+                }
+            }
+        }
+        writeSpends(create(directory, "spends.csv"), spentBy);
+        writeSpends(create(directory, "sat-spends.csv"), satSpentBy);
+    }
+
+    private void writeSpends(BufferedWriter writer, int[] spentBy) throws IOException {
+        try {
+            for (int output = 0; output < nOutputs; output++) {
+                if (spentBy[output] >= 0) {
+                    writer.write("i" + inputNumber(spentBy[output]) + "," + outputId(output));
+                    writer.newLine();
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private BufferedReader open(String name) throws IOException {
+        return Files.newBufferedReader(new File(source, name).toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static BufferedWriter create(File directory, String name) throws IOException {
+        return Files.newBufferedWriter(new File(directory, name).toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Arguments: --csv (default csv-export/csv) or --store, --out (default csv-export/sudoku), --threads (default
+     * all cores) and --encoding (default auto).
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = CommandLine.parseOrExit("OfflineSudoku [--csv <DIRECTORY> | --store " +
+                "<DIRECTORY>] [--out <DIRECTORY>] [--threads <N>] [--encoding <ENCODING>]", args,
+                "csv", "store", "out", "threads", "encoding");
+        OfflineSudoku sudoku = new OfflineSudoku(
+                new File(arguments.containsKey("store") ? arguments.get("store") :
+                        arguments.getOrDefault("csv", "csv-export/csv")),
+                Integer.parseInt(arguments.getOrDefault("threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                AtMostOne.Encoding.parse(arguments.getOrDefault("encoding", "auto")));
+        for (String line : sudoku.run()) {
+            System.out.println(line);
+        }
+        File out = new File(arguments.getOrDefault("out", "csv-export/sudoku"));
+        sudoku.write(out);
+        System.out.println("Results written to " + out + ".");
+    }
+}
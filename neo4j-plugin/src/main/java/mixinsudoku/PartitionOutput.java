@@ -0,0 +1,49 @@
+package mixinsudoku;
+
+
+/**
+ * One row of the RingCT procedure, describing a finished block-height window.
+ */
+public class PartitionOutput {
+
+    public long fromHeight;
+    public long toHeight;
+    public long inputs;
+    public long newSpends;
+    public long removedReferences;
+    public long components;
+    public long variables;
+    public long clauses;
+
+    /**
+     * Wall time in milliseconds.
+     */
+    public long solveTime;
+
+    /**
+     * References that had not been examined yet when a component ran out of budget. newSpends and removedReferences
+     * are proven either way.
+     */
+    public long openReferences;
+    public long escalations;
+
+    /**
+     * One of solved, unfinished or error.
+     */
+    public String status;
+
+    PartitionOutput(int fromHeight, int toHeight, int inputs, SudokuResult result) {
+        this.fromHeight = fromHeight;
+        this.toHeight = toHeight;
+        this.inputs = inputs;
+        this.newSpends = result.spends();
+        this.removedReferences = result.removedReferences();
+        this.components = result.getComponents();
+        this.variables = result.getVariables();
+        this.clauses = result.getClauses();
+        this.solveTime = result.getDuration();
+        this.openReferences = result.getOpenReferences();
+        this.escalations = result.getEscalations();
+        this.status = result.getStatus().name().toLowerCase();
+    }
+}
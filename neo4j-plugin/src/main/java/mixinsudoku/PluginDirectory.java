@@ -0,0 +1,54 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.io.File;
+import java.nio.file.Path;
+
+
+/**
+ * Resolves the directories that procedures write files to, such as the problem cache and the DIMACS export.
+ * <p>
+ * A procedure only ever writes below the import directory of the server (dbms.directories.import), or below
+ * mixinsudoku in its data directory if no import directory is configured. Paths are resolved relative to it, and
+ * absolute paths or paths that leave it are rejected.
+ */
+final class PluginDirectory {
+
+    static final String DATA_SUBDIRECTORY = "mixinsudoku";
+
+    private PluginDirectory() {
+    }
+
+    /**
+     * @return the directory all procedures write below
+     */
+    static Path root(GraphDatabaseAPI db) {
+        Config config = db.getDependencyResolver().resolveDependency(Config.class);
+        File root = config.get(GraphDatabaseSettings.load_csv_file_url_root);
+        if (root == null) {
+            root = new File(config.get(GraphDatabaseSettings.data_directory), DATA_SUBDIRECTORY);
+        }
+        return root.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Resolves a directory below the root and creates it if it does not exist.
+     *
+     * @param directory a path relative to the root
+     */
+    static File resolve(GraphDatabaseAPI db, String directory) {
+        Path root = root(db);
+        Path path = root.resolve(directory).normalize();
+        if (new File(directory).isAbsolute() || !path.startsWith(root)) {
+            throw new IllegalArgumentException("Directory " + directory + " must be relative to " + root + ".");
+        }
+        File file = path.toFile();
+        if (!file.isDirectory() && !file.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create directory " + file + ".");
+        }
+        return file;
+    }
+}
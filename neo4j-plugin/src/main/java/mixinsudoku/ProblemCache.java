@@ -0,0 +1,164 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.store.StoreId;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Keeps the extracted ring graph of every denomination in a file of its own, so that solving it again, e.g. with a
+ * different encoding or budget, does not have to read the database again.
+ * <p>
+ * A file is only used if its fingerprint matches the current state of the database: the store it was extracted
+ * from and the id of the last committed transaction. Both are read in constant time, so a hit skips the extraction
+ * entirely. In exchange, any write to the database, also to another denomination or one that only marks references
+ * as impossible, makes all cached graphs out of date.
+ * <p>
+ * The graph keeps the REFERENCES ids, i.e. the variable map of the SAT problems, and the clauses are built from it.
+ * The directory is resolved by {@link PluginDirectory}. A cache without a directory only reads the database.
+ */
+final class ProblemCache {
+
+    private static final int MAGIC = 0x6d736363;
+    private static final int VERSION = 3;
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final File directory;
+    private final String store;
+    private final TransactionIdStore transactions;
+    private final int fromHeight;
+    private final int toHeight;
+
+    /**
+     * @param directory  the cache directory, or null to always read the database
+     * @param store        the identity of the store, part of every fingerprint
+     * @param transactions the last committed transaction, part of every fingerprint
+     * @param fromHeight   only inputs of blocks from this height on
+     * @param toHeight     only inputs of blocks below this height, or {@link RingGraphLoader#LATEST}
+     */
+    ProblemCache(GraphDatabaseService db, Log log, File directory, String store, TransactionIdStore transactions,
+                 int fromHeight, int toHeight) {
+        this.db = db;
+        this.log = log;
+        this.directory = directory;
+        this.store = store;
+        this.transactions = transactions;
+        this.fromHeight = fromHeight;
+        this.toHeight = toHeight;
+    }
+
+    /**
+     * @param directory the cache directory relative to {@link PluginDirectory#root(GraphDatabaseAPI)}, disabled if
+     *                  empty
+     */
+    static ProblemCache open(GraphDatabaseAPI db, Log log, String directory) {
+        return open(db, log, directory, 0, RingGraphLoader.LATEST);
+    }
+
+    static ProblemCache open(GraphDatabaseAPI db, Log log, String directory, long fromHeight, long toHeight) {
+        if (directory.isEmpty()) {
+            return new ProblemCache(db, log, null, null, null, (int) fromHeight, (int) toHeight);
+        }
+        StoreId storeId = db.storeId();
+        return new ProblemCache(db, log, PluginDirectory.resolve(db, directory),
+                Long.toHexString(storeId.getRandomId()) + "@" + storeId.getCreationTime(),
+                db.getDependencyResolver().resolveDependency(TransactionIdStore.class), (int) fromHeight,
+                (int) toHeight);
+    }
+
+    /**
+     * Loads the open part of the ring graph of a denomination from the cache, or from the database if the cache
+     * is disabled or out of date, see {@link RingGraphLoader#loadDenomination(GraphDatabaseService, long)}. With a
+     * height range, only the inputs of its blocks are loaded, see
+     * {@link RingGraphLoader#loadHeightWindow(GraphDatabaseService, long, int, int)}.
+     */
+    RingGraph loadDenomination(long value) {
+        String fingerprint = null;
+        String name = String.valueOf(value);
+        RingGraph graph;
+        try (Transaction tx = db.beginTx()) {
+            boolean allHeights = RingGraphLoader.isAllHeights(fromHeight, toHeight);
+            int to = allHeights ? toHeight : RingGraphLoader.resolveToHeight(db, toHeight);
+            if (!allHeights) {
+                name += "@" + fromHeight + "-" + to;
+            }
+            if (directory != null) {
+                // read before the graph, so that a write committed during the extraction never matches it
+                fingerprint = store + "/" + transactions.getLastCommittedTransactionId();
+                graph = read(name, fingerprint);
+                if (graph != null) {
+                    tx.success();
+                    return graph;
+                }
+            }
+            graph = allHeights ? RingGraphLoader.loadDenomination(db, value) :
+                    RingGraphLoader.loadHeightWindow(db, value, fromHeight, to);
+            tx.success();
+        }
+        if (directory != null) {
+            write(name, fingerprint, graph);
+        }
+        return graph;
+    }
+
+    /**
+     * @param name the denomination, followed by the height range if there is one
+     */
+    private File file(String name) {
+        return new File(directory, name + ".rings");
+    }
+
+    private RingGraph read(String name, String fingerprint) {
+        File file = file(name);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(fingerprint)) {
+                return null;
+            }
+            RingGraph graph = RingGraph.read(in);
+            log.info("Loaded " + graph.inputCount() + " inputs from " + file + ".");
+            return graph;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable cache file " + file + ".", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so that a run that is interrupted never leaves a partial file behind.
+     */
+    private void write(String name, String fingerprint, RingGraph graph) {
+        File file = file(name);
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fingerprint);
+                graph.write(out);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write cache file " + file + ".", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package mixinsudoku;
+
+
+/**
+ * The number of inputs whose known spend has a given rank in their ring.
+ */
+public class RankOutput {
+
+    /**
+     * The UTC year of the block of the inputs, or null if the block has no timestamp.
+     */
+    public Long year;
+    public long mixin;
+    public long value;
+
+    /**
+     * The number of outputs in the ring that are newer than the spend.
+     */
+    public long rank;
+    public long inputs;
+
+    RankOutput(Long year, long mixin, long value, long rank, long inputs) {
+        this.year = year;
+        this.mixin = mixin;
+        this.value = value;
+        this.rank = rank;
+        this.inputs = inputs;
+    }
+}
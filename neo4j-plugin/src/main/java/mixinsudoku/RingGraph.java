@@ -0,0 +1,276 @@
+package mixinsudoku;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Compressed (CSR) bipartite graph of inputs and the outputs in their rings.
+ * <p>
+ * Inputs and outputs are addressed by dense indexes. The references of input i are stored at positions
+ * inputOffsets[i] until inputOffsets[i + 1] of inputTargets (the output index) and referenceIds (the id of the
+ * REFERENCES relationship, if requested). The reverse direction lists, for every output, the referencing inputs
+ * together with the position of the corresponding reference on the input side.
+ */
+final class RingGraph {
+
+    final long[] inputIds;
+    final long[] outputIds;
+
+    final int[] inputOffsets;
+    final int[] inputTargets;
+    final long[] referenceIds;
+
+    final int[] outputOffsets;
+    final int[] outputSources;
+    final int[] outputReferences;
+
+    private RingGraph(long[] inputIds, long[] outputIds, int[] inputOffsets, int[] inputTargets, long[] referenceIds) {
+        this.inputIds = inputIds;
+        this.outputIds = outputIds;
+        this.inputOffsets = inputOffsets;
+        this.inputTargets = inputTargets;
+        this.referenceIds = referenceIds;
+
+        // counting sort of all references by output
+        int nOutputs = outputIds.length;
+        outputOffsets = new int[nOutputs + 1];
+        for (int target : inputTargets) {
+            outputOffsets[target + 1] += 1;
+        }
+        for (int o = 0; o < nOutputs; o++) {
+            outputOffsets[o + 1] += outputOffsets[o];
+        }
+        outputSources = new int[inputTargets.length];
+        outputReferences = new int[inputTargets.length];
+        int[] next = Arrays.copyOf(outputOffsets, nOutputs);
+        for (int i = 0; i < inputIds.length; i++) {
+            for (int r = inputOffsets[i]; r < inputOffsets[i + 1]; r++) {
+                int pos = next[inputTargets[r]]++;
+                outputSources[pos] = i;
+                outputReferences[pos] = r;
+            }
+        }
+    }
+
+    /**
+     * Wraps CSR arrays whose inputs and outputs are dense already and whose rings have no duplicates, e.g. those of
+     * a {@link RingStore}, without going through a {@link Builder}. The ids are the dense indexes plus the given
+     * bases; there are no reference ids.
+     */
+    static RingGraph dense(long inputBase, long outputBase, int nOutputs, int[] inputOffsets, int[] inputTargets) {
+        long[] inputIds = new long[inputOffsets.length - 1];
+        for (int i = 0; i < inputIds.length; i++) {
+            inputIds[i] = inputBase + i;
+        }
+        long[] outputIds = new long[nOutputs];
+        for (int o = 0; o < nOutputs; o++) {
+            outputIds[o] = outputBase + o;
+        }
+        return new RingGraph(inputIds, outputIds, inputOffsets, inputTargets, null);
+    }
+
+    int inputCount() {
+        return inputIds.length;
+    }
+
+    int outputCount() {
+        return outputIds.length;
+    }
+
+    int referenceCount() {
+        return inputTargets.length;
+    }
+
+    int inputDegree(int input) {
+        return inputOffsets[input + 1] - inputOffsets[input];
+    }
+
+    int outputDegree(int output) {
+        return outputOffsets[output + 1] - outputOffsets[output];
+    }
+
+    /**
+     * Extracts the graph induced by the given inputs and all outputs they reference.
+     */
+    RingGraph subgraph(int[] inputs) {
+        int nReferences = 0;
+        for (int i : inputs) {
+            nReferences += inputDegree(i);
+        }
+
+        LongIntHashMap outputIndex = new LongIntHashMap(nReferences);
+        long[] subInputIds = new long[inputs.length];
+        long[] subOutputIds = new long[nReferences];
+        int[] subOffsets = new int[inputs.length + 1];
+        int[] subTargets = new int[nReferences];
+        long[] subReferenceIds = referenceIds == null ? null : new long[nReferences];
+
+        int nOutputs = 0;
+        int pos = 0;
+        for (int k = 0; k < inputs.length; k++) {
+            int i = inputs[k];
+            subInputIds[k] = inputIds[i];
+            for (int r = inputOffsets[i]; r < inputOffsets[i + 1]; r++) {
+                int output = outputIndex.get(inputTargets[r]);
+                if (output == LongIntHashMap.MISSING) {
+                    output = nOutputs++;
+                    outputIndex.put(inputTargets[r], output);
+                    subOutputIds[output] = outputIds[inputTargets[r]];
+                }
+                subTargets[pos] = output;
+                if (subReferenceIds != null) {
+                    subReferenceIds[pos] = referenceIds[r];
+                }
+                pos += 1;
+            }
+            subOffsets[k + 1] = pos;
+        }
+
+        return new RingGraph(subInputIds, Arrays.copyOf(subOutputIds, nOutputs), subOffsets, subTargets,
+                subReferenceIds);
+    }
+
+    /**
+     * Writes the graph including its reference ids, in the format read by {@link #read(DataInput)}.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(inputIds.length);
+        out.writeInt(outputIds.length);
+        out.writeInt(inputTargets.length);
+        for (long id : inputIds) {
+            out.writeLong(id);
+        }
+        for (long id : outputIds) {
+            out.writeLong(id);
+        }
+        for (int i = 1; i <= inputIds.length; i++) {
+            out.writeInt(inputOffsets[i]);
+        }
+        for (int r = 0; r < inputTargets.length; r++) {
+            out.writeInt(inputTargets[r]);
+            out.writeLong(referenceIds[r]);
+        }
+    }
+
+    static RingGraph read(DataInput in) throws IOException {
+        long[] inputIds = new long[in.readInt()];
+        long[] outputIds = new long[in.readInt()];
+        int[] inputTargets = new int[in.readInt()];
+        long[] referenceIds = new long[inputTargets.length];
+        int[] inputOffsets = new int[inputIds.length + 1];
+        for (int i = 0; i < inputIds.length; i++) {
+            inputIds[i] = in.readLong();
+        }
+        for (int o = 0; o < outputIds.length; o++) {
+            outputIds[o] = in.readLong();
+        }
+        for (int i = 1; i <= inputIds.length; i++) {
+            inputOffsets[i] = in.readInt();
+        }
+        for (int r = 0; r < inputTargets.length; r++) {
+            inputTargets[r] = in.readInt();
+            referenceIds[r] = in.readLong();
+        }
+        return new RingGraph(inputIds, outputIds, inputOffsets, inputTargets, referenceIds);
+    }
+
+    /**
+     * Accumulates inputs and their references one input at a time.
+     * Duplicate references of an input to the same output are only recorded once.
+     */
+    static final class Builder {
+
+        private final boolean keepReferenceIds;
+        private final LongIntHashMap outputIndex = new LongIntHashMap(1024);
+
+        private long[] inputIds = new long[1024];
+        private long[] outputIds = new long[1024];
+        private int[] inputOffsets = new int[1025];
+        private int[] inputTargets = new int[4096];
+        private long[] referenceIds;
+
+        private int nInputs = 0;
+        private int nOutputs = 0;
+        private int nReferences = 0;
+
+        Builder(boolean keepReferenceIds) {
+            this.keepReferenceIds = keepReferenceIds;
+            this.referenceIds = keepReferenceIds ? new long[4096] : null;
+        }
+
+        /**
+         * Starts a new input; subsequent references are attributed to it.
+         *
+         * @return the dense index of the input
+         */
+        int addInput(long nodeId) {
+            if (nInputs == inputIds.length) {
+                inputIds = Arrays.copyOf(inputIds, nInputs * 2);
+                inputOffsets = Arrays.copyOf(inputOffsets, nInputs * 2 + 1);
+            }
+            inputIds[nInputs] = nodeId;
+            nInputs += 1;
+            inputOffsets[nInputs] = nReferences;
+            return nInputs - 1;
+        }
+
+        /**
+         * @return the dense index of the output, or {@link LongIntHashMap#MISSING} if it has not been added yet
+         */
+        int outputIndex(long nodeId) {
+            return outputIndex.get(nodeId);
+        }
+
+        int addOutput(long nodeId) {
+            if (nOutputs == outputIds.length) {
+                outputIds = Arrays.copyOf(outputIds, nOutputs * 2);
+            }
+            outputIds[nOutputs] = nodeId;
+            outputIndex.put(nodeId, nOutputs);
+            return nOutputs++;
+        }
+
+        /**
+         * Adds a reference from the most recently added input to the given output.
+         */
+        void addReference(long relationshipId, int output) {
+            for (int r = inputOffsets[nInputs - 1]; r < nReferences; r++) {
+                if (inputTargets[r] == output) {
+                    return;
+                }
+            }
+            if (nReferences == inputTargets.length) {
+                inputTargets = Arrays.copyOf(inputTargets, nReferences * 2);
+                if (keepReferenceIds) {
+                    referenceIds = Arrays.copyOf(referenceIds, nReferences * 2);
+                }
+            }
+            inputTargets[nReferences] = output;
+            if (keepReferenceIds) {
+                referenceIds[nReferences] = relationshipId;
+            }
+            nReferences += 1;
+            inputOffsets[nInputs] = nReferences;
+        }
+
+        int inputCount() {
+            return nInputs;
+        }
+
+        int outputCount() {
+            return nOutputs;
+        }
+
+        RingGraph build() {
+            return new RingGraph(
+                    Arrays.copyOf(inputIds, nInputs),
+                    Arrays.copyOf(outputIds, nOutputs),
+                    Arrays.copyOf(inputOffsets, nInputs + 1),
+                    Arrays.copyOf(inputTargets, nReferences),
+                    keepReferenceIds ? Arrays.copyOf(referenceIds, nReferences) : null);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.*;
+import org.sat4j.core.VecInt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Builds {@link RingGraph}s directly through the core API, without going through Cypher.
+ * Must be called from within a transaction.
+ */
+final class RingGraphLoader {
+
+    static final Label BLOCK = Label.label("Block");
+    static final Label TRANSACTION = Label.label("Transaction");
+    static final Label INPUT = Label.label("Input");
+    static final Label OUTPUT = Label.label("Output");
+    static final Label UNIQUE_SPEND = Label.label("UniqueSpend");
+    static final Label SAT_SPEND_LABEL = Label.label("SatSpend");
+    static final RelationshipType REFERENCES = RelationshipType.withName("REFERENCES");
+    static final RelationshipType SPENDS = RelationshipType.withName("SPENDS");
+    static final RelationshipType SAT_SPEND = RelationshipType.withName("SAT_SPEND");
+    static final RelationshipType IN_BLOCK = RelationshipType.withName("IN_BLOCK");
+    static final RelationshipType TX_INPUT = RelationshipType.withName("TX_INPUT");
+    static final RelationshipType TX_OUTPUT = RelationshipType.withName("TX_OUTPUT");
+    static final RelationshipType PREV_BLOCK = RelationshipType.withName("PREV_BLOCK");
+    /**
+     * Property of REFERENCES relationships that the SAT solver proved not to be the real spend.
+     */
+    static final String IMPOSSIBLE = "impossible";
+    /**
+     * Upper bound of a height range that ends with the most recent block.
+     */
+    static final int LATEST = -1;
+
+    private RingGraphLoader() {
+    }
+
+    /**
+     * Loads the rings of all inputs in the database.
+     *
+     * @param db         the database
+     * @param iterations receives, per output, its iteration (see {@link ChainReaction})
+     */
+    static RingGraph loadAll(GraphDatabaseService db, VecInt iterations) {
+        RingGraph.Builder builder = new RingGraph.Builder(false);
+
+        try (ResourceIterator<Node> inputs = db.findNodes(INPUT)) {
+            while (inputs.hasNext()) {
+                addRing(builder, inputs.next(), iterations);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Loads the rings of the given inputs.
+     *
+     * @param db         the database
+     * @param inputIds   the node ids of the inputs
+     * @param iterations receives, per output, its iteration (see {@link ChainReaction})
+     */
+    static RingGraph loadInputs(GraphDatabaseService db, long[] inputIds, VecInt iterations) {
+        RingGraph.Builder builder = new RingGraph.Builder(false);
+        for (long inputId : inputIds) {
+            addRing(builder, db.getNodeById(inputId), iterations);
+        }
+        return builder.build();
+    }
+
+    private static void addRing(RingGraph.Builder builder, Node input, VecInt iterations) {
+        builder.addInput(input.getId());
+
+        for (Relationship ref : input.getRelationships(REFERENCES, Direction.OUTGOING)) {
+            long outputId = ref.getEndNodeId();
+            int output = builder.outputIndex(outputId);
+            if (output == LongIntHashMap.MISSING) {
+                output = builder.addOutput(outputId);
+                iterations.push(readIteration(ref.getEndNode()));
+            }
+            builder.addReference(ref.getId(), output);
+        }
+    }
+
+    /**
+     * Loads the open part of the ring graph of one denomination: all inputs of the given value that do not spend a
+     * known output yet, together with their references to outputs that are not known to be spent.
+     * Spends and impossible references found by earlier SAT runs count as known, so an unfinished denomination
+     * continues where it stopped. Reference ids are kept, so that results can be mapped back to REFERENCES
+     * relationships.
+     */
+    static RingGraph loadDenomination(GraphDatabaseService db, long value) {
+        Metrics.Stage stage = Metrics.stage(Metrics.EXTRACT, value);
+        long start = stage.begin();
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        LongIntHashMap excludedOutputs = new LongIntHashMap();
+
+        try (ResourceIterator<Node> inputs = db.findNodes(INPUT, "value", value)) {
+            while (inputs.hasNext()) {
+                addOpenInput(builder, inputs.next(), excludedOutputs);
+            }
+            return built(builder, stage);
+        } finally {
+            stage.end(start);
+        }
+    }
+
+    /**
+     * Loads the open part of the ring graph of one denomination, restricted to the inputs of transactions in blocks
+     * with a height between fromHeight (inclusive) and toHeight (exclusive). Their rings may reference outputs of
+     * any height.
+     */
+    static RingGraph loadHeightWindow(GraphDatabaseService db, long value, int fromHeight, int toHeight) {
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        LongIntHashMap excludedOutputs = new LongIntHashMap();
+
+        Metrics.Stage stage = Metrics.stage(Metrics.EXTRACT, value);
+        long start = stage.begin();
+        try {
+            for (Node input : inputsBetween(db, value, fromHeight, toHeight)) {
+                addOpenInput(builder, input, excludedOutputs);
+            }
+            return built(builder, stage);
+        } finally {
+            stage.end(start);
+        }
+    }
+
+    /**
+     * @return the graph, after counting its inputs and references as rows read
+     */
+    private static RingGraph built(RingGraph.Builder builder, Metrics.Stage stage) {
+        RingGraph graph = builder.build();
+        stage.rows.add(graph.inputCount() + graph.referenceCount());
+        return graph;
+    }
+
+    /**
+     * Like {@link #inputsOfBlocks(GraphDatabaseService, int, int)}, but as far as mixinsudoku.heights has stored
+     * the heights of the inputs, they are found by a range scan of the index on :Input(height). Only the blocks
+     * above are traversed.
+     */
+    static List<Node> inputsBetween(GraphDatabaseService db, int fromHeight, int toHeight) {
+        return inputsBetween(db, null, fromHeight, toHeight);
+    }
+
+    /**
+     * Like {@link #inputsBetween(GraphDatabaseService, int, int)}, but only the inputs of one denomination. The
+     * index range scan filters on the value in the query, so inputs of other denominations are never loaded.
+     *
+     * @param value the denomination, or null for all
+     */
+    static List<Node> inputsBetween(GraphDatabaseService db, Long value, int fromHeight, int toHeight) {
+        int indexed = Math.min(toHeight, HeightDenormalizer.storedHeight(db) + 1);
+        List<Node> inputs = new ArrayList<>();
+        if (fromHeight < indexed) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("from", fromHeight);
+            parameters.put("to", indexed);
+            parameters.put("value", value);
+            try (Result result = db.execute("MATCH (i:Input) WHERE " + (value == null ? "" : "i.value = $value AND ") +
+                    "i.height >= $from AND i.height < $to RETURN i", parameters)) {
+                ResourceIterator<Node> nodes = result.columnAs("i");
+                while (nodes.hasNext()) {
+                    inputs.add(nodes.next());
+                }
+            }
+        }
+        for (Node input : inputsOfBlocks(db, Math.max(fromHeight, indexed), toHeight)) {
+            if (value == null || ((Number) input.getProperty("value", -1L)).longValue() == value) {
+                inputs.add(input);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * @return all inputs of transactions in blocks with a height between fromHeight (inclusive) and toHeight
+     * (exclusive)
+     */
+    static List<Node> inputsOfBlocks(GraphDatabaseService db, int fromHeight, int toHeight) {
+        List<Node> inputs = new ArrayList<>();
+        for (int height = fromHeight; height < toHeight; height++) {
+            Node block = db.findNode(BLOCK, "height", height);
+            if (block == null) {
+                continue;
+            }
+            for (Relationship inBlock : block.getRelationships(IN_BLOCK, Direction.INCOMING)) {
+                for (Relationship txInput : inBlock.getStartNode().getRelationships(TX_INPUT, Direction.OUTGOING)) {
+                    inputs.add(txInput.getEndNode());
+                }
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * @return whether the range from fromHeight to toHeight (exclusive, or {@link #LATEST}) covers all blocks
+     */
+    static boolean isAllHeights(int fromHeight, int toHeight) {
+        return fromHeight <= 0 && toHeight == LATEST;
+    }
+
+    /**
+     * @return toHeight, or the height after the most recent block for {@link #LATEST}
+     */
+    static int resolveToHeight(GraphDatabaseService db, int toHeight) {
+        return toHeight == LATEST ? maxBlockHeight(db) + 1 : toHeight;
+    }
+
+    /**
+     * @return the height of the most recent block, or -1 if there are no blocks
+     */
+    static int maxBlockHeight(GraphDatabaseService db) {
+        Object height = db.execute("MATCH (b:Block) RETURN max(b.height) AS height").next().get("height");
+        return height == null ? -1 : ((Number) height).intValue();
+    }
+
+    /**
+     * @return the height of the block of the transaction of an input or output, or -1 if there is none
+     */
+    static int blockHeight(Node node, RelationshipType txRelationship) {
+        if (node.getDegree(txRelationship, Direction.INCOMING) != 1) {
+            return -1;
+        }
+        Node transaction = node.getSingleRelationship(txRelationship, Direction.INCOMING).getStartNode();
+        if (transaction.getDegree(IN_BLOCK, Direction.OUTGOING) != 1) {
+            return -1;
+        }
+        Object height = transaction.getSingleRelationship(IN_BLOCK, Direction.OUTGOING)
+                .getEndNode().getProperty("height", null);
+        return height == null ? -1 : ((Number) height).intValue();
+    }
+
+    /**
+     * Adds an input that does not spend a known output yet, with its references to outputs that are not known
+     * to be spent and that are not known to be impossible.
+     */
+    private static void addOpenInput(RingGraph.Builder builder, Node input, LongIntHashMap excludedOutputs) {
+        if (!isOpenInput(input)) {
+            return;
+        }
+        builder.addInput(input.getId());
+
+        for (Relationship ref : input.getRelationships(REFERENCES, Direction.OUTGOING)) {
+            if (ref.hasProperty(IMPOSSIBLE)) {
+                continue;
+            }
+            long outputId = ref.getEndNodeId();
+            int output = builder.outputIndex(outputId);
+            if (output == LongIntHashMap.MISSING) {
+                if (excludedOutputs.containsKey(outputId)) {
+                    continue;
+                }
+                if (!isOpenOutput(ref.getEndNode())) {
+                    excludedOutputs.put(outputId, 0);
+                    continue;
+                }
+                output = builder.addOutput(outputId);
+            }
+            builder.addReference(ref.getId(), output);
+        }
+    }
+
+    /**
+     * @return whether the spend of the input is not known yet, neither from the sudoku nor from the SAT stage
+     */
+    static boolean isOpenInput(Node input) {
+        return !input.hasRelationship(Direction.OUTGOING, SPENDS, SAT_SPEND);
+    }
+
+    /**
+     * @return whether the node is an output that is not known to be spent yet, so that open inputs may still spend it
+     */
+    static boolean isOpenOutput(Node output) {
+        return output.hasLabel(OUTPUT) && !output.hasLabel(UNIQUE_SPEND) && !output.hasLabel(SAT_SPEND_LABEL);
+    }
+
+    private static int readIteration(Node output) {
+        if (!output.hasLabel(UNIQUE_SPEND)) {
+            return ChainReaction.NOT_SPENT;
+        }
+        Object iteration = output.getProperty("iteration", null);
+        return iteration == null ? ChainReaction.NO_ITERATION : ((Number) iteration).intValue();
+    }
+}
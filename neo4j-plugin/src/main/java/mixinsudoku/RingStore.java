@@ -0,0 +1,257 @@
+package mixinsudoku;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+
+/**
+ * Read-only view of a ring store written by {@link RingStoreConverter}, memory-mapped so that opening even the
+ * whole chain takes next to no heap.
+ * <p>
+ * A ring store is a directory of raw little-endian arrays (readable with numpy.memmap as well) and store.properties
+ * holding their lengths:
+ * <ul>
+ * <li>values.i64: all denominations in ascending order, addressed by their ordinal v</li>
+ * <li>output-bases.i32, input-bases.i32: v + 1 entries; the outputs and inputs of denomination v are the dense
+ * indexes from base[v] until base[v + 1], outputs ordered by their index in the denomination</li>
+ * <li>output-heights.i32, input-heights.i32: the block height of every output and input</li>
+ * <li>input-numbers.i64, input-mixins.i32: N of the input id iN of the export and the mixin of every input</li>
+ * <li>ring-offsets.i32, ring-targets.i32: the ring of input i is ring-targets[ring-offsets[i]] until
+ * ring-targets[ring-offsets[i + 1]], as dense output indexes without duplicates</li>
+ * </ul>
+ * The offset and target columns are the CSR arrays of {@link RingGraph}, so a graph is copied from them without
+ * any lookups; they are the only part of the store that ends up on the heap.
+ */
+final class RingStore {
+
+    static final String PROPERTIES = "store.properties";
+    static final int VERSION = 2;
+
+    final int valueCount;
+    final int outputCount;
+    final int inputCount;
+    final int referenceCount;
+
+    private final Column values;
+    private final Column outputBases;
+    private final Column inputBases;
+    private final Column outputHeights;
+    private final Column inputHeights;
+    private final Column inputNumbers;
+    private final Column inputMixins;
+    private final Column ringOffsets;
+    private final Column ringTargets;
+
+    private RingStore(File directory, Properties properties) throws IOException {
+        int version = Integer.parseInt(properties.getProperty("version", "0"));
+        if (version != VERSION) {
+            throw new IOException("Unsupported ring store version " + version + " in " + directory);
+        }
+        valueCount = Integer.parseInt(properties.getProperty("values"));
+        outputCount = Integer.parseInt(properties.getProperty("outputs"));
+        inputCount = Integer.parseInt(properties.getProperty("inputs"));
+        referenceCount = Integer.parseInt(properties.getProperty("references"));
+
+        values = Column.read(directory, "values.i64", valueCount, 8);
+        outputBases = Column.read(directory, "output-bases.i32", valueCount + 1, 4);
+        inputBases = Column.read(directory, "input-bases.i32", valueCount + 1, 4);
+        outputHeights = Column.read(directory, "output-heights.i32", outputCount, 4);
+        inputHeights = Column.read(directory, "input-heights.i32", inputCount, 4);
+        inputNumbers = Column.read(directory, "input-numbers.i64", inputCount, 8);
+        inputMixins = Column.read(directory, "input-mixins.i32", inputCount, 4);
+        ringOffsets = Column.read(directory, "ring-offsets.i32", inputCount + 1, 4);
+        ringTargets = Column.read(directory, "ring-targets.i32", referenceCount, 4);
+    }
+
+    static boolean exists(File directory) {
+        return new File(directory, PROPERTIES).isFile();
+    }
+
+    static RingStore open(File directory) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(new File(directory, PROPERTIES).toPath(),
+                StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return new RingStore(directory, properties);
+    }
+
+    long value(int ordinal) {
+        return values.getLong(ordinal);
+    }
+
+    /**
+     * @return the ordinal of the given denomination, or {@link LongIntHashMap#MISSING} if there is none
+     */
+    int ordinal(long value) {
+        int low = 0;
+        int high = valueCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long current = values.getLong(mid);
+            if (current < value) {
+                low = mid + 1;
+            } else if (current > value) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return LongIntHashMap.MISSING;
+    }
+
+    int outputBase(int ordinal) {
+        return outputBases.getInt(ordinal);
+    }
+
+    int inputBase(int ordinal) {
+        return inputBases.getInt(ordinal);
+    }
+
+    int outputHeight(int output) {
+        return outputHeights.getInt(output);
+    }
+
+    int inputHeight(int input) {
+        return inputHeights.getInt(input);
+    }
+
+    long inputNumber(int input) {
+        return inputNumbers.getLong(input);
+    }
+
+    int inputMixin(int input) {
+        return inputMixins.getInt(input);
+    }
+
+    int ringOffset(int input) {
+        return ringOffsets.getInt(input);
+    }
+
+    int ringTarget(int reference) {
+        return ringTargets.getInt(reference);
+    }
+
+    /**
+     * @return the ordinal of the denomination of an input
+     */
+    int inputOrdinal(int input) {
+        int low = 0;
+        int high = valueCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (inputBases.getInt(mid) <= input) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copies the rings of one denomination into a graph whose input and output ids are the dense indexes of the
+     * store. Reference r of the graph is reference ringOffset(inputBase(ordinal)) + r of the store.
+     */
+    RingGraph ringGraph(int ordinal) {
+        return ringGraph(inputBase(ordinal), inputBase(ordinal + 1), outputBase(ordinal), outputBase(ordinal + 1));
+    }
+
+    /**
+     * Copies all rings into a graph whose input and output ids and dense indexes, and whose reference positions,
+     * are those of the store.
+     */
+    RingGraph ringGraph() {
+        return ringGraph(0, inputCount, 0, outputCount);
+    }
+
+    /**
+     * Copies the offset and target columns straight into the CSR arrays of the graph; the rings of the store are
+     * dense and free of duplicates already.
+     */
+    private RingGraph ringGraph(int fromInput, int toInput, int fromOutput, int toOutput) {
+        int base = ringOffset(fromInput);
+        int[] offsets = new int[toInput - fromInput + 1];
+        for (int i = fromInput; i < toInput; i++) {
+            offsets[i - fromInput + 1] = ringOffset(i + 1) - base;
+        }
+        int[] targets = new int[offsets[offsets.length - 1]];
+        for (int r = 0; r < targets.length; r++) {
+            targets[r] = ringTarget(base + r) - fromOutput;
+        }
+        return RingGraph.dense(fromInput, fromOutput, toOutput - fromOutput, offsets, targets);
+    }
+
+
+    /**
+     * Array of ints or longs in a memory-mapped file, split into chunks of 1 GB to get around the size limit of a
+     * single mapping.
+     */
+    static final class Column {
+
+        private static final int CHUNK_BITS = 30;
+        private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+        private final MappedByteBuffer[] chunks;
+
+        private Column(File file, long bytes, boolean writable) throws IOException {
+            chunks = new MappedByteBuffer[(int) ((bytes + CHUNK_MASK) >>> CHUNK_BITS)];
+            try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r")) {
+                if (writable) {
+                    raf.setLength(bytes);
+                } else if (raf.length() != bytes) {
+                    throw new IOException("Expected " + bytes + " bytes in " + file + ", found " + raf.length());
+                }
+                FileChannel channel = raf.getChannel();
+                for (int k = 0; k < chunks.length; k++) {
+                    long position = (long) k << CHUNK_BITS;
+                    chunks[k] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                            position, Math.min(bytes - position, 1L << CHUNK_BITS));
+                    chunks[k].order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+        }
+
+        static Column read(File directory, String name, long length, int width) throws IOException {
+            return new Column(new File(directory, name), length * width, false);
+        }
+
+        static Column create(File directory, String name, long length, int width) throws IOException {
+            return new Column(new File(directory, name), length * width, true);
+        }
+
+        int getInt(long index) {
+            long position = index << 2;
+            return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+        }
+
+        long getLong(long index) {
+            long position = index << 3;
+            return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+        }
+
+        void putInt(long index, int value) {
+            long position = index << 2;
+            chunks[(int) (position >>> CHUNK_BITS)].putInt((int) (position & CHUNK_MASK), value);
+        }
+
+        void putLong(long index, long value) {
+            long position = index << 3;
+            chunks[(int) (position >>> CHUNK_BITS)].putLong((int) (position & CHUNK_MASK), value);
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+    }
+}
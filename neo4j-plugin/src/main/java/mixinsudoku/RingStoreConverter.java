@@ -0,0 +1,300 @@
+package mixinsudoku;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Converts the CSV export of monero-to-csv.py into a {@link RingStore}, once, so that later runs do not have to
+ * parse the string ids again.
+ * <p>
+ * Reads outputs.csv, inputs.csv, input-output-refs.csv and, for the block heights, tx-blocks.csv, output-rels.csv
+ * and input-rels.csv. Transactions and inputs are expected to have the ids of the export script (tN and iN) and
+ * outputs the ids value-index. The arrays of the store are written through memory mappings; only a few ints per
+ * input and transaction are kept on the heap.
+ */
+public final class RingStoreConverter {
+
+    private final File csv;
+
+    private final LongIntHashMap valueOrdinals = new LongIntHashMap();
+    private long[] values;
+    private int[] outputBases;
+    private int[] inputBases;
+    private int[] transactionHeights = new int[1024];
+    private LongIntHashMap inputIndex;
+
+    private int nOutputs;
+    private int nInputs;
+    private int nReferences;
+
+    RingStoreConverter(File csv) {
+        this.csv = csv;
+    }
+
+    /**
+     * Writes the store into the given directory, replacing the files of an existing one.
+     */
+    void convert(File store) throws IOException {
+        Files.createDirectories(store.toPath());
+        Files.deleteIfExists(new File(store, RingStore.PROPERTIES).toPath());
+
+        readOutputs();
+        readTransactions();
+        writeOutputs(store);
+        writeInputs(store);
+        writeRings(store);
+
+        Properties properties = new Properties();
+        properties.setProperty("version", String.valueOf(RingStore.VERSION));
+        properties.setProperty("values", String.valueOf(values.length));
+        properties.setProperty("outputs", String.valueOf(nOutputs));
+        properties.setProperty("inputs", String.valueOf(nInputs));
+        properties.setProperty("references", String.valueOf(nReferences));
+        // written last, so that an interrupted conversion does not leave a store behind
+        try (Writer writer = Files.newBufferedWriter(new File(store, RingStore.PROPERTIES).toPath(),
+                StandardCharsets.UTF_8)) {
+            properties.store(writer, "Ring store converted from " + csv);
+        }
+    }
+
+    String summary() {
+        return values.length + " denominations, " + nOutputs + " outputs, " + nInputs + " inputs, " + nReferences +
+                " references";
+    }
+
+    private void readOutputs() throws IOException {
+        LongIntHashMap firstOrdinals = new LongIntHashMap();
+        long[] firstValues = new long[64];
+        int[] counts = new int[64];
+        try (BufferedReader reader = open("outputs.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(",");
+                long value = Long.parseLong(fields[1]);
+                int ordinal = firstOrdinals.get(value);
+                if (ordinal == LongIntHashMap.MISSING) {
+                    ordinal = firstOrdinals.size();
+                    if (ordinal == firstValues.length) {
+                        firstValues = Arrays.copyOf(firstValues, ordinal * 2);
+                        counts = Arrays.copyOf(counts, ordinal * 2);
+                    }
+                    firstValues[ordinal] = value;
+                    firstOrdinals.put(value, ordinal);
+                }
+                counts[ordinal] = Math.max(counts[ordinal], Integer.parseInt(fields[2]) + 1);
+            }
+        }
+
+        values = Arrays.copyOf(firstValues, firstOrdinals.size());
+        Arrays.sort(values);
+        outputBases = new int[values.length + 1];
+        for (int v = 0; v < values.length; v++) {
+            valueOrdinals.put(values[v], v);
+            outputBases[v + 1] = outputBases[v] + counts[firstOrdinals.get(values[v])];
+        }
+        nOutputs = outputBases[values.length];
+    }
+
+    private void readTransactions() throws IOException {
+        try (BufferedReader reader = open("tx-blocks.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comma = line.indexOf(',');
+                int transaction = Integer.parseInt(line.substring(1, comma));
+                if (transaction >= transactionHeights.length) {
+                    transactionHeights = Arrays.copyOf(transactionHeights,
+                            Math.max(transaction + 1, transactionHeights.length * 2));
+                }
+                transactionHeights[transaction] = Integer.parseInt(line.substring(comma + 1));
+            }
+        }
+    }
+
+    private void writeOutputs(File store) throws IOException {
+        RingStore.Column column = RingStore.Column.create(store, "values.i64", values.length, 8);
+        for (int v = 0; v < values.length; v++) {
+            column.putLong(v, values[v]);
+        }
+        column.force();
+        writeInts(store, "output-bases.i32", outputBases);
+
+        RingStore.Column heights = RingStore.Column.create(store, "output-heights.i32", nOutputs, 4);
+        try (BufferedReader reader = open("output-rels.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comma = line.indexOf(',');
+                heights.putInt(outputIndex(line.substring(comma + 1)),
+                        transactionHeights[Integer.parseInt(line.substring(1, comma))]);
+            }
+        }
+        heights.force();
+    }
+
+    private void writeInputs(File store) throws IOException {
+        // inputs are grouped by denomination and keep their order within
+        int[] rowOrdinals = new int[1024];
+        inputBases = new int[values.length + 1];
+        try (BufferedReader reader = open("inputs.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(",");
+                int ordinal = valueOrdinals.get(Long.parseLong(fields[1]));
+                if (ordinal == LongIntHashMap.MISSING) {
+                    throw new IllegalArgumentException("Input " + fields[0] + " of a value without outputs");
+                }
+                if (nInputs == rowOrdinals.length) {
+                    rowOrdinals = Arrays.copyOf(rowOrdinals, nInputs * 2);
+                }
+                rowOrdinals[nInputs] = ordinal;
+                inputBases[ordinal + 1] += 1;
+                nInputs += 1;
+            }
+        }
+        for (int v = 0; v < values.length; v++) {
+            inputBases[v + 1] += inputBases[v];
+        }
+        writeInts(store, "input-bases.i32", inputBases);
+
+        inputIndex = new LongIntHashMap(nInputs);
+        int[] next = Arrays.copyOf(inputBases, values.length);
+        RingStore.Column numbers = RingStore.Column.create(store, "input-numbers.i64", nInputs, 8);
+        RingStore.Column mixins = RingStore.Column.create(store, "input-mixins.i32", nInputs, 4);
+        try (BufferedReader reader = open("inputs.csv")) {
+            int row = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(",");
+                int input = next[rowOrdinals[row++]]++;
+                long number = Long.parseLong(fields[0].substring(1));
+                inputIndex.put(number, input);
+                numbers.putLong(input, number);
+                mixins.putInt(input, Integer.parseInt(fields[2]));
+            }
+        }
+        numbers.force();
+        mixins.force();
+
+        RingStore.Column heights = RingStore.Column.create(store, "input-heights.i32", nInputs, 4);
+        try (BufferedReader reader = open("input-rels.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comma = line.indexOf(',');
+                heights.putInt(input(line.substring(comma + 1)),
+                        transactionHeights[Integer.parseInt(line.substring(1, comma))]);
+            }
+        }
+        heights.force();
+    }
+
+    private void writeRings(File store) throws IOException {
+        int[] offsets = new int[nInputs + 1];
+        try (BufferedReader reader = open("input-output-refs.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                offsets[input(line.substring(0, line.indexOf(','))) + 1] += 1;
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < nInputs; i++) {
+            total += offsets[i + 1];
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("More than " + Integer.MAX_VALUE + " references");
+            }
+            offsets[i + 1] = (int) total;
+        }
+
+        // the rings of several inputs may be interleaved, so every reference is put directly into place
+        File rawFile = new File(store, "ring-targets.i32.tmp");
+        RingStore.Column raw = RingStore.Column.create(store, rawFile.getName(), total, 4);
+        int[] next = Arrays.copyOf(offsets, nInputs);
+        try (BufferedReader reader = open("input-output-refs.csv")) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comma = line.indexOf(',');
+                raw.putInt(next[input(line.substring(0, comma))]++, outputIndex(line.substring(comma + 1)));
+            }
+        }
+
+        // duplicate references of an input are dropped, so that readers can use the rings as they are
+        int[] distinctOffsets = new int[nInputs + 1];
+        for (int i = 0; i < nInputs; i++) {
+            distinctOffsets[i + 1] = distinctOffsets[i] + copyDistinct(raw, offsets[i], offsets[i + 1], null, 0);
+        }
+        nReferences = distinctOffsets[nInputs];
+        writeInts(store, "ring-offsets.i32", distinctOffsets);
+        RingStore.Column targets = RingStore.Column.create(store, "ring-targets.i32", nReferences, 4);
+        for (int i = 0; i < nInputs; i++) {
+            copyDistinct(raw, offsets[i], offsets[i + 1], targets, distinctOffsets[i]);
+        }
+        targets.force();
+        Files.delete(rawFile.toPath());
+    }
+
+    /**
+     * Copies the distinct targets of one ring to the given position of targets, or only counts them if targets is
+     * null.
+     *
+     * @return the number of distinct targets
+     */
+    private static int copyDistinct(RingStore.Column raw, int from, int to, RingStore.Column targets, int position) {
+        int n = 0;
+        for (int r = from; r < to; r++) {
+            int target = raw.getInt(r);
+            boolean seen = false;
+            for (int s = from; s < r && !seen; s++) {
+                seen = raw.getInt(s) == target;
+            }
+            if (!seen) {
+                if (targets != null) {
+                    targets.putInt(position + n, target);
+                }
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    private int outputIndex(String id) {
+        int dash = id.indexOf('-');
+        int ordinal = valueOrdinals.get(Long.parseLong(id.substring(0, dash)));
+        if (ordinal == LongIntHashMap.MISSING) {
+            throw new IllegalArgumentException("Unknown output " + id);
+        }
+        return outputBases[ordinal] + Integer.parseInt(id.substring(dash + 1));
+    }
+
+    private int input(String id) {
+        int input = inputIndex.get(Long.parseLong(id.substring(1)));
+        if (input == LongIntHashMap.MISSING) {
+            throw new IllegalArgumentException("Unknown input " + id);
+        }
+        return input;
+    }
+
+    private static void writeInts(File store, String name, int[] array) throws IOException {
+        RingStore.Column column = RingStore.Column.create(store, name, array.length, 4);
+        for (int k = 0; k < array.length; k++) {
+            column.putInt(k, array[k]);
+        }
+        column.force();
+    }
+
+    private BufferedReader open(String name) throws IOException {
+        return Files.newBufferedReader(new File(csv, name).toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Arguments: --csv (default csv-export/csv) and --store (default csv-export/store).
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = CommandLine.parseOrExit(
+                "RingStoreConverter [--csv <DIRECTORY>] [--store <DIRECTORY>]", args, "csv", "store");
+        RingStoreConverter converter = new RingStoreConverter(new File(arguments.getOrDefault("csv",
+                "csv-export/csv")));
+        File store = new File(arguments.getOrDefault("store", "csv-export/store"));
+        long start = System.currentTimeMillis();
+        converter.convert(store);
+        System.out.println(String.format("Wrote %s to %s in %.1f s.", converter.summary(), store,
+                (System.currentTimeMillis() - start) / 1000.0));
+    }
+}
@@ -1,21 +1,23 @@
 package mixinsudoku;
 
-import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
-import org.sat4j.core.VecInt;
-import org.sat4j.specs.ISolver;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
 import java.util.stream.Stream;
 
+import static org.neo4j.procedure.Mode.READ;
 import static org.neo4j.procedure.Mode.WRITE;
 
 
@@ -27,84 +29,187 @@ public class SATSudoku {
     @Context
     public Log log;
 
-    private static final String updateQuery = "MATCH (i:Input)-[r:REFERENCES]->(o:Output)" +
-            " WHERE ID(r) = {relId}" +
-            " SET o:UniqueSpend, o:SatSpend" +
-            " CREATE (i)-[:SPENDS]->(o)";
-
-
+    /**
+     * Solves all denominations except RingCT and yields one row per denomination.
+     * <p>
+     * The budget of every component can be set with the keys timeout (seconds, default 3600), conflicts (default 0,
+     * no limit), escalations (default 0), factor (default 4) and threshold (default 0.5), see {@link SolverBudget}.
+     * Deductions of components that run out of budget are written as well, and a later run continues with the rest.
+     * <p>
+     * If a cache directory is given, relative to the import directory of the server, the extracted rings of every
+     * denomination are kept there and reused as long as the denomination has not changed, see {@link ProblemCache}.
+     * The other SAT procedures take the same parameter.
+     * <p>
+     * With fromHeight and toHeight (exclusive, -1 for the most recent block), only the inputs of blocks in that
+     * range are solved, with the same sound but possibly incomplete deductions as the windows of sat.ringct. The
+     * other SAT procedures and matching take the same range.
+     * <p>
+     * All results are written by the worker threads in transactions of their own. Neo4j only returns the rows of a
+     * WRITE procedure once it has finished; mixinsudoku.stats shows the progress in the meantime.
+     */
     @Procedure(name = "mixinsudoku.sat.all", mode = WRITE)
-    public Stream<QueryOutput> sudokuAllSAT(@Name("nThreads") long nThreads) {
-
-        List<Long> denominations = getAllDenominations();
+    public Stream<SatOutput> sudokuAllSAT(@Name("nThreads") long nThreads,
+                                          @Name(value = "encoding", defaultValue = "auto") String encoding,
+                                          @Name(value = "budget", defaultValue = "{}") Map<String, Object> budget,
+                                          @Name(value = "cache", defaultValue = "") String cache,
+                                          @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                          @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        List<Denomination> catalog = getDenominationCatalog();
 
         // Remove RingCT as it is too computationally intensive
-        Long zero = 0L;
-        denominations.remove(zero);
+        catalog.removeIf(denomination -> denomination.value == 0);
+
+        SudokuScheduler scheduler = new SudokuScheduler(db, log, AtMostOne.Encoding.parse(encoding),
+                SolverBudget.parse(budget), ProblemCache.open(db, log, cache, fromHeight, toHeight));
+        return scheduler.solveDenominations(catalog, (int) nThreads).map(SatOutput::new);
+    }
 
-        ExecutorService executor = Executors.newFixedThreadPool((int) nThreads);
-        CompletionService<SudokuResult> completionService = new ExecutorCompletionService<>(executor);
 
-        // Add tasks to be processed
-        for (long value : denominations) {
-            completionService.submit(new SudokuSolver(db, value));
+    /**
+     * Solves RingCT (value 0) in windows of windowSize blocks, starting at fromHeight, and yields one row per window.
+     * Rings crossing a window boundary are only constrained within the window of their
+     * input, so deductions are sound but not necessarily complete.
+     */
+    @Procedure(name = "mixinsudoku.sat.ringct", mode = WRITE)
+    public Stream<PartitionOutput> sudokuRingCT(@Name("windowSize") long windowSize,
+                                                @Name("nThreads") long nThreads,
+                                                @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                                @Name(value = "encoding", defaultValue = "auto") String encoding,
+                                                @Name(value = "budget", defaultValue = "{}")
+                                                        Map<String, Object> budget) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize has to be positive.");
         }
-        log.info("Added " + denominations.size() + " tasks to the pool.");
-        executor.shutdown();
-
-        // Retrieve results
-        List<Integer> uniqueSpends = new ArrayList<>();
-        try {
-            while (!executor.isTerminated()) {
-                Future<SudokuResult> future = completionService.take();
-                SudokuResult result = future.get();
-                uniqueSpends.add(result.size());
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+        int toHeight;
+        try (Transaction tx = db.beginTx()) {
+            toHeight = RingGraphLoader.maxBlockHeight(db) + 1;
+            tx.success();
         }
-
-        return Stream.of(new QueryOutput("Added " + uniqueSpends.stream().mapToInt(Integer::intValue).sum() + " new spends."));
+        SudokuScheduler scheduler = new SudokuScheduler(db, log, AtMostOne.Encoding.parse(encoding),
+                SolverBudget.parse(budget), ProblemCache.open(db, log, ""));
+        return scheduler.solvePartitions(0, (int) fromHeight, Math.max((int) fromHeight, toHeight),
+                (int) windowSize, (int) nThreads);
     }
 
 
     @Procedure(name = "mixinsudoku.sat.single", mode = WRITE)
-    public Stream<QueryOutput> sudokuSAT(@Name("value") long value) {
-        SudokuSolver solver = new SudokuSolver(db, value);
-        SudokuResult result = solver.solve();
+    public Stream<QueryOutput> sudokuSAT(@Name("value") long value,
+                                         @Name(value = "encoding", defaultValue = "auto") String encoding,
+                                         @Name(value = "budget", defaultValue = "{}") Map<String, Object> budget,
+                                         @Name(value = "cache", defaultValue = "") String cache,
+                                         @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                         @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        ProblemCache problems = ProblemCache.open(db, log, cache, fromHeight, toHeight);
+        AtMostOne.Encoding atMostOne = AtMostOne.Encoding.parse(encoding);
+        SolverBudget solverBudget = SolverBudget.parse(budget);
+        SudokuResult result = BatchCommitter.runDetached(() -> {
+            List<SudokuResult> results = new ArrayList<>();
+            for (SudokuSolver solver : SudokuSolver.decompose(db, problems, value, atMostOne, solverBudget)) {
+                results.add(solver.solve());
+            }
+            return SudokuResult.combine(value, results);
+        });
         return Stream.of(new QueryOutput(result.printResult()));
     }
 
 
-    private List<Long> getAllDenominations() {
-        // retrieve all denominations with potential for deanonymization
-        Result rows = db.execute("MATCH (i:Input)" +
-                " WHERE NOT (i)-[:SPENDS]->()" +
-                " RETURN DISTINCT(i.value) as value");
-        List<Long> denominations = new ArrayList<>(1000);
+    /**
+     * Variant of sat.single that solves the components of a denomination in parallel and yields one row per
+     * component.
+     */
+    @Procedure(name = "mixinsudoku.sat.single.stream", mode = WRITE)
+    public Stream<SatOutput> sudokuSATStream(@Name("value") long value,
+                                             @Name(value = "nThreads", defaultValue = "1") long nThreads,
+                                             @Name(value = "encoding", defaultValue = "auto") String encoding,
+                                             @Name(value = "budget", defaultValue = "{}")
+                                                     Map<String, Object> budget,
+                                             @Name(value = "cache", defaultValue = "") String cache,
+                                             @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                             @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        SudokuScheduler scheduler = new SudokuScheduler(db, log, AtMostOne.Encoding.parse(encoding),
+                SolverBudget.parse(budget), ProblemCache.open(db, log, cache, fromHeight, toHeight));
+        return scheduler.solveComponents(value, (int) nThreads).map(SatOutput::new);
+    }
+
 
-        while (rows.hasNext()) {
-            Map<String, Object> row = rows.next();
-            denominations.add((Long) row.get("value"));
+    /**
+     * Decides the open references of one denomination, or of all of them including RingCT if no value is given,
+     * with a maximum matching instead of the SAT solver, see {@link Matching}. The results are the same literals as
+     * those of the SAT procedures and are written the same way, so the engines can be compared on the same rows.
+     * <p>
+     * Every denomination is matched as a whole by one worker thread; literals are written in batches of batchSize.
+     */
+    @Procedure(name = "mixinsudoku.matching", mode = WRITE)
+    public Stream<SatOutput> matching(@Name(value = "value", defaultValue = "-1") long value,
+                                      @Name(value = "nThreads", defaultValue = "1") long nThreads,
+                                      @Name(value = "batchSize", defaultValue = "10000") long batchSize,
+                                      @Name(value = "cache", defaultValue = "") String cache,
+                                      @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                      @Name(value = "toHeight", defaultValue = "-1") long toHeight) {
+        List<Denomination> catalog;
+        if (value == Metrics.ALL_VALUES) {
+            catalog = getDenominationCatalog();
+        } else {
+            catalog = new ArrayList<>();
+            catalog.add(new Denomination(value));
         }
-        return denominations;
+        SudokuScheduler scheduler = new SudokuScheduler(db, log, AtMostOne.Encoding.AUTO, SolverBudget.DEFAULT,
+                ProblemCache.open(db, log, cache, fromHeight, toHeight));
+        return scheduler.matchDenominations(catalog, (int) nThreads, (int) batchSize).map(SatOutput::new);
     }
 
 
-    private void writeUniqueSpendsToDatabase(VecInt solution) {
-        log.info("Writing " + solution.size() + " rels to database: " + solution);
-        for (int i = 0; i < solution.size(); i++) {
-            Map<String, Object> writeParams = new HashMap<>();
-            // decrement ID by 1 again
-            writeParams.put("relId", solution.get(i) - 1);
-            db.execute(updateQuery, writeParams);
+    /**
+     * Writes the SAT problems of a denomination to the given directory in DIMACS format, one file per problem as
+     * sat.single would solve it, so that external solvers can be benchmarked on the same instances. The directory
+     * is relative to the import directory of the server, see {@link PluginDirectory}. With fromHeight and toHeight,
+     * only the problems of the inputs of those blocks are written, like sat.single solves them, and the range is
+     * part of the file names. The native encoding has no clauses and cannot be exported.
+     */
+    @Procedure(name = "mixinsudoku.sat.dimacs", mode = READ)
+    public Stream<DimacsOutput> exportDimacs(@Name("value") long value,
+                                             @Name("directory") String directory,
+                                             @Name(value = "encoding", defaultValue = "auto") String encoding,
+                                             @Name(value = "cache", defaultValue = "") String cache,
+                                             @Name(value = "fromHeight", defaultValue = "0") long fromHeight,
+                                             @Name(value = "toHeight", defaultValue = "-1") long toHeight)
+            throws IOException {
+        AtMostOne.Encoding atMostOne = AtMostOne.Encoding.parse(encoding);
+        if (atMostOne == AtMostOne.Encoding.NATIVE) {
+            throw new IllegalArgumentException("The native encoding cannot be written as DIMACS.");
+        }
+        File target = PluginDirectory.resolve(db, directory);
+        List<DimacsOutput> outputs = new ArrayList<>();
+        List<SudokuSolver> solvers = SudokuSolver.decompose(db,
+                ProblemCache.open(db, log, cache, fromHeight, toHeight), value, atMostOne, SolverBudget.DEFAULT);
+        String name = RingGraphLoader.isAllHeights((int) fromHeight, (int) toHeight) ? String.valueOf(value) :
+                value + "@" + fromHeight + "-" + toHeight;
+        for (int k = 0; k < solvers.size(); k++) {
+            File file = new File(target, name + "-" + k + ".cnf");
+            try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                long[] size = solvers.get(k).writeDimacs(writer);
+                outputs.add(new DimacsOutput(file.getPath(), solvers.get(k).inputCount(), size[0], size[1]));
+            }
         }
+        return outputs.stream();
     }
 
 
-    void logSolverInformation(ISolver solver, long value) {
-        log.info("SAT problem for value " + value +
-                " currently has " + solver.nVars() + " variables" +
-                " and " + solver.nConstraints() + " constraints.");
+    /**
+     * Lists all denominations with potential for deanonymization together with their estimated cost,
+     * in the order in which sat.all schedules them.
+     */
+    @Procedure(name = "mixinsudoku.sat.catalog", mode = READ)
+    public Stream<Denomination> denominationCatalog() {
+        return getDenominationCatalog().stream();
+    }
+
+
+    private List<Denomination> getDenominationCatalog() {
+        try (Transaction tx = db.beginTx()) {
+            List<Denomination> catalog = Denomination.catalog(db);
+            tx.success();
+            return catalog;
+        }
     }
 }
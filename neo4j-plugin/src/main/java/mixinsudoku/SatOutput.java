@@ -0,0 +1,47 @@
+package mixinsudoku;
+
+
+/**
+ * One row of the SAT procedures, describing a finished denomination or component.
+ */
+public class SatOutput {
+
+    public long value;
+    public long newSpends;
+    public long removedReferences;
+    public long components;
+    public long variables;
+    public long clauses;
+    public double estimatedCost;
+
+    /**
+     * Wall time in milliseconds.
+     */
+    public long solveTime;
+
+    /**
+     * References that had not been examined yet when a component ran out of budget. newSpends and removedReferences
+     * are proven either way.
+     */
+    public long openReferences;
+    public long escalations;
+
+    /**
+     * One of solved, unfinished or error.
+     */
+    public String status;
+
+    SatOutput(SudokuResult result) {
+        this.value = result.getValue();
+        this.newSpends = result.spends();
+        this.removedReferences = result.removedReferences();
+        this.components = result.getComponents();
+        this.variables = result.getVariables();
+        this.clauses = result.getClauses();
+        this.estimatedCost = result.getEstimatedCost();
+        this.solveTime = result.getDuration();
+        this.openReferences = result.getOpenReferences();
+        this.escalations = result.getEscalations();
+        this.status = result.getStatus().name().toLowerCase();
+    }
+}
@@ -0,0 +1,83 @@
+package mixinsudoku;
+
+import java.util.Map;
+
+
+/**
+ * Limits the time and the sat4j conflicts a single problem may spend on its backbone.
+ * <p>
+ * A problem that runs out of budget keeps the literals it has proven so far. If at least a fraction threshold of
+ * its references is decided by then, the budget is multiplied by factor and the backbone continues where it stopped,
+ * at most escalations times. The total time a problem may take is therefore timeout * (1 + factor + ... +
+ * factor^escalations); by default escalations is 0, so it is the timeout of one hour.
+ */
+final class SolverBudget {
+
+    static final SolverBudget DEFAULT = new SolverBudget(3600 * 1000L, 0, 0, 4, 0.5);
+
+    /**
+     * Wall time in milliseconds.
+     */
+    final long timeout;
+    /**
+     * sat4j conflicts, or 0 for no limit.
+     */
+    final long conflicts;
+    final int escalations;
+    final double factor;
+    final double threshold;
+
+    SolverBudget(long timeout, long conflicts, int escalations, double factor, double threshold) {
+        if (timeout <= 0 || conflicts < 0 || escalations < 0 || factor < 1 || threshold < 0 || threshold > 1) {
+            throw new IllegalArgumentException("Invalid solver budget: timeout " + timeout + " ms, conflicts " +
+                    conflicts + ", escalations " + escalations + ", factor " + factor + ", threshold " +
+                    threshold + ".");
+        }
+        this.timeout = timeout;
+        this.conflicts = conflicts;
+        this.escalations = escalations;
+        this.factor = factor;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Reads a budget from a procedure parameter with the optional keys timeout (seconds), conflicts, escalations,
+     * factor and threshold. Missing keys keep their default.
+     */
+    static SolverBudget parse(Map<String, Object> config) {
+        for (String key : config.keySet()) {
+            if (!key.matches("timeout|conflicts|escalations|factor|threshold")) {
+                throw new IllegalArgumentException("Unknown solver budget " + key + ".");
+            }
+        }
+        return new SolverBudget(
+                (long) (number(config, "timeout", DEFAULT.timeout / 1000.0) * 1000),
+                (long) number(config, "conflicts", DEFAULT.conflicts),
+                (int) number(config, "escalations", DEFAULT.escalations),
+                number(config, "factor", DEFAULT.factor),
+                number(config, "threshold", DEFAULT.threshold));
+    }
+
+    private static double number(Map<String, Object> config, String key, double defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Solver budget " + key + " has to be a number.");
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * @param progress the fraction of references that are decided
+     */
+    boolean shouldEscalate(double progress) {
+        return escalations > 0 && progress >= threshold;
+    }
+
+    SolverBudget escalate() {
+        return new SolverBudget((long) Math.min(Long.MAX_VALUE / 2, timeout * factor),
+                (long) Math.min(Long.MAX_VALUE / 2, conflicts * factor), escalations - 1, factor, threshold);
+    }
+}
@@ -0,0 +1,283 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+
+/**
+ * Aggregates the age of every reference and the position of every known spend in its ring, for the age-based
+ * analyses of the paper, without sending a row per reference to the client.
+ * <ul>
+ * <li>The age of a reference is the number of blocks between the block of its output and the block of its input.
+ * References are counted per year of the input's block, mixin, denomination, kind (the known spend of the input, a
+ * decoy of an input with a known spend, or a reference of an input without one) and age bucket.</li>
+ * <li>The rank of a known spend is the number of outputs of its ring with a higher index, so 0 means that guessing
+ * the newest output finds it. Inputs with mixin 0 have no choice and are left out.</li>
+ * </ul>
+ * Blocks are split into contiguous ranges of heights, several per thread, and every task counts into maps of its
+ * own that are merged at the end. The heights stored by {@link HeightDenormalizer} are used if present; otherwise the
+ * block of an output is found through its transaction.
+ */
+final class SpendAges {
+
+    static final String SPEND = "spend";
+    static final String DECOY = "decoy";
+    static final String UNKNOWN = "unknown";
+
+    private static final int RANGES_PER_THREAD = 4;
+    private static final Comparator<Cell> ORDER = Comparator
+            .comparing((Cell cell) -> cell.year, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingLong(cell -> cell.value)
+            .thenComparingLong(cell -> cell.mixin)
+            .thenComparing(cell -> cell.kind, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingLong(cell -> cell.bucket);
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final int nThreads;
+    private final int bucket;
+    private final long minAnonset;
+    private final int fromHeight;
+    private final int toHeight;
+
+    private final Map<Cell, Long> ages = new HashMap<>();
+    private final Map<Cell, Long> ranks = new HashMap<>();
+
+    /**
+     * @param bucket     the width of the age buckets in blocks, or 0 to only count ranks
+     * @param minAnonset only inputs with at least this anonset
+     * @param toHeight   only inputs of blocks below this height, or {@link RingGraphLoader#LATEST}
+     */
+    SpendAges(GraphDatabaseService db, Log log, int nThreads, int bucket, long minAnonset, int fromHeight,
+              int toHeight) {
+        this.db = db;
+        this.log = log;
+        this.nThreads = nThreads;
+        this.bucket = bucket;
+        this.minAnonset = minAnonset;
+        this.fromHeight = Math.max(0, fromHeight);
+        this.toHeight = toHeight;
+    }
+
+    SpendAges run() {
+        long start = System.currentTimeMillis();
+        int to;
+        try (Transaction tx = db.beginTx()) {
+            to = RingGraphLoader.resolveToHeight(db, toHeight);
+            tx.success();
+        }
+        int nBlocks = Math.max(0, to - fromHeight);
+        int nRanges = Math.max(1, Math.min(nThreads * RANGES_PER_THREAD, nBlocks));
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int k = 0; k < nRanges; k++) {
+                int from = fromHeight + (int) ((long) nBlocks * k / nRanges);
+                int until = fromHeight + (int) ((long) nBlocks * (k + 1) / nRanges);
+                futures.add(executor.submit(() -> count(from, until)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        log.info("Counted the references of blocks " + fromHeight + " to " + (to - 1) + " with " + nThreads +
+                " threads in " + (System.currentTimeMillis() - start) + " ms.");
+        return this;
+    }
+
+    Stream<AgeOutput> ages() {
+        return sorted(ages).map(entry -> new AgeOutput(entry.getKey().year, entry.getKey().mixin,
+                entry.getKey().value, entry.getKey().kind, entry.getKey().bucket, entry.getValue()));
+    }
+
+    Stream<RankOutput> ranks() {
+        return sorted(ranks).map(entry -> new RankOutput(entry.getKey().year, entry.getKey().mixin,
+                entry.getKey().value, entry.getKey().bucket, entry.getValue()));
+    }
+
+    /**
+     * @return per year, mixin and denomination, how often the newest output of a ring is its known spend
+     */
+    Stream<NewestOutput> newest() {
+        Map<Cell, long[]> counts = new TreeMap<>(ORDER);
+        ranks.forEach((cell, n) -> {
+            long[] count = counts.computeIfAbsent(new Cell(cell.year, cell.mixin, cell.value, null, 0),
+                    key -> new long[2]);
+            count[0] += n;
+            if (cell.bucket == 0) {
+                count[1] += n;
+            }
+        });
+        return counts.entrySet().stream().map(entry -> new NewestOutput(entry.getKey().year, entry.getKey().mixin,
+                entry.getKey().value, entry.getValue()[0], entry.getValue()[1]));
+    }
+
+    private static Stream<Map.Entry<Cell, Long>> sorted(Map<Cell, Long> counts) {
+        Map<Cell, Long> sorted = new TreeMap<>(ORDER);
+        sorted.putAll(counts);
+        return sorted.entrySet().stream();
+    }
+
+    private void count(int from, int to) {
+        Map<Cell, Long> rangeAges = new HashMap<>();
+        Map<Cell, Long> rangeRanks = new HashMap<>();
+        try (Transaction tx = db.beginTx()) {
+            for (int height = from; height < to; height++) {
+                Node block = db.findNode(RingGraphLoader.BLOCK, HeightDenormalizer.HEIGHT, height);
+                if (block == null) {
+                    continue;
+                }
+                Long year = year(block);
+                for (Relationship inBlock : block.getRelationships(RingGraphLoader.IN_BLOCK, Direction.INCOMING)) {
+                    for (Relationship txInput : inBlock.getStartNode().getRelationships(RingGraphLoader.TX_INPUT,
+                            Direction.OUTGOING)) {
+                        count(txInput.getEndNode(), height, year, rangeAges, rangeRanks);
+                    }
+                }
+            }
+            tx.success();
+        }
+        synchronized (this) {
+            rangeAges.forEach((cell, n) -> ages.merge(cell, n, Long::sum));
+            rangeRanks.forEach((cell, n) -> ranks.merge(cell, n, Long::sum));
+        }
+    }
+
+    private void count(Node input, int height, Long year, Map<Cell, Long> rangeAges, Map<Cell, Long> rangeRanks) {
+        if (minAnonset > 0 && longProperty(input, "anonset", -1) < minAnonset) {
+            return;
+        }
+        List<Node> ring = new ArrayList<>();
+        for (Relationship ref : input.getRelationships(RingGraphLoader.REFERENCES, Direction.OUTGOING)) {
+            ring.add(ref.getEndNode());
+        }
+        if (ring.isEmpty()) {
+            return;
+        }
+        long mixin = ring.size() - 1;
+        long value = longProperty(input, "value", 0);
+        Node spend = spend(input);
+
+        if (bucket > 0) {
+            for (Node output : ring) {
+                int outputHeight = outputHeight(output);
+                if (outputHeight < 0) {
+                    continue;
+                }
+                String kind = spend == null ? UNKNOWN : output.equals(spend) ? SPEND : DECOY;
+                long age = Math.max(0, height - outputHeight) / bucket * bucket;
+                rangeAges.merge(new Cell(year, mixin, value, kind, age), 1L, Long::sum);
+            }
+        }
+
+        long spendIndex = spend == null ? -1 : longProperty(spend, "index", -1);
+        if (mixin > 0 && spendIndex >= 0) {
+            long rank = 0;
+            for (Node output : ring) {
+                if (longProperty(output, "index", -1) > spendIndex) {
+                    rank += 1;
+                }
+            }
+            rangeRanks.merge(new Cell(year, mixin, value, null, rank), 1L, Long::sum);
+        }
+    }
+
+    /**
+     * @return the output spent by an input, found by the sudoku or the SAT stage, or null if it is not known
+     */
+    private static Node spend(Node input) {
+        Iterator<Relationship> spends = input.getRelationships(Direction.OUTGOING, RingGraphLoader.SPENDS,
+                RingGraphLoader.SAT_SPEND).iterator();
+        return spends.hasNext() ? spends.next().getEndNode() : null;
+    }
+
+    private static int outputHeight(Node output) {
+        Object height = output.getProperty(HeightDenormalizer.HEIGHT, null);
+        if (height instanceof Number) {
+            return ((Number) height).intValue();
+        }
+        return RingGraphLoader.blockHeight(output, RingGraphLoader.TX_OUTPUT);
+    }
+
+    /**
+     * @return the UTC year of the timestamp of a block, or null if it has none
+     */
+    private static Long year(Node block) {
+        Object timestamp = block.getProperty(HeightDenormalizer.TIMESTAMP, null);
+        if (!(timestamp instanceof Number)) {
+            return null;
+        }
+        return (long) Instant.ofEpochSecond(((Number) timestamp).longValue()).atZone(ZoneOffset.UTC).getYear();
+    }
+
+    private static long longProperty(Node node, String key, long defaultValue) {
+        Object value = node.getProperty(key, null);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    /**
+     * One cell of a histogram; bucket is the age bucket or the rank, kind is null for ranks.
+     */
+    private static final class Cell {
+        final Long year;
+        final long mixin;
+        final long value;
+        final String kind;
+        final long bucket;
+
+        Cell(Long year, long mixin, long value, String kind, long bucket) {
+            this.year = year;
+            this.mixin = mixin;
+            this.value = value;
+            this.kind = kind;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Cell)) {
+                return false;
+            }
+            Cell cell = (Cell) o;
+            return mixin == cell.mixin && value == cell.value && bucket == cell.bucket &&
+                    Objects.equals(year, cell.year) && Objects.equals(kind, cell.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(year, mixin, value, kind, bucket);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package mixinsudoku;
+
+import java.util.Map;
+
+
+/**
+ * JMX view of the {@link Metrics}.
+ */
+public interface StatsMXBean {
+
+    /**
+     * @return every counter, named stage.value.counter, or stage.counter for stages that cover all denominations
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return the number of stages of problems that are being processed right now
+     */
+    long getActiveStages();
+
+    void reset();
+}
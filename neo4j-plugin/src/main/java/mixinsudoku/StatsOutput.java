@@ -0,0 +1,66 @@
+package mixinsudoku;
+
+
+/**
+ * One row of the stats procedure, with the counters of one stage and denomination.
+ */
+public class StatsOutput {
+
+    /**
+     * One of extract, closed-sets, clauses, matching, solve, write, zeromixin, heights, effective-ring-size or
+     * chain-reaction.
+     */
+    public String stage;
+
+    /**
+     * The denomination, or null for stages that cover all of them.
+     */
+    public Long value;
+
+    /**
+     * Problems in this stage right now.
+     */
+    public long active;
+    public long runs;
+
+    /**
+     * Wall time in milliseconds, summed over all problems.
+     */
+    public long wallTime;
+
+    /**
+     * Inputs and references loaded from the database.
+     */
+    public long rows;
+    public long variables;
+    public long clauses;
+    public long conflicts;
+    public long decisions;
+
+    /**
+     * Search (re)starts of sat4j.
+     */
+    public long restarts;
+
+    /**
+     * Models found by sat4j, or closed sets found in the closed-sets stage.
+     */
+    public long models;
+    public long relationships;
+
+    StatsOutput(Metrics.Stage stage) {
+        this.stage = stage.name;
+        this.value = stage.value == Metrics.ALL_VALUES ? null : stage.value;
+        this.active = stage.active.get();
+        this.runs = stage.runs.sum();
+        this.wallTime = stage.wallTime.sum();
+        this.rows = stage.rows.sum();
+        this.variables = stage.variables.sum();
+        this.clauses = stage.clauses.sum();
+        this.conflicts = stage.conflicts.sum();
+        this.decisions = stage.decisions.sum();
+        this.restarts = stage.restarts.sum();
+        this.models = stage.models.sum();
+        this.relationships = stage.relationships.sum();
+    }
+}
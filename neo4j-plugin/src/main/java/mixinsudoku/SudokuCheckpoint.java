@@ -0,0 +1,50 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+
+
+/**
+ * Progress of the Mixin Sudoku, stored in a single node of the database.
+ * <p>
+ * All inputs of blocks up to height have been examined. The frontier holds the node ids of outputs that have been
+ * found to be spent since, but whose rings have not been examined again yet.
+ * Must be used from within a transaction.
+ */
+final class SudokuCheckpoint {
+
+    static final Label CHECKPOINT = Label.label("SudokuCheckpoint");
+
+    private static final long[] EMPTY = new long[0];
+
+    final int height;
+    final long[] frontier;
+
+    SudokuCheckpoint(int height, long[] frontier) {
+        this.height = height;
+        this.frontier = frontier;
+    }
+
+    /**
+     * @return the stored checkpoint, or one before the first block if there is none
+     */
+    static SudokuCheckpoint read(GraphDatabaseService db) {
+        Node node = db.findNode(CHECKPOINT, "name", "sudoku");
+        if (node == null) {
+            return new SudokuCheckpoint(-1, EMPTY);
+        }
+        return new SudokuCheckpoint(((Number) node.getProperty("height")).intValue(),
+                (long[]) node.getProperty("frontier", EMPTY));
+    }
+
+    static void write(GraphDatabaseService db, int height, long[] frontier) {
+        Node node = db.findNode(CHECKPOINT, "name", "sudoku");
+        if (node == null) {
+            node = db.createNode(CHECKPOINT);
+            node.setProperty("name", "sudoku");
+        }
+        node.setProperty("height", (long) height);
+        node.setProperty("frontier", frontier);
+    }
+}
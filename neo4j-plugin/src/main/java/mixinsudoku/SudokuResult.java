@@ -3,34 +3,160 @@ package mixinsudoku;
 
 import org.sat4j.core.VecInt;
 
+import java.util.List;
+
 public class SudokuResult {
 
+    /**
+     * An unfinished problem ran out of budget: its literals are proven, but more may follow. A problem without a
+     * single valid assignment ends with an error and proves nothing.
+     */
+    enum Status {
+        SOLVED, UNFINISHED, ERROR;
+
+        static Status worst(Status a, Status b) {
+            return a.ordinal() >= b.ordinal() ? a : b;
+        }
+    }
+
     private final long value;
-    private final VecInt relationshipIds;
+    /**
+     * Proven literals: the positive variable of every new spend, the negative variable of every removed reference.
+     */
+    private final VecInt literals;
     private boolean isAnalyzed = false;
     private int spends = 0;
     private int falseRefs = 0;
+    private double estimatedCost = 0;
+    private long duration = 0;
+    private Status status = Status.SOLVED;
+    private long variables = 0;
+    private long clauses = 0;
+    private int components = 1;
+    private long openReferences = 0;
+    private int escalations = 0;
 
-    SudokuResult(long value, VecInt relationshipIds) {
+    SudokuResult(long value, VecInt literals) {
         this.value = value;
-        this.relationshipIds = relationshipIds;
+        this.literals = literals;
+    }
+
+    /**
+     * Combines the results of the independent components of one denomination.
+     */
+    static SudokuResult combine(long value, List<SudokuResult> results) {
+        VecInt literals = new VecInt();
+        for (SudokuResult result : results) {
+            literals.pushAll(result.literals);
+        }
+        SudokuResult combined = new SudokuResult(value, literals);
+        combined.components = 0;
+        for (SudokuResult result : results) {
+            combined.status = Status.worst(combined.status, result.status);
+            combined.variables += result.variables;
+            combined.clauses += result.clauses;
+            combined.duration += result.duration;
+            combined.components += result.components;
+            combined.openReferences += result.openReferences;
+            combined.escalations += result.escalations;
+        }
+        return combined;
+    }
+
+    /**
+     * @return an empty result for a problem that could not be solved because of an error
+     */
+    static SudokuResult failed(long value) {
+        SudokuResult result = new SudokuResult(value, new VecInt());
+        result.status = Status.ERROR;
+        return result;
     }
 
     public long getValue() {
         return value;
     }
 
-    VecInt getRelationshipIds() {
-        return relationshipIds;
+    void setSchedule(double estimatedCost, long duration) {
+        this.estimatedCost = estimatedCost;
+        this.duration = duration;
+    }
+
+    double getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    /**
+     * @return the wall time in milliseconds it took to solve the problem
+     */
+    long getDuration() {
+        return duration;
+    }
+
+    void setStatistics(Status status, long variables, long clauses, long duration) {
+        this.status = status;
+        this.variables = variables;
+        this.clauses = clauses;
+        this.duration = duration;
+    }
+
+    /**
+     * @param openReferences references of an unfinished problem that are neither proven nor ruled out
+     * @param escalations    the number of times the budget was raised
+     */
+    void setProgress(long openReferences, int escalations) {
+        this.openReferences = openReferences;
+        this.escalations = escalations;
+    }
+
+    long getOpenReferences() {
+        return openReferences;
+    }
+
+    int getEscalations() {
+        return escalations;
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
+    long getVariables() {
+        return variables;
+    }
+
+    long getClauses() {
+        return clauses;
+    }
+
+    int getComponents() {
+        return components;
+    }
+
+    VecInt getLiterals() {
+        return literals;
     }
 
     int size() {
-        return this.relationshipIds.size();
+        return this.literals.size();
+    }
+
+    int spends() {
+        if (!isAnalyzed) {
+            doAnalyze();
+        }
+        return spends;
+    }
+
+    int removedReferences() {
+        if (!isAnalyzed) {
+            doAnalyze();
+        }
+        return falseRefs;
     }
 
     private void doAnalyze() {
-        for(int i = 0; i < relationshipIds.size(); i++) {
-            if(relationshipIds.get(i) > 0) {
+        for(int i = 0; i < literals.size(); i++) {
+            if(literals.get(i) > 0) {
                 spends += 1;
             } else {
                 falseRefs += 1;
@@ -43,6 +169,7 @@ public class SudokuResult {
         if(!isAnalyzed) {
             doAnalyze();
         }
-        return "Value " + value + ": " + spends + " new unique spends, " + falseRefs + " removed references.";
+        return "Value " + value + ": " + spends + " new unique spends, " + falseRefs + " removed references" +
+                (status == Status.UNFINISHED ? ", unfinished with " + openReferences + " open references." : ".");
     }
 }
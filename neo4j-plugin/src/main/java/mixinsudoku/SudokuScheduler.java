@@ -0,0 +1,366 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.sat4j.core.VecInt;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Schedules the SAT stage, or the matching engine, of many denominations on a work-stealing pool.
+ * <p>
+ * Denominations are submitted in the order of the catalog, i.e. most expensive first, so that the large ones do not
+ * end up as the tail of a run. Each denomination task splits its problem into components and forks them as
+ * subtasks, which idle workers can steal.
+ * <p>
+ * Results are handed out as a stream in the order in which they finish. Closing the stream early stops the pool.
+ */
+final class SudokuScheduler {
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final AtMostOne.Encoding encoding;
+    private final SolverBudget budget;
+    private final ProblemCache cache;
+
+    SudokuScheduler(GraphDatabaseService db, Log log, AtMostOne.Encoding encoding, SolverBudget budget,
+                    ProblemCache cache) {
+        this.db = db;
+        this.log = log;
+        this.encoding = encoding;
+        this.budget = budget;
+        this.cache = cache;
+    }
+
+    /**
+     * Solves all given denominations, one result per denomination.
+     */
+    Stream<SudokuResult> solveDenominations(List<Denomination> catalog, int nThreads) {
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        BlockingQueue<SudokuResult> finished = new LinkedBlockingQueue<>();
+        for (Denomination denomination : catalog) {
+            pool.execute(new DenominationTask(denomination, finished));
+        }
+        log.info("Added " + catalog.size() + " denomination tasks to the pool.");
+        return stream(pool, finished, catalog.size());
+    }
+
+    /**
+     * Decides all given denominations with {@link Matching} instead of the solver, one result per denomination.
+     * Each denomination is loaded and matched as a whole, including RingCT, and its literals are written in
+     * batches of batchSize.
+     */
+    Stream<SudokuResult> matchDenominations(List<Denomination> catalog, int nThreads, int batchSize) {
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        BlockingQueue<SudokuResult> finished = new LinkedBlockingQueue<>();
+        for (Denomination denomination : catalog) {
+            pool.execute(new MatchingTask(denomination, batchSize, finished));
+        }
+        log.info("Added " + catalog.size() + " matching tasks to the pool.");
+        return stream(pool, finished, catalog.size());
+    }
+
+    /**
+     * Solves the components of a single denomination, one result per component.
+     */
+    Stream<SudokuResult> solveComponents(long value, int nThreads) {
+        List<SudokuSolver> solvers = SudokuSolver.decompose(db, cache, value, encoding, budget);
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        BlockingQueue<SudokuResult> finished = new LinkedBlockingQueue<>();
+        for (SudokuSolver solver : solvers) {
+            pool.execute(new ComponentTask(value, solver, finished));
+        }
+        log.info("Added " + solvers.size() + " component tasks of value " + value + " to the pool.");
+        return stream(pool, finished, solvers.size());
+    }
+
+    /**
+     * Solves the inputs of one denomination window by window, one result per window of block heights.
+     * <p>
+     * Each window only contains the inputs of its blocks, and constraints shared with inputs of other windows are
+     * dropped. Every model of the full problem is still a model of a window, so all deductions remain valid, but
+     * some may be missed. At most nThreads windows are loaded at the same time, which bounds the memory usage.
+     */
+    Stream<PartitionOutput> solvePartitions(long value, int fromHeight, int toHeight, int windowSize,
+                                            int nThreads) {
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        BlockingQueue<PartitionOutput> finished = new LinkedBlockingQueue<>();
+        int nWindows = (toHeight - fromHeight + windowSize - 1) / windowSize;
+
+        Iterator<PartitionOutput> iterator = new Iterator<PartitionOutput>() {
+            private int submitted = 0;
+            private int taken = 0;
+
+            @Override
+            public boolean hasNext() {
+                return taken < nWindows;
+            }
+
+            @Override
+            public PartitionOutput next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                while (submitted < nWindows && submitted - taken < nThreads) {
+                    int from = fromHeight + submitted * windowSize;
+                    pool.execute(new WindowTask(value, from, Math.min(toHeight, from + windowSize), finished));
+                    submitted += 1;
+                }
+                PartitionOutput output = take(pool, finished);
+                taken += 1;
+                if (taken == nWindows) {
+                    pool.shutdown();
+                }
+                return output;
+            }
+        };
+        log.info("Solving value " + value + " in " + nWindows + " windows of " + windowSize + " blocks.");
+        return StreamSupport.stream(Spliterators.spliterator(iterator, nWindows, Spliterator.ORDERED), false)
+                .onClose(pool::shutdownNow);
+    }
+
+    private static <T> Stream<T> stream(ForkJoinPool pool, BlockingQueue<T> finished, int nResults) {
+        Iterator<T> iterator = new Iterator<T>() {
+            private int taken = 0;
+
+            @Override
+            public boolean hasNext() {
+                return taken < nResults;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T result = take(pool, finished);
+                taken += 1;
+                if (taken == nResults) {
+                    pool.shutdown();
+                }
+                return result;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliterator(iterator, nResults, Spliterator.ORDERED), false)
+                .onClose(pool::shutdownNow);
+    }
+
+    private static <T> T take(ForkJoinPool pool, BlockingQueue<T> finished) {
+        try {
+            return finished.take();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for SAT results.", e);
+        }
+    }
+
+    private List<SudokuResult> solveAll(long value, List<SudokuSolver> solvers) {
+        List<ComponentTask> components = new ArrayList<>();
+        for (SudokuSolver solver : solvers) {
+            components.add(new ComponentTask(value, solver, null));
+        }
+        ForkJoinTask.invokeAll(components);
+
+        List<SudokuResult> results = new ArrayList<>(components.size());
+        for (ComponentTask component : components) {
+            results.add(component.join());
+        }
+        return results;
+    }
+
+    private class DenominationTask extends RecursiveTask<SudokuResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Denomination denomination;
+        private final BlockingQueue<SudokuResult> finished;
+
+        DenominationTask(Denomination denomination, BlockingQueue<SudokuResult> finished) {
+            this.denomination = denomination;
+            this.finished = finished;
+        }
+
+        @Override
+        protected SudokuResult compute() {
+            long start = System.currentTimeMillis();
+            SudokuResult result;
+            try {
+                List<SudokuSolver> solvers = SudokuSolver.decompose(db, cache, denomination.value, encoding,
+                        budget);
+                result = SudokuResult.combine(denomination.value, solveAll(denomination.value, solvers));
+            } catch (RuntimeException e) {
+                log.error("Error while solving value " + denomination.value + ".", e);
+                result = SudokuResult.failed(denomination.value);
+            }
+            result.setSchedule(denomination.estimatedCost, System.currentTimeMillis() - start);
+            log.info("Value " + denomination.value + " with estimated cost " + denomination.estimatedCost +
+                    " and " + result.getComponents() + " components took " + result.getDuration() + " ms.");
+            finished.add(result);
+            return result;
+        }
+    }
+
+    private class MatchingTask extends RecursiveTask<SudokuResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Denomination denomination;
+        private final int batchSize;
+        private final BlockingQueue<SudokuResult> finished;
+
+        MatchingTask(Denomination denomination, int batchSize, BlockingQueue<SudokuResult> finished) {
+            this.denomination = denomination;
+            this.batchSize = batchSize;
+            this.finished = finished;
+        }
+
+        @Override
+        protected SudokuResult compute() {
+            long value = denomination.value;
+            long start = System.currentTimeMillis();
+            SudokuResult result;
+            try {
+                RingGraph graph = cache.loadDenomination(value);
+                result = new SudokuResult(value, match(value, graph));
+                write(value, graph, result.getLiterals());
+            } catch (RuntimeException e) {
+                log.error("Error while matching value " + value + ".", e);
+                result = SudokuResult.failed(value);
+            }
+            result.setSchedule(denomination.estimatedCost, System.currentTimeMillis() - start);
+            log.info("Matching value " + value + " found " + result.spends() + " spends and " +
+                    result.removedReferences() + " impossible references in " + result.getDuration() + " ms.");
+            finished.add(result);
+            return result;
+        }
+
+        private VecInt match(long value, RingGraph graph) {
+            Metrics.Stage stage = Metrics.stage(Metrics.MATCHING, value);
+            long start = stage.begin();
+            try {
+                Matching matching = new Matching(graph);
+                VecInt literals = matching.run();
+                stage.rows.add(graph.referenceCount());
+                stage.models.add(matching.size());
+                if (matching.inconsistentInputs() > 0) {
+                    log.warn("Value " + value + " has " + matching.inconsistentInputs() +
+                            " inputs in components without a valid assignment, they are left open.");
+                }
+                return literals;
+            } finally {
+                stage.end(start);
+            }
+        }
+
+        private void write(long value, RingGraph graph, VecInt literals) {
+            Metrics.Stage stage = Metrics.stage(Metrics.WRITE, value);
+            long start = stage.begin();
+            long written = 0;
+            try (BatchCommitter committer = new BatchCommitter(db, batchSize)) {
+                for (int k = 0; k < literals.size(); k++) {
+                    int literal = literals.get(k);
+                    if (SudokuSolver.writeLiteral(db, graph.referenceIds[Math.abs(literal) - 1], literal > 0)) {
+                        written += 1;
+                    }
+                    committer.increment();
+                }
+            } finally {
+                stage.relationships.add(written);
+                stage.end(start);
+            }
+        }
+    }
+
+    private class WindowTask extends RecursiveTask<PartitionOutput> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long value;
+        private final int fromHeight;
+        private final int toHeight;
+        private final BlockingQueue<PartitionOutput> finished;
+
+        WindowTask(long value, int fromHeight, int toHeight, BlockingQueue<PartitionOutput> finished) {
+            this.value = value;
+            this.fromHeight = fromHeight;
+            this.toHeight = toHeight;
+            this.finished = finished;
+        }
+
+        @Override
+        protected PartitionOutput compute() {
+            long start = System.currentTimeMillis();
+            int nInputs = 0;
+            SudokuResult result;
+            try {
+                RingGraph graph;
+                try (Transaction tx = db.beginTx()) {
+                    graph = RingGraphLoader.loadHeightWindow(db, value, fromHeight, toHeight);
+                    tx.success();
+                }
+                nInputs = graph.inputCount();
+                List<SudokuSolver> solvers = SudokuSolver.decompose(db, value, graph, encoding, budget);
+                result = SudokuResult.combine(value, solveAll(value, solvers));
+            } catch (RuntimeException e) {
+                log.error("Error while solving value " + value + " between heights " + fromHeight +
+                        " and " + toHeight + ".", e);
+                result = SudokuResult.failed(value);
+            }
+            result.setSchedule(0, System.currentTimeMillis() - start);
+
+            PartitionOutput output = new PartitionOutput(fromHeight, toHeight, nInputs, result);
+            log.info("Window " + fromHeight + " to " + toHeight + " of value " + value + ": " + nInputs +
+                    " inputs, " + output.newSpends + " new spends, took " + output.solveTime + " ms.");
+            finished.add(output);
+            return output;
+        }
+    }
+
+    private class ComponentTask extends RecursiveTask<SudokuResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long value;
+        private final SudokuSolver solver;
+        private final BlockingQueue<SudokuResult> finished;
+
+        /**
+         * @param finished receives the result once the component is solved, may be null
+         */
+        ComponentTask(long value, SudokuSolver solver, BlockingQueue<SudokuResult> finished) {
+            this.value = value;
+            this.solver = solver;
+            this.finished = finished;
+        }
+
+        @Override
+        protected SudokuResult compute() {
+            SudokuResult result;
+            try {
+                result = solver.solve();
+            } catch (RuntimeException e) {
+                log.error("Error while solving a component of value " + value + ".", e);
+                result = SudokuResult.failed(value);
+            }
+            if (finished != null) {
+                finished.add(result);
+            }
+            return result;
+        }
+    }
+}
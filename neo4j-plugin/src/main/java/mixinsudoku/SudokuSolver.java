@@ -1,7 +1,6 @@
 package mixinsudoku;
 
-import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.*;
 import org.sat4j.core.VecInt;
 import org.sat4j.minisat.core.DataStructureFactory;
 import org.sat4j.minisat.core.Solver;
@@ -11,10 +10,13 @@ import org.sat4j.minisat.restarts.Glucose21Restarts;
 import org.sat4j.specs.ContradictionException;
 import org.sat4j.specs.ISolver;
 import org.sat4j.specs.TimeoutException;
+import org.sat4j.tools.DimacsStringSolver;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
 
 import static org.sat4j.minisat.SolverFactory.newMiniLearningHeapRsatExpSimp;
@@ -25,30 +27,75 @@ public class SudokuSolver implements Callable<SudokuResult> {
     private GraphDatabaseService db;
 
     private ISolver solver;
-    private Map<String, Object> readParams = new HashMap<>();
+    private RingGraph graph;
     private VecInt solution;
     private long value;
+    private AtMostOne.Encoding encoding;
+    private SolverBudget budget;
+    private boolean[] impossible;
+    private int openReferences = 0;
+    private int escalations = 0;
+    /**
+     * Whether the clauses contradict each other already, e.g. because closed sets rule out a whole ring.
+     */
+    private boolean contradiction = false;
 
-    static final String inputQuery = "MATCH (i:Input)" +
-            " WHERE NOT (i)-[:SPENDS]->() AND i.value = {value}" +
-            " MATCH (i)-[r:REFERENCES]->(o:Output)" +
-            " WHERE NOT o:UniqueSpend" +
-            " RETURN ID(i) as inputId, collect(ID(r)) as relIds";
+    SudokuSolver(GraphDatabaseService db, long value, RingGraph graph, AtMostOne.Encoding encoding,
+                 SolverBudget budget) {
+        this.db = db;
+        this.value = value;
+        this.graph = graph;
+        this.encoding = encoding;
+        this.budget = budget;
+    }
 
-    static final String outputQuery = "MATCH (i:Input)" +
-            "  WHERE NOT (i)-[:SPENDS]->() AND i.value = {value}" +
-            "  MATCH (i)-[:REFERENCES]->(o:Output)" +
-            "  WHERE NOT o:UniqueSpend" +
-            "  WITH DISTINCT(o)" +
-            "  MATCH (o)<-[r:REFERENCES]-(x:Input)" +
-            "  WHERE NOT (x)-[:SPENDS]->()" +
-            "  RETURN ID(o) as outputId, collect(ID(r)) as relIds";
+    /**
+     * Loads the ring graph of a denomination, from the cache if it is up to date, and splits it into independent
+     * problems. All trivial components are combined into a single problem; every other component becomes a problem
+     * of its own.
+     */
+    static List<SudokuSolver> decompose(GraphDatabaseService db, ProblemCache cache, long value,
+                                        AtMostOne.Encoding encoding, SolverBudget budget) {
+        return decompose(db, value, cache.loadDenomination(value), encoding, budget);
+    }
 
+    /**
+     * Splits an already loaded ring graph into independent problems.
+     */
+    static List<SudokuSolver> decompose(GraphDatabaseService db, long value, RingGraph graph,
+                                        AtMostOne.Encoding encoding, SolverBudget budget) {
+        List<SudokuSolver> solvers = new ArrayList<>();
+        VecInt trivialInputs = new VecInt();
+        for (int[] component : Components.of(graph)) {
+            RingGraph subgraph = graph.subgraph(component);
+            if (isTrivial(subgraph)) {
+                trivialInputs.pushAll(new VecInt(component));
+            } else {
+                solvers.add(new SudokuSolver(db, value, subgraph, encoding, budget));
+            }
+        }
+        if (trivialInputs.size() > 0) {
+            solvers.add(0, new SudokuSolver(db, value,
+                    graph.subgraph(Arrays.copyOf(trivialInputs.toArray(), trivialInputs.size())), encoding,
+                    budget));
+        }
+        return solvers;
+    }
 
-    SudokuSolver(GraphDatabaseService db, long value) {
-        this.db = db;
-        this.value = value;
-        readParams.put("value", value);
+    /**
+     * A problem is trivial if every ring has been reduced to a single reference,
+     * or if it consists of a single input whose ring is free to choose from.
+     */
+    private static boolean isTrivial(RingGraph graph) {
+        if (graph.inputCount() == 1) {
+            return true;
+        }
+        for (int i = 0; i < graph.inputCount(); i++) {
+            if (graph.inputDegree(i) != 1) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void initializeSolver() {
@@ -56,109 +103,305 @@ public class SudokuSolver implements Callable<SudokuResult> {
         s.setRestartStrategy(new Glucose21Restarts());
         s.setLearnedConstraintsDeletionStrategy(s.glucose);
         s.setOrder(new VarOrderHeap(new RandomLiteralSelectionStrategy()));
-        s.setTimeout(3600); // 1 hour
+        // the timeout is set by the backbone, from what is left of the budget
         solver = s;
+
+        // reserve all reference variables, auxiliary variables of the encodings are allocated above them
+        solver.newVar(graph.referenceCount());
+    }
+
+    /**
+     * Reference r of the graph is SAT variable r + 1, so the variables of a problem are dense and independent of
+     * the relationship ids in the database. {@link RingGraph#referenceIds} maps them back.
+     */
+    private static int variable(int reference) {
+        return reference + 1;
+    }
+
+    private long relationshipId(int literal) {
+        return graph.referenceIds[Math.abs(literal) - 1];
     }
 
+    /**
+     * References ruled out by closed sets are left out of the clauses, see {@link #solveSatProblem()}.
+     */
     private void createInputClauses() {
-        Result inputData = db.execute(inputQuery, readParams);
-        createSolverClauses(inputData, solver, true);
+        for (int i = 0; i < graph.inputCount(); i++) {
+            int[] array = new int[graph.inputDegree(i)];
+            int k = 0;
+            for (int r = graph.inputOffsets[i]; r < graph.inputOffsets[i + 1]; r++) {
+                if (!impossible[r]) {
+                    array[k++] = variable(r);
+                }
+            }
+            if (k == 0) {
+                contradiction = true;
+                continue;
+            }
+            createSolverClauses(Arrays.copyOf(array, k), true);
+        }
     }
 
     private void createOutputClauses() {
-        Result outputData = db.execute(outputQuery, readParams);
-        createSolverClauses(outputData, solver, false);
+        for (int o = 0; o < graph.outputCount(); o++) {
+            int[] array = new int[graph.outputDegree(o)];
+            int k = 0;
+            for (int p = graph.outputOffsets[o]; p < graph.outputOffsets[o + 1]; p++) {
+                if (!impossible[graph.outputReferences[p]]) {
+                    array[k++] = variable(graph.outputReferences[p]);
+                }
+            }
+            createSolverClauses(Arrays.copyOf(array, k), false);
+        }
     }
 
     /**
-     * Iterates over a result of a cypher query and creates clauses based on the relationship ids in each row
+     * Creates the clauses for one input ring or for all references to one output.
      *
-     * @param rows              the cypher Result
-     * @param solver            the SAT solver to which the clauses are added
-     * @param oneIdIsAlwaysTrue determines whether at least one of the relationship ids in a row must be always true
+     * @param array             the variables of the references
+     * @param oneIdIsAlwaysTrue determines whether at least one of the references must be always true
      */
-    private void createSolverClauses(Result rows, ISolver solver, boolean oneIdIsAlwaysTrue) {
+    private void createSolverClauses(int[] array, boolean oneIdIsAlwaysTrue) {
         try {
-            while (rows.hasNext()) {
-                Map<String, Object> row = rows.next();
-                List<Long> relIds = (List<Long>) row.get("relIds");
+            if (oneIdIsAlwaysTrue) {
+                // choose from all possible inputs/outputs
+                solver.addClause(new VecInt(array));
+            }
 
-                int[] array = new int[relIds.size()];
-                for (int i = 0; i < relIds.size(); i++) array[i] = relIds.get(i).intValue() + 1;
+            // but only choose one at a time
+            AtMostOne.add(solver, array, encoding);
+        } catch (ContradictionException e) {
+            contradiction = true;
+        }
+    }
 
-                if (oneIdIsAlwaysTrue) {
-                    // choose from all possible inputs/outputs
-                    solver.addClause(new VecInt(array));
-                }
+    private SudokuResult.Status solveSatProblem() {
+        int[] variables = new int[graph.referenceCount()];
+        for (int r = 0; r < variables.length; r++) {
+            variables[r] = variable(r);
+        }
 
-                // but only choose one at a time
-                for (int i = 0; i < array.length - 1; i++) {
-                    for (int j = i + 1; j < array.length; j++) {
-                        int[] n = {-array[i], -array[j]};
-                        solver.addClause(new VecInt(n));
+        Backbone backbone = new Backbone(solver, graph, variables);
+        SudokuResult.Status status = SudokuResult.Status.SOLVED;
+        boolean consistent = true;
+        Metrics.Stage stage = Metrics.stage(Metrics.SOLVE, value);
+        long start = stage.begin();
+        try {
+            // the closed sets are proven without the solver, the backbone propagates them along the rings
+            for (int r = 0; r < impossible.length; r++) {
+                if (impossible[r]) {
+                    backbone.exclude(r);
+                }
+            }
+            SolverBudget remaining = budget;
+            while (true) {
+                try {
+                    consistent = !contradiction && backbone.compute(remaining);
+                    break;
+                } catch (TimeoutException e) {
+                    // keep the literals that have been proven so far, and go on if the problem is nearly done
+                    if (!remaining.shouldEscalate(backbone.progress())) {
+                        status = SudokuResult.Status.UNFINISHED;
+                        break;
                     }
+                    remaining = remaining.escalate();
+                    escalations += 1;
                 }
             }
-        } catch (ContradictionException e) {
-            e.printStackTrace();
+        } finally {
+            stage.addSolverStatistics(solver.getStat());
+            stage.models.add(backbone.models());
+            stage.end(start);
         }
+        if (!consistent) {
+            // without a single valid assignment nothing is proven, not even the closed sets, like in Matching
+            solution = new VecInt();
+            return SudokuResult.Status.ERROR;
+        }
+        solution = backbone.literals();
+        if (status == SudokuResult.Status.UNFINISHED) {
+            openReferences = backbone.undecided();
+        }
+        return status;
     }
 
-    private void solveSatProblem() {
-        try {
-            // Solve the sudoku
-            while (solver.isSatisfiable()) {
-                VecInt blockingClause = new VecInt(solver.model().length);
-                VecInt nextSolution = new VecInt(solver.model().length);
-
-                for (int i : solver.model()) {
-                    if (i > 0) {
-                        // We only care about the true assignments that we can carry over from the previous solution.
-                        // This should give us better pruning of the search space.
-                        if (solution == null || solution.contains(i)) {
-                            nextSolution.push(i);
-                            blockingClause.push(-i);
-                        }
-                    }
-                }
-                solution = nextSolution;
+    /**
+     * Solves a combination of trivial components: an input is forced to spend its only reference,
+     * unless that output is also the only reference of another input.
+     */
+    private void solveTrivialProblem() {
+        Metrics.Stage stage = Metrics.stage(Metrics.SOLVE, value);
+        long start = stage.begin();
+        solution = new VecInt();
+        for (int i = 0; i < graph.inputCount(); i++) {
+            int r = graph.inputOffsets[i];
+            if (graph.inputDegree(i) == 1 && graph.outputDegree(graph.inputTargets[r]) == 1) {
+                solution.push(variable(r));
+            }
+        }
+        stage.end(start);
+    }
 
-                if (blockingClause.size() == 0) {
-                    // can happen if there is not a single valid assignment
-                    break;
-                } else {
-                    // remove current solution from model
-                    solver.addBlockingClause(blockingClause);
-                }
+    /**
+     * @return the reference ids of all proven spends, once the problem has been solved
+     */
+    long[] spentReferences() {
+        long[] spent = new long[solution.size()];
+        int nSpent = 0;
+        for (int i = 0; i < solution.size(); i++) {
+            if (solution.get(i) > 0) {
+                spent[nSpent++] = relationshipId(solution.get(i));
             }
-        } catch (TimeoutException | ContradictionException e) {
-            //e.printStackTrace();
         }
+        return Arrays.copyOf(spent, nSpent);
     }
 
+    /**
+     * @return the number of inputs of the problem, a rough measure of its size
+     */
+    int inputCount() {
+        return graph.inputCount();
+    }
+
+    /**
+     * Writes the solution in batches, like the matching, so that large components are not held in memory as a
+     * single transaction. Must be called from a thread that is not bound to a transaction yet.
+     */
     private void writeUniqueSpendsToDatabase() {
-        for (int i = 0; i < solution.size(); i++) {
-            Map<String, Object> writeParams = new HashMap<>();
-            // decrement ID by 1 again
-            writeParams.put("relId", solution.get(i) - 1);
-            db.execute("MATCH (i:Input)-[r:REFERENCES]->(o:Output)" +
-                    " WHERE ID(r) = {relId}" +
-                    " SET o:SatSpend" +
-                    " CREATE (i)-[:SAT_SPEND]->(o)", writeParams);
+        Metrics.Stage stage = Metrics.stage(Metrics.WRITE, value);
+        long start = stage.begin();
+        int written = 0;
+        try (BatchCommitter committer = new BatchCommitter(db, BatchCommitter.DEFAULT_BATCH_SIZE)) {
+            for (int i = 0; i < solution.size(); i++) {
+                if (writeLiteral(db, relationshipId(solution.get(i)), solution.get(i) > 0)) {
+                    written += 1;
+                }
+                committer.increment();
+            }
+        } finally {
+            stage.relationships.add(written);
+            stage.end(start);
         }
     }
 
+    /**
+     * Writes a proven spend as SatSpend label and SAT_SPEND relationship, or marks a reference as impossible, which
+     * later runs leave out. Must be called from within a transaction.
+     *
+     * @return whether a spend was written
+     */
+    static boolean writeLiteral(GraphDatabaseService db, long referenceId, boolean spent) {
+        Relationship ref = db.getRelationshipById(referenceId);
+        if (!spent) {
+            EffectiveRingSize.ruledOut(db, ref);
+            ref.setProperty(RingGraphLoader.IMPOSSIBLE, true);
+            return false;
+        }
+        Node output = ref.getEndNode();
+        EffectiveRingSize.spent(db, ref.getStartNode(), output);
+        output.addLabel(RingGraphLoader.SAT_SPEND_LABEL);
+        ref.getStartNode().createRelationshipTo(output, RingGraphLoader.SAT_SPEND);
+        return true;
+    }
+
     @Override
     public SudokuResult call() throws Exception {
         return solve();
     }
 
     SudokuResult solve() {
-        initializeSolver();
+        long start = System.currentTimeMillis();
+        SudokuResult result = deduce();
+        writeUniqueSpendsToDatabase();
+        result.setStatistics(result.getStatus(), result.getVariables(), result.getClauses(),
+                System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Solves the problem without writing to the database.
+     */
+    SudokuResult deduce() {
+        long start = System.currentTimeMillis();
+        SudokuResult.Status status = SudokuResult.Status.SOLVED;
+        long variables = 0;
+        long clauses = 0;
+        if (isTrivial(graph)) {
+            solveTrivialProblem();
+        } else {
+            buildSatProblem();
+            variables = solver.nVars();
+            clauses = solver.nConstraints();
+            status = solveSatProblem();
+        }
+
+        SudokuResult result = new SudokuResult(value, solution);
+        result.setStatistics(status, variables, clauses, System.currentTimeMillis() - start);
+        result.setProgress(openReferences, escalations);
+        return result;
+    }
+
+    /**
+     * Creates a fresh solver with all clauses of the problem.
+     *
+     * @return the solver
+     */
+    ISolver buildSatProblem() {
+        findClosedSets();
+        Metrics.Stage stage = Metrics.stage(Metrics.CLAUSES, value);
+        long start = stage.begin();
+        try {
+            initializeSolver();
+            createInputClauses();
+            createOutputClauses();
+            stage.variables.add(solver.nVars());
+            stage.clauses.add(solver.nConstraints());
+            return solver;
+        } finally {
+            stage.end(start);
+        }
+    }
+
+    /**
+     * Writes the clauses of the problem in DIMACS format, for external solvers. Comment lines map every reference
+     * variable to its REFERENCES id, and references ruled out by closed sets are added as unit clauses.
+     *
+     * @return the number of variables and of clauses
+     */
+    long[] writeDimacs(Writer writer) throws IOException {
+        findClosedSets();
+        DimacsStringSolver dimacs = new DimacsStringSolver();
+        solver = dimacs;
+        solver.newVar(graph.referenceCount());
         createInputClauses();
         createOutputClauses();
-        solveSatProblem();
-        writeUniqueSpendsToDatabase();
-        return new SudokuResult(value, solution);
+        for (int r = 0; r < impossible.length; r++) {
+            if (impossible[r]) {
+                createSolverClauses(new int[]{-variable(r)}, true);
+            }
+        }
+        writer.write("c mixinsudoku value " + value + "\n");
+        for (int r = 0; r < graph.referenceCount(); r++) {
+            writer.write("c ref " + variable(r) + " " + graph.referenceIds[r] + "\n");
+        }
+        writer.write(dimacs.toString());
+        return new long[]{dimacs.nVars(), dimacs.nConstraints()};
+    }
+
+    /**
+     * Marks the references that are impossible because their output is spent within a closed set, see
+     * {@link ClosedSets}.
+     */
+    private void findClosedSets() {
+        Metrics.Stage stage = Metrics.stage(Metrics.CLOSED_SETS, value);
+        long start = stage.begin();
+        try {
+            ClosedSets closedSets = new ClosedSets(graph);
+            impossible = closedSets.run();
+            stage.rows.add(graph.referenceCount());
+            stage.models.add(closedSets.closedSets());
+        } finally {
+            stage.end(start);
+        }
     }
 }
@@ -0,0 +1,26 @@
+package mixinsudoku;
+
+
+/**
+ * One row of mixinsudoku.verify, an inconsistency found in the graph.
+ */
+public class Violation {
+
+    /**
+     * One of block, prev-block, in-block, missing-property, output-index, output-order, mixin, reference-value,
+     * reference-index or anonset, or error if the verification failed.
+     */
+    public String check;
+
+    /**
+     * The offending node, or -1 if the violation is not about a single node.
+     */
+    public long nodeId;
+    public String message;
+
+    Violation(String check, long nodeId, String message) {
+        this.check = check;
+        this.nodeId = nodeId;
+        this.message = message;
+    }
+}
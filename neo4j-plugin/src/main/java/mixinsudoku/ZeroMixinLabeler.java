@@ -0,0 +1,324 @@
+package mixinsudoku;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.TransientFailureException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.Iterators;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Labels the outputs spent by zero-mixin inputs in parallel, without APOC.
+ * <p>
+ * The (input, output) pairs are collected in a single read transaction and split into contiguous ranges of input
+ * ids, one task per range. An output referenced from two ranges would be locked by two workers, so such pairs are
+ * held back and written after the parallel phase. Every task commits in batches and retries a batch that failed
+ * with a transient error such as a deadlock. Inputs that already spend an output are skipped, so the labeling can
+ * simply be run again after an interruption.
+ * <p>
+ * A spend also lowers the effective ring size of the other inputs that reference its output, see
+ * {@link EffectiveRingSize}. Those inputs may belong to any range, so the workers only collect them, and the
+ * decrements are written after all spends, like the deferred pairs.
+ * <p>
+ * Must be run from a thread that is not bound to a transaction.
+ */
+final class ZeroMixinLabeler {
+
+    private static final int RANGES_PER_THREAD = 4;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final int batchSize;
+    private final int nThreads;
+    private final int fromHeight;
+    private final int toHeight;
+
+    private final Metrics.Stage stage = Metrics.stage(Metrics.ZERO_MIXIN, Metrics.ALL_VALUES);
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final List<Long> decrements = new ArrayList<>();
+    private long spends = 0;
+    private long sequentialSpends = 0;
+    private long duration = 0;
+
+    ZeroMixinLabeler(GraphDatabaseService db, Log log, int batchSize, int nThreads, int fromHeight, int toHeight) {
+        this.db = db;
+        this.log = log;
+        this.batchSize = batchSize;
+        this.nThreads = nThreads;
+        this.fromHeight = fromHeight;
+        this.toHeight = toHeight;
+    }
+
+    ZeroMixinLabeler run() {
+        long stageStart = stage.begin();
+        try {
+            return label();
+        } finally {
+            stage.end(stageStart);
+        }
+    }
+
+    private ZeroMixinLabeler label() {
+        long start = System.currentTimeMillis();
+        long[][] pairs = collectPairs();
+        int n = pairs[0].length;
+        spends = n;
+        stage.rows.add(n);
+
+        // one range per task, the input ids of the pairs are sorted
+        int nRanges = (int) Math.max(1, Math.min(nThreads * RANGES_PER_THREAD, (n + batchSize - 1L) / batchSize));
+        int[] rangeStarts = new int[nRanges + 1];
+        for (int k = 0; k <= nRanges; k++) {
+            rangeStarts[k] = (int) ((long) n * k / nRanges);
+        }
+        // keep the pairs of an input in one range
+        for (int k = 1; k < nRanges; k++) {
+            while (rangeStarts[k] > rangeStarts[k - 1] && rangeStarts[k] < n &&
+                    pairs[0][rangeStarts[k]] == pairs[0][rangeStarts[k] - 1]) {
+                rangeStarts[k] -= 1;
+            }
+        }
+
+        // outputs referenced from more than one range are written sequentially afterwards
+        LongIntHashMap outputRanges = new LongIntHashMap(n);
+        for (int k = 0; k < nRanges; k++) {
+            for (int p = rangeStarts[k]; p < rangeStarts[k + 1]; p++) {
+                int range = outputRanges.get(pairs[1][p]);
+                if (range == LongIntHashMap.MISSING) {
+                    outputRanges.put(pairs[1][p], k);
+                } else if (range != k) {
+                    outputRanges.put(pairs[1][p], nRanges);
+                }
+            }
+        }
+        int[] rangeOf = new int[n];
+        for (int k = 0; k < nRanges; k++) {
+            for (int p = rangeStarts[k]; p < rangeStarts[k + 1]; p++) {
+                rangeOf[p] = outputRanges.get(pairs[1][p]) == nRanges ? nRanges : k;
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int k = 0; k < nRanges; k++) {
+                int[] selected = select(rangeOf, rangeStarts[k], rangeStarts[k + 1], k);
+                futures.add(executor.submit(() -> write(pairs, selected)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        int[] deferred = select(rangeOf, 0, n, nRanges);
+        sequentialSpends = deferred.length;
+        write(pairs, deferred);
+        decrement();
+
+        duration = System.currentTimeMillis() - start;
+        log.info("Labeled " + spends + " zero-mixin spends in " + batches.get() + " batches with " +
+                nThreads + " threads (" + sequentialSpends + " sequentially, " + retries.get() + " retries) in " +
+                duration + " ms.");
+        return this;
+    }
+
+    /**
+     * @return the input and output node ids of all unlabeled zero-mixin spends, sorted by input
+     */
+    private long[][] collectPairs() {
+        long[] inputs = new long[1024];
+        long[] outputs = new long[1024];
+        int n = 0;
+        try (Transaction tx = db.beginTx();
+             ResourceIterator<Node> zeroMixin = zeroMixinInputs()) {
+            while (zeroMixin.hasNext()) {
+                Node input = zeroMixin.next();
+                if (input.hasRelationship(RingGraphLoader.SPENDS, Direction.OUTGOING)) {
+                    continue;
+                }
+                for (Relationship ref : input.getRelationships(RingGraphLoader.REFERENCES, Direction.OUTGOING)) {
+                    if (n == inputs.length) {
+                        inputs = Arrays.copyOf(inputs, n * 2);
+                        outputs = Arrays.copyOf(outputs, n * 2);
+                    }
+                    inputs[n] = input.getId();
+                    outputs[n] = ref.getEndNodeId();
+                    n += 1;
+                }
+            }
+            tx.success();
+        }
+
+        long[][] pairs = {Arrays.copyOf(inputs, n), Arrays.copyOf(outputs, n)};
+        sort(pairs[0], pairs[1], 0, n - 1);
+        return pairs;
+    }
+
+    /**
+     * @return the zero-mixin inputs of the height range, from the index on :Input(mixin) if it covers all blocks
+     */
+    private ResourceIterator<Node> zeroMixinInputs() {
+        if (RingGraphLoader.isAllHeights(fromHeight, toHeight)) {
+            return db.findNodes(RingGraphLoader.INPUT, "mixin", 0);
+        }
+        List<Node> inputs = RingGraphLoader.inputsBetween(db, fromHeight,
+                RingGraphLoader.resolveToHeight(db, toHeight));
+        inputs.removeIf(input -> ((Number) input.getProperty("mixin", -1)).intValue() != 0);
+        return Iterators.asResourceIterator(inputs.iterator());
+    }
+
+    /**
+     * Sorts both arrays by the keys in the first one (quicksort, the index returns inputs in no particular order).
+     */
+    private static void sort(long[] keys, long[] values, int low, int high) {
+        while (low < high) {
+            long pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, i, j);
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller part
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private static void swap(long[] array, int i, int j) {
+        long tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    private static int[] select(int[] rangeOf, int from, int to, int range) {
+        int[] selected = new int[to - from];
+        int n = 0;
+        for (int p = from; p < to; p++) {
+            if (rangeOf[p] == range) {
+                selected[n++] = p;
+            }
+        }
+        return Arrays.copyOf(selected, n);
+    }
+
+    private void write(long[][] pairs, int[] selected) {
+        for (int start = 0; start < selected.length; start += batchSize) {
+            int end = Math.min(selected.length, start + batchSize);
+            for (int attempt = 1; ; attempt++) {
+                List<Long> batchDecrements = new ArrayList<>();
+                try (Transaction tx = db.beginTx()) {
+                    for (int k = start; k < end; k++) {
+                        Node input = db.getNodeById(pairs[0][selected[k]]);
+                        Node output = db.getNodeById(pairs[1][selected[k]]);
+                        EffectiveRingSize.spent(input, output, batchDecrements);
+                        output.addLabel(RingGraphLoader.UNIQUE_SPEND);
+                        output.setProperty("iteration", 1L);
+                        input.createRelationshipTo(output, RingGraphLoader.SPENDS);
+                    }
+                    tx.success();
+                } catch (TransientFailureException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    retries.incrementAndGet();
+                    continue;
+                }
+                synchronized (decrements) {
+                    decrements.addAll(batchDecrements);
+                }
+                batches.incrementAndGet();
+                stage.relationships.add(end - start);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the collected effective ring size decrements from a single thread, in batches.
+     */
+    private void decrement() {
+        for (int start = 0; start < decrements.size(); start += batchSize) {
+            int end = Math.min(decrements.size(), start + batchSize);
+            for (int attempt = 1; ; attempt++) {
+                try (Transaction tx = db.beginTx()) {
+                    for (int k = start; k < end; k++) {
+                        EffectiveRingSize.decrement(db, decrements.get(k));
+                    }
+                    tx.success();
+                } catch (TransientFailureException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    retries.incrementAndGet();
+                    continue;
+                }
+                break;
+            }
+        }
+        decrements.clear();
+    }
+
+    long spends() {
+        return spends;
+    }
+
+    long sequentialSpends() {
+        return sequentialSpends;
+    }
+
+    long batches() {
+        return batches.get();
+    }
+
+    long retries() {
+        return retries.get();
+    }
+
+    /**
+     * @return the wall time in milliseconds
+     */
+    long duration() {
+        return duration;
+    }
+}
@@ -0,0 +1,32 @@
+package mixinsudoku;
+
+
+/**
+ * Result of the zero-mixin labeling.
+ */
+public class ZeroMixinOutput {
+
+    public long spends;
+    public long batches;
+    public long retries;
+
+    /**
+     * Spends whose output is referenced from more than one ID range and that were written after the parallel phase.
+     */
+    public long sequentialSpends;
+
+    /**
+     * Wall time in milliseconds.
+     */
+    public long duration;
+    public double spendsPerSecond;
+
+    ZeroMixinOutput(ZeroMixinLabeler labeler) {
+        this.spends = labeler.spends();
+        this.batches = labeler.batches();
+        this.retries = labeler.retries();
+        this.sequentialSpends = labeler.sequentialSpends();
+        this.duration = labeler.duration();
+        this.spendsPerSecond = spends * 1000.0 / Math.max(1, duration);
+    }
+}
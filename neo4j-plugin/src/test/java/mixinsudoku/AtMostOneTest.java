@@ -0,0 +1,58 @@
+package mixinsudoku;
+
+import org.junit.Test;
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ISolver;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class AtMostOneTest {
+
+    private static final int[] SIZES = {2, 5, 7, 13, 40};
+
+    @Test
+    public void everyEncodingAllowsExactlyOneLiteral() throws Exception {
+        for (AtMostOne.Encoding encoding : AtMostOne.Encoding.values()) {
+            for (int n : SIZES) {
+                for (int i = 1; i <= n; i++) {
+                    ISolver solver = solverWithConstraint(n, encoding);
+                    assertTrue(encoding + " with " + n + " literals",
+                            solver.isSatisfiable(assumeTrue(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void everyEncodingForbidsTwoLiterals() throws Exception {
+        for (AtMostOne.Encoding encoding : AtMostOne.Encoding.values()) {
+            for (int n : SIZES) {
+                ISolver solver = solverWithConstraint(n, encoding);
+                for (int i = 1; i <= n; i++) {
+                    for (int j = i + 1; j <= n; j++) {
+                        assertFalse(encoding + " with " + n + " literals",
+                                solver.isSatisfiable(assumeTrue(i, j)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static ISolver solverWithConstraint(int n, AtMostOne.Encoding encoding) throws Exception {
+        ISolver solver = SolverFactory.newDefault();
+        solver.newVar(n);
+        int[] literals = new int[n];
+        for (int i = 0; i < n; i++) {
+            literals[i] = i + 1;
+        }
+        AtMostOne.add(solver, literals, encoding);
+        return solver;
+    }
+
+    private static VecInt assumeTrue(int... variables) {
+        return new VecInt(variables);
+    }
+}
@@ -0,0 +1,69 @@
+package mixinsudoku;
+
+import org.junit.Test;
+import org.sat4j.core.VecInt;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class ClosedSetsTest {
+
+    @Test
+    public void shouldCloseIdenticalRings() {
+        // inputs 0 and 1 spend outputs 0 and 1, which leaves output 2 to input 2 and output 3 to input 3
+        RingGraph graph = TestRings.rings(new int[][]{{0, 1}, {0, 1}, {0, 1, 2}, {1, 2, 3}});
+
+        ClosedSets closedSets = new ClosedSets(graph);
+        boolean[] impossible = closedSets.run();
+
+        assertArrayEquals(new boolean[]{false, false, false, false, true, true, false, true, true, false},
+                impossible);
+        // the inputs 2 and 3 are closed sets of their own once their rings have shrunk
+        assertEquals(3, closedSets.closedSets());
+        assertEquals(4, closedSets.impossibleReferences());
+    }
+
+    @Test
+    public void shouldGrowSetsOfDifferentRings() {
+        // inputs 0 to 2 share outputs 0 to 2 without having identical rings
+        RingGraph graph = TestRings.rings(new int[][]{{0, 1}, {1, 2}, {0, 2}, {0, 1, 2, 3}});
+
+        ClosedSets closedSets = new ClosedSets(graph);
+        boolean[] impossible = closedSets.run();
+
+        assertArrayEquals(new boolean[]{false, false, false, false, false, false, true, true, true, false},
+                impossible);
+        assertEquals(2, closedSets.closedSets());
+    }
+
+    @Test
+    public void shouldLeaveOpenRingsToTheSolver() {
+        RingGraph graph = TestRings.rings(new int[][]{{0, 1}, {1, 2}, {2, 3}});
+
+        ClosedSets closedSets = new ClosedSets(graph);
+        closedSets.run();
+
+        assertEquals(0, closedSets.closedSets());
+    }
+
+    @Test
+    public void shouldReportClosedSetsAsProvenLiterals() {
+        RingGraph graph = TestRings.rings(new int[][]{{0, 1}, {1, 2}, {0, 2}, {0, 1, 2, 3}});
+
+        SudokuResult result = new SudokuSolver(null, 1, graph, AtMostOne.Encoding.AUTO, SolverBudget.DEFAULT)
+                .deduce();
+
+        // input 3 spends output 3, its other references are impossible
+        VecInt literals = result.getLiterals();
+        int[] sorted = new int[literals.size()];
+        for (int k = 0; k < sorted.length; k++) {
+            sorted[k] = literals.get(k);
+        }
+        Arrays.sort(sorted);
+        assertArrayEquals(new int[]{-9, -8, -7, 10}, sorted);
+        assertEquals(SudokuResult.Status.SOLVED, result.getStatus());
+    }
+}
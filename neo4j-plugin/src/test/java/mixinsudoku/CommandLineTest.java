@@ -0,0 +1,30 @@
+package mixinsudoku;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class CommandLineTest {
+
+    @Test
+    public void shouldReadNamedArguments() {
+        Map<String, String> arguments = CommandLine.parse(new String[]{"--csv", "in", "--threads", "4"},
+                "csv", "threads", "out");
+        assertEquals(2, arguments.size());
+        assertEquals("in", arguments.get("csv"));
+        assertEquals("4", arguments.get("threads"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownArguments() {
+        CommandLine.parse(new String[]{"--thread", "4"}, "csv", "threads");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectArgumentsWithoutValue() {
+        CommandLine.parse(new String[]{"--csv", "in", "--threads"}, "csv", "threads");
+    }
+}
@@ -0,0 +1,107 @@
+package mixinsudoku;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.harness.junit.Neo4jRule;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class IntegrityVerifierTest {
+
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule()
+            .withProcedure(DatabaseHelpers.class);
+
+    /**
+     * Block 0 has a coinbase with the outputs 10-0 and 10-1, block 1 a coinbase with 10-2 and a transaction spending
+     * from 10-0 and 10-1 into 20-0, block 2 a transaction spending from 10-1, 10-2 and 20-0 into 10-3.
+     */
+    private static final String CHAIN = "CREATE (b0:Block {height: 0}), (b1:Block {height: 1}), " +
+            "(b2:Block {height: 2}), (b1)-[:PREV_BLOCK]->(b0), (b2)-[:PREV_BLOCK]->(b1), " +
+            "(t0:Transaction)-[:IN_BLOCK]->(b0), (t1:Transaction)-[:IN_BLOCK]->(b1), " +
+            "(t2:Transaction)-[:IN_BLOCK]->(b1), (t3:Transaction)-[:IN_BLOCK]->(b2), " +
+            "(t0)-[:TX_OUTPUT]->(o0:Output {value: 10, index: 0}), " +
+            "(t0)-[:TX_OUTPUT]->(o1:Output {value: 10, index: 1}), " +
+            "(t1)-[:TX_OUTPUT]->(o2:Output {value: 10, index: 2}), " +
+            "(t2)-[:TX_INPUT]->(i0:Input {id: 0, value: 10, mixin: 1, anonset: 3}), " +
+            "(i0)-[:REFERENCES]->(o0), (i0)-[:REFERENCES]->(o1), " +
+            "(t2)-[:TX_OUTPUT]->(p0:Output {value: 20, index: 0}), " +
+            "(t3)-[:TX_INPUT]->(i1:Input {id: 1, value: 10, mixin: 1, anonset: 3}), " +
+            "(i1)-[:REFERENCES]->(o1), (i1)-[:REFERENCES]->(o2), " +
+            "(t3)-[:TX_INPUT]->(i2:Input {id: 2, value: 20, mixin: 0, anonset: 1}), " +
+            "(i2)-[:REFERENCES]->(p0), " +
+            "(t3)-[:TX_OUTPUT]->(o3:Output {value: 10, index: 3})";
+
+    @Test
+    public void shouldAcceptConsistentChain() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(CHAIN);
+
+            assertEquals(0, session.run("CALL mixinsudoku.verify(2)").list().size());
+        }
+    }
+
+    @Test
+    public void shouldReportEveryViolation() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(CHAIN);
+
+            // a gap in the chain and a transaction without a block
+            session.run("CREATE (:Block {height: 4}), (:Transaction)");
+            // wrong mixin, a reference to another value and one to an output created later
+            session.run("MATCH (i:Input {id: 0}) SET i.mixin = 2");
+            session.run("MATCH (i:Input {id: 2}), (o:Output {value: 10, index: 3}) " +
+                    "CREATE (i)-[:REFERENCES]->(o) SET i.mixin = 1");
+            session.run("MATCH (i:Input {id: 1}), (o:Output {value: 10, index: 3}) " +
+                    "CREATE (i)-[:REFERENCES]->(o) SET i.mixin = 2");
+            // an anonset smaller than the number of outputs before block 1, which also excludes output 10-1
+            session.run("MATCH (i:Input {id: 0}) SET i.anonset = 1");
+
+            List<String> checks = session.run("CALL mixinsudoku.verify(2) YIELD check RETURN check ORDER BY check")
+                    .list(record -> record.get("check").asString());
+            assertEquals(Arrays.asList("anonset", "block", "in-block", "mixin", "prev-block", "reference-index",
+                    "reference-index", "reference-value"), checks);
+        }
+    }
+
+    @Test
+    public void shouldReportNegativeBlockHeight() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(CHAIN);
+            session.run("CREATE (:Block {height: -1})");
+
+            List<String> checks = session.run("CALL mixinsudoku.verify(2) YIELD check RETURN check")
+                    .list(record -> record.get("check").asString());
+            assertEquals(Arrays.asList("block"), checks);
+        }
+    }
+
+    @Test
+    public void shouldReportDuplicateOutputIndex() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(CHAIN);
+            session.run("MATCH (o:Output {value: 10, index: 3}) SET o.index = 2");
+
+            List<String> checks = session.run("CALL mixinsudoku.verify(2) YIELD check RETURN check ORDER BY check")
+                    .list(record -> record.get("check").asString());
+            // the duplicate and the gap it leaves at index 3
+            assertEquals(Arrays.asList("output-index", "output-index"), checks);
+        }
+    }
+}
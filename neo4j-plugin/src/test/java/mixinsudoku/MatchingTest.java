@@ -0,0 +1,65 @@
+package mixinsudoku;
+
+import org.junit.Test;
+import org.sat4j.core.VecInt;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class MatchingTest {
+
+    @Test
+    public void shouldFindForcedAndImpossibleReferences() {
+        // input 0 has to spend output 0, because inputs 1 and 2 share outputs 1 and 2
+        RingGraph graph = TestRings.rings(new int[][]{{0, 1}, {1, 2}, {1, 2}}, 3);
+
+        Matching matching = new Matching(graph);
+
+        assertArrayEquals(new int[]{-2, 1}, sorted(matching.run()));
+        assertEquals(3, matching.size());
+    }
+
+    @Test
+    public void shouldFollowPathsFromUnspentOutputs() {
+        // one of outputs 2 and 3 stays unspent, so input 2 can choose between them but not output 1
+        RingGraph graph = TestRings.rings(new int[][]{{0}, {0, 1}, {1, 2, 3}}, 4);
+
+        assertArrayEquals(new int[]{-4, -2, 1, 3}, sorted(new Matching(graph).run()));
+    }
+
+    @Test
+    public void shouldLeaveComponentsWithoutValidAssignmentOpen() {
+        // inputs 0 and 2 both can only spend output 0, input 3 is independent of them
+        RingGraph graph = TestRings.rings(new int[][]{{0}, {0, 1}, {0}, {2}}, 3);
+
+        Matching matching = new Matching(graph);
+
+        assertArrayEquals(new int[]{5}, sorted(matching.run()));
+        assertEquals(3, matching.inconsistentInputs());
+    }
+
+    @Test
+    public void shouldAgreeWithTheSolver() {
+        for (long seed = 0; seed < 20; seed++) {
+            RingGraph graph = TestRings.randomRings(200, 3, 20, seed);
+
+            int[] solver = sorted(new SudokuSolver(null, 1, graph, AtMostOne.Encoding.AUTO, SolverBudget.DEFAULT)
+                    .deduce().getLiterals());
+            int[] matching = sorted(new Matching(graph).run());
+
+            assertArrayEquals("seed " + seed, solver, matching);
+        }
+    }
+
+    private static int[] sorted(VecInt literals) {
+        int[] sorted = new int[literals.size()];
+        for (int k = 0; k < sorted.length; k++) {
+            sorted[k] = literals.get(k);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -1,14 +1,18 @@
 package mixinsudoku;
 
-import apoc.periodic.Periodic;
 import org.junit.Rule;
 import org.junit.Test;
 import org.neo4j.driver.v1.Config;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.exceptions.ClientException;
 import org.neo4j.harness.junit.Neo4jRule;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.neo4j.driver.v1.Values.parameters;
 
@@ -18,7 +22,7 @@ public class MixinSudokuTest {
     @Rule
     public Neo4jRule neo4j = new Neo4jRule()
             .withProcedure(MixinSudoku.class)
-            .withProcedure(Periodic.class);
+            .withProcedure(DatabaseHelpers.class);
 
 
     @Test
@@ -38,6 +42,41 @@ public class MixinSudokuTest {
         }
     }
 
+    @Test
+    public void shouldLabelZeroMixinsInParallelBatches() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // 200 zero-mixin inputs with an output each, and the first and the last input share an output
+            session.run("UNWIND range(0, 199) AS k " +
+                    "CREATE (:Input {id: k, mixin: 0})-[:REFERENCES]->(:Output {id: 1000 + k})");
+            session.run("MATCH (i:Input {id: 0}), (j:Input {id: 199})-[:REFERENCES]->(o) " +
+                    "CREATE (i)-[:REFERENCES]->(o)");
+            session.run("CREATE (:Input {id: 500, mixin: 2})-[:REFERENCES]->(:Output {id: 2000})");
+
+            Record result = session.run("CALL mixinsudoku.zeromixin(16, 4)").single();
+            assertEquals(201, result.get("spends").asLong());
+            assertEquals(2, result.get("sequentialSpends").asLong());
+
+            assertEquals(200, session.run("MATCH (o:UniqueSpend {iteration: 1}) RETURN count(o)")
+                    .single().get(0).asLong());
+            assertEquals(201, session.run("MATCH (:Input)-[s:SPENDS]->(:Output) RETURN count(s)")
+                    .single().get(0).asLong());
+
+            // inputs that already spend an output are skipped
+            assertEquals(0, session.run("CALL mixinsudoku.zeromixin()").single().get("spends").asLong());
+        }
+    }
+
+    @Test(expected = ClientException.class)
+    public void shouldRejectEmptyZeroMixinBatches() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            driver.session().run("CALL mixinsudoku.zeromixin(0)").consume();
+        }
+    }
+
     @Test
     public void basicTestForGraphSudoku() throws Throwable {
         try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
@@ -124,4 +163,168 @@ public class MixinSudokuTest {
             assertEquals(0, idDeanonymizedInput);
         }
     }
+
+    @Test
+    public void shouldPropagateChainInSinglePass() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a chain in which every deduction enables the next one
+            session.run("CREATE (n0:Input {id: 0, mixin: 0})," +
+                    "(n1:Input {id: 1, mixin: 1}), (n2:Input {id: 2, mixin: 1}), (n3:Input {id: 3, mixin: 2})," +
+                    "(n4:Output {id: 4}), (n5:Output {id: 5}), (n6:Output {id: 6}), (n7:Output {id: 7})," +
+                    "(n0)-[:REFERENCES]->(n4), (n1)-[:REFERENCES]->(n4), (n1)-[:REFERENCES]->(n5)," +
+                    "(n2)-[:REFERENCES]->(n5), (n2)-[:REFERENCES]->(n6)," +
+                    "(n3)-[:REFERENCES]->(n4), (n3)-[:REFERENCES]->(n6), (n3)-[:REFERENCES]->(n7)");
+
+            // When I run the zero mixin and chain reaction stages
+            session.run("CALL mixinsudoku.zeromixin()");
+            session.run("CALL mixinsudoku.sudoku()");
+
+            // Then every output is spent exactly once
+            long numberUniqueSpends = session.run("MATCH (o:UniqueSpend) RETURN COUNT(o)").single().get(0).asLong();
+            assertEquals(4, numberUniqueSpends);
+
+            long numberSpends = session.run("MATCH (:Input)-[s:SPENDS]->() RETURN COUNT(s)").single().get(0).asLong();
+            assertEquals(4, numberSpends);
+
+            // And the iterations follow the order of deduction
+            long lastIteration = session.run("MATCH (o:Output {id: 7}) RETURN o.iteration").single().get(0).asLong();
+            assertEquals(4, lastIteration);
+        }
+    }
+
+    @Test
+    public void shouldContinueIncrementallyWithNewBlocks() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a first block that has been analysed completely
+            session.run("CREATE (b0:Block {height: 0}), (t0:Transaction)-[:IN_BLOCK]->(b0)," +
+                    "(a:Input {id: 0, mixin: 0}), (b:Input {id: 1, mixin: 1}), (c:Input {id: 2, mixin: 1})," +
+                    "(o1:Output {id: 11}), (o2:Output {id: 12}), (o3:Output {id: 13}), (o4:Output {id: 14})," +
+                    "(t0)-[:TX_INPUT]->(a), (t0)-[:TX_INPUT]->(b), (t0)-[:TX_INPUT]->(c)," +
+                    "(a)-[:REFERENCES]->(o1), (b)-[:REFERENCES]->(o1), (b)-[:REFERENCES]->(o2)," +
+                    "(c)-[:REFERENCES]->(o3), (c)-[:REFERENCES]->(o4)");
+            session.run("CALL mixinsudoku.zeromixin()");
+            session.run("CALL mixinsudoku.sudoku()");
+
+            // When a block is appended that resolves the open ring of the first block
+            session.run("MATCH (b0:Block {height: 0}), (o3:Output {id: 13}), (o4:Output {id: 14})" +
+                    " CREATE (b1:Block {height: 1}), (t1:Transaction)-[:IN_BLOCK]->(b1)," +
+                    "(d:Input {id: 3, mixin: 0}), (e:Input {id: 4, mixin: 1}), (o5:Output {id: 15})," +
+                    "(t1)-[:TX_INPUT]->(d), (t1)-[:TX_INPUT]->(e)," +
+                    "(d)-[:REFERENCES]->(o3), (e)-[:REFERENCES]->(o4), (e)-[:REFERENCES]->(o5)");
+            String summary = session.run("CALL mixinsudoku.sudoku.incremental()").single().get("summary").asString();
+
+            // Then the new zero-mixin spend propagates through the old ring into the new one
+            assertEquals("Blocks 1 to 1: 2 new inputs, 1 zero-mixin spends, 2 chain-reaction spends in 1 rounds.",
+                    summary);
+            long oldRing = session.run("MATCH (:Input {id: 2})-[:SPENDS]->(o:Output) RETURN o.iteration").single()
+                    .get(0).asLong();
+            assertEquals(2, oldRing);
+            long newRing = session.run("MATCH (:Input {id: 4})-[:SPENDS]->(o:Output) RETURN o.id, o.iteration")
+                    .single().get(1).asLong();
+            assertEquals(3, newRing);
+
+            // And the checkpoint has moved on
+            long height = session.run("MATCH (c:SudokuCheckpoint) RETURN c.height").single().get(0).asLong();
+            assertEquals(1, height);
+        }
+    }
+
+    @Test
+    public void shouldWorkOnHeightRanges() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a zero-mixin input in each of two blocks, and a ring in the second block that depends on the first
+            session.run("CREATE (b0:Block {height: 0, timestamp: 1000}), (b1:Block {height: 1, timestamp: 1120})," +
+                    "(t0:Transaction)-[:IN_BLOCK]->(b0), (t1:Transaction)-[:IN_BLOCK]->(b1)," +
+                    "(a:Input {id: 0, mixin: 0}), (b:Input {id: 1, mixin: 0}), (c:Input {id: 2, mixin: 1})," +
+                    "(o1:Output {id: 11}), (o2:Output {id: 12}), (o3:Output {id: 13})," +
+                    "(t0)-[:TX_INPUT]->(a), (t0)-[:TX_OUTPUT]->(o1), (t0)-[:TX_OUTPUT]->(o2)," +
+                    "(t1)-[:TX_INPUT]->(b), (t1)-[:TX_INPUT]->(c), (t1)-[:TX_OUTPUT]->(o3)," +
+                    "(a)-[:REFERENCES]->(o1), (b)-[:REFERENCES]->(o2)," +
+                    "(c)-[:REFERENCES]->(o1), (c)-[:REFERENCES]->(o3)");
+
+            // When I store the heights
+            Record heights = session.run("CALL mixinsudoku.heights()").single();
+
+            // Then every input and output knows its block
+            assertEquals(3, heights.get("inputs").asLong());
+            assertEquals(3, heights.get("outputs").asLong());
+            Record input = session.run("MATCH (i:Input {id: 2}) RETURN i.height, i.timestamp").single();
+            assertEquals(1, input.get(0).asLong());
+            assertEquals(1120, input.get(1).asLong());
+            assertEquals(0, session.run("CALL mixinsudoku.heights()").single().get("inputs").asLong());
+
+            // And the zero-mixin inputs of the first block and the rings of the second can be handled on their own
+            assertEquals(1, session.run("CALL mixinsudoku.zeromixin(10000, 0, 0, 1)").single().get("spends").asLong());
+            session.run("CALL mixinsudoku.sudoku(1)");
+
+            assertEquals(13, session.run("MATCH (:Input {id: 2})-[:SPENDS]->(o) RETURN o.id").single().get(0).asLong());
+            assertEquals(0, session.run("MATCH (:Input {id: 1})-[s:SPENDS]->() RETURN count(s)").single().get(0)
+                    .asLong());
+            assertEquals(0, session.run("MATCH (c:SudokuCheckpoint {name: 'sudoku'}) RETURN count(c)").single()
+                    .get(0).asLong());
+        }
+    }
+
+    @Test(expected = ClientException.class)
+    public void shouldRejectEmptyHeightBatches() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            driver.session().run("CALL mixinsudoku.heights(0)").consume();
+        }
+    }
+
+    @Test
+    public void shouldKeepEffectiveRingSizeUpToDate() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a zero-mixin input whose spend leads the sudoku to a second one, and a third input that keeps
+            // two of its four references
+            session.run("CREATE (b0:Block {height: 0}), (t0:Transaction)-[:IN_BLOCK]->(b0)," +
+                    "(a:Input {id: 0, mixin: 0}), (c:Input {id: 1, mixin: 1}), (d:Input {id: 2, mixin: 3})," +
+                    "(o1:Output {id: 11}), (o3:Output {id: 13}), (o4:Output {id: 14}), (o6:Output {id: 16})," +
+                    "(t0)-[:TX_INPUT]->(a), (t0)-[:TX_INPUT]->(c), (t0)-[:TX_INPUT]->(d)," +
+                    "(a)-[:REFERENCES]->(o1), (c)-[:REFERENCES]->(o1), (c)-[:REFERENCES]->(o3)," +
+                    "(d)-[:REFERENCES]->(o1), (d)-[:REFERENCES]->(o3), (d)-[:REFERENCES]->(o4)," +
+                    "(d)-[:REFERENCES]->(o6)");
+
+            // When I store the effective ring sizes before the sudoku
+            Record stored = session.run("CALL mixinsudoku.effectiveringsize()").single();
+            assertEquals(3, stored.get("inputs").asLong());
+            assertEquals(3, stored.get("changed").asLong());
+            assertEquals(Arrays.asList(1L, 2L, 4L), effectiveRingSizes(session));
+
+            // Then the zero-mixin labels and the chain reaction update them
+            session.run("CALL mixinsudoku.zeromixin()");
+            assertEquals(Arrays.asList(1L, 1L, 3L), effectiveRingSizes(session));
+            session.run("CALL mixinsudoku.sudoku()");
+            assertEquals(Arrays.asList(1L, 1L, 2L), effectiveRingSizes(session));
+
+            // and computing them from scratch finds nothing to change
+            assertEquals(0, session.run("CALL mixinsudoku.effectiveringsize()").single().get("changed").asLong());
+        }
+    }
+
+    @Test(expected = ClientException.class)
+    public void shouldRejectEmptyEffectiveRingSizeBatches() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            driver.session().run("CALL mixinsudoku.effectiveringsize(0)").consume();
+        }
+    }
+
+    private static List<Long> effectiveRingSizes(Session session) {
+        return session.run("MATCH (i:Input) RETURN i.effectiveRingSize ORDER BY i.id")
+                .list(record -> record.get(0).asLong());
+    }
 }
@@ -0,0 +1,77 @@
+package mixinsudoku;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class OfflineSudokuTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRunAllStagesOnCsvExport() throws IOException {
+        File csv = folder.newFolder("csv");
+        writeExport(csv);
+        assertResults(new OfflineSudoku(csv, 2, AtMostOne.Encoding.AUTO));
+    }
+
+    @Test
+    public void shouldRunAllStagesOnRingStore() throws IOException {
+        File csv = folder.newFolder("csv");
+        writeExport(csv);
+        File store = folder.newFolder("store");
+        new RingStoreConverter(csv).convert(store);
+        assertResults(new OfflineSudoku(store, 2, AtMostOne.Encoding.AUTO));
+    }
+
+    /**
+     * Writes an export in which i0 is a zero-mixin input of value 10 that lets i1 be deduced, and i2, i3 and i4 of
+     * value 20 form the single unique spend example of the SAT tests, with interleaved rows.
+     */
+    static void writeExport(File csv) throws IOException {
+        write(csv, "outputs.csv",
+                "10-0,10,0", "10-1,10,1",
+                "20-0,20,0", "20-1,20,1", "20-2,20,2");
+        write(csv, "inputs.csv",
+                "i0,10,0,1", "i1,10,1,2",
+                "i2,20,1,3", "i3,20,1,3", "i4,20,1,3");
+        write(csv, "input-output-refs.csv",
+                "i0,10-0", "i1,10-0", "i1,10-1",
+                "i2,20-0", "i3,20-1", "i2,20-1", "i3,20-2", "i4,20-1", "i4,20-2");
+        write(csv, "tx-blocks.csv", "t0,0", "t1,1", "t2,1");
+        write(csv, "output-rels.csv", "t0,10-0", "t0,10-1", "t0,20-0", "t0,20-1", "t0,20-2");
+        write(csv, "input-rels.csv", "t1,i0", "t1,i1", "t2,i2", "t2,i3", "t2,i4");
+    }
+
+    private void assertResults(OfflineSudoku sudoku) throws IOException {
+        List<String> summary = sudoku.run();
+        File out = folder.newFolder("out");
+        sudoku.write(out);
+
+        assertEquals(4, summary.size());
+        assertEquals(Arrays.asList("i0,10-0", "i1,10-1"), read(out, "spends.csv"));
+        assertEquals(Arrays.asList("i2,20-0"), read(out, "sat-spends.csv"));
+        assertEquals(Arrays.asList(
+                "10-0,10,0,1,UniqueSpend", "10-1,10,1,2,UniqueSpend",
+                "20-0,20,0,,SatSpend", "20-1,20,1,,", "20-2,20,2,,"), read(out, "sudoku-outputs.csv"));
+    }
+
+    static void write(File directory, String name, String... lines) throws IOException {
+        Files.write(new File(directory, name).toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> read(File directory, String name) throws IOException {
+        return Files.readAllLines(new File(directory, name).toPath(), StandardCharsets.UTF_8);
+    }
+}
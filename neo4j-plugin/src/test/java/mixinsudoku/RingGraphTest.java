@@ -0,0 +1,114 @@
+package mixinsudoku;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class RingGraphTest {
+
+    @Test
+    public void shouldBuildBothDirections() {
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        int o0 = builder.addOutput(100);
+        int o1 = builder.addOutput(101);
+        int o2 = builder.addOutput(102);
+
+        builder.addInput(10);
+        builder.addReference(1000, o0);
+        builder.addReference(1001, o1);
+        builder.addInput(11);
+        builder.addReference(1002, o1);
+        builder.addReference(1003, o2);
+        // duplicate reference is ignored
+        builder.addReference(1004, o2);
+
+        RingGraph graph = builder.build();
+
+        assertEquals(2, graph.inputCount());
+        assertEquals(3, graph.outputCount());
+        assertEquals(4, graph.referenceCount());
+        assertArrayEquals(new long[]{1000, 1001, 1002, 1003}, graph.referenceIds);
+
+        // output 1 is referenced by both inputs
+        assertEquals(2, graph.outputDegree(o1));
+        int first = graph.outputOffsets[o1];
+        assertEquals(0, graph.outputSources[first]);
+        assertEquals(1, graph.outputSources[first + 1]);
+        assertEquals(1001, graph.referenceIds[graph.outputReferences[first]]);
+        assertEquals(1002, graph.referenceIds[graph.outputReferences[first + 1]]);
+    }
+
+    @Test
+    public void shouldMapLongKeys() {
+        LongIntHashMap map = new LongIntHashMap(2);
+        for (long key = 0; key < 10000; key++) {
+            map.put(key * 7919, (int) key);
+        }
+        assertEquals(10000, map.size());
+        assertEquals(42, map.get(42 * 7919));
+        assertEquals(LongIntHashMap.MISSING, map.get(1));
+    }
+
+    @Test
+    public void shouldSplitIntoComponents() {
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        int o0 = builder.addOutput(100);
+        int o1 = builder.addOutput(101);
+        int o2 = builder.addOutput(102);
+        int o3 = builder.addOutput(103);
+
+        // inputs 0 and 2 are connected through output 1, input 1 is on its own
+        builder.addInput(10);
+        builder.addReference(1000, o0);
+        builder.addReference(1001, o1);
+        builder.addInput(11);
+        builder.addReference(1002, o2);
+        builder.addInput(12);
+        builder.addReference(1003, o1);
+        builder.addReference(1004, o3);
+
+        List<int[]> components = Components.of(builder.build());
+
+        assertEquals(2, components.size());
+        assertArrayEquals(new int[]{0, 2}, components.get(0));
+        assertArrayEquals(new int[]{1}, components.get(1));
+
+        RingGraph subgraph = builder.build().subgraph(components.get(0));
+        assertEquals(2, subgraph.inputCount());
+        assertEquals(3, subgraph.outputCount());
+        assertArrayEquals(new long[]{1000, 1001, 1003, 1004}, subgraph.referenceIds);
+    }
+
+    @Test
+    public void shouldReadWhatWasWritten() throws IOException {
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        int o0 = builder.addOutput(100);
+        int o1 = builder.addOutput(101);
+        builder.addInput(10);
+        builder.addReference(1000, o0);
+        builder.addReference(1001, o1);
+        builder.addInput(11);
+        builder.addReference(1002, o1);
+        RingGraph graph = builder.build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        graph.write(new DataOutputStream(bytes));
+        RingGraph read = RingGraph.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertArrayEquals(graph.inputIds, read.inputIds);
+        assertArrayEquals(graph.outputIds, read.outputIds);
+        assertArrayEquals(graph.inputOffsets, read.inputOffsets);
+        assertArrayEquals(graph.inputTargets, read.inputTargets);
+        assertArrayEquals(graph.referenceIds, read.referenceIds);
+        assertArrayEquals(graph.outputSources, read.outputSources);
+    }
+}
@@ -0,0 +1,75 @@
+package mixinsudoku;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class RingStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldGroupInputsAndOutputsByDenomination() throws IOException {
+        // the last reference repeats one of i2
+        File csv = folder.newFolder("csv");
+        OfflineSudokuTest.write(csv, "outputs.csv", "20-0,20,0", "10-0,10,0", "20-1,20,1", "10-1,10,1");
+        OfflineSudokuTest.write(csv, "inputs.csv", "i0,20,0,1", "i1,10,1,2", "i2,20,1,2");
+        OfflineSudokuTest.write(csv, "input-output-refs.csv", "i0,20-0", "i1,10-1", "i2,20-1", "i1,10-0",
+                "i2,20-0", "i2,20-1");
+        OfflineSudokuTest.write(csv, "tx-blocks.csv", "t0,0", "t1,1", "t2,5");
+        OfflineSudokuTest.write(csv, "output-rels.csv", "t0,20-0", "t0,10-0", "t1,20-1", "t1,10-1");
+        OfflineSudokuTest.write(csv, "input-rels.csv", "t1,i0", "t2,i1", "t2,i2");
+        File directory = folder.newFolder("store");
+        assertFalse(RingStore.exists(directory));
+        new RingStoreConverter(csv).convert(directory);
+        assertTrue(RingStore.exists(directory));
+
+        RingStore store = RingStore.open(directory);
+        assertEquals(2, store.valueCount);
+        assertEquals(4, store.outputCount);
+        assertEquals(3, store.inputCount);
+        assertEquals(5, store.referenceCount);
+        assertEquals(10, store.value(0));
+        assertEquals(20, store.value(1));
+        assertEquals(1, store.ordinal(20));
+        assertEquals(LongIntHashMap.MISSING, store.ordinal(15));
+
+        // outputs 10-0, 10-1, 20-0, 20-1 and inputs i1, i0, i2
+        assertArrayEquals(new int[]{0, 2, 4}, new int[]{store.outputBase(0), store.outputBase(1),
+                store.outputBase(2)});
+        assertArrayEquals(new int[]{0, 1, 3}, new int[]{store.inputBase(0), store.inputBase(1),
+                store.inputBase(2)});
+        assertArrayEquals(new long[]{1, 0, 2}, new long[]{store.inputNumber(0), store.inputNumber(1),
+                store.inputNumber(2)});
+        assertArrayEquals(new int[]{1, 0, 1}, new int[]{store.inputMixin(0), store.inputMixin(1),
+                store.inputMixin(2)});
+        assertArrayEquals(new int[]{5, 1, 5}, new int[]{store.inputHeight(0), store.inputHeight(1),
+                store.inputHeight(2)});
+        assertArrayEquals(new int[]{0, 1, 0, 1}, new int[]{store.outputHeight(0), store.outputHeight(1),
+                store.outputHeight(2), store.outputHeight(3)});
+        assertArrayEquals(new int[]{0, 2, 3, 5}, new int[]{store.ringOffset(0), store.ringOffset(1),
+                store.ringOffset(2), store.ringOffset(3)});
+        assertArrayEquals(new int[]{1, 0, 2, 3, 2}, new int[]{store.ringTarget(0), store.ringTarget(1),
+                store.ringTarget(2), store.ringTarget(3), store.ringTarget(4)});
+
+        RingGraph graph = store.ringGraph(1);
+        assertEquals(2, graph.inputCount());
+        assertEquals(2, graph.outputCount());
+        assertArrayEquals(new long[]{1, 2}, graph.inputIds);
+        assertArrayEquals(new long[]{2, 3}, graph.outputIds);
+        assertArrayEquals(new int[]{0, 1, 0}, graph.inputTargets);
+        assertArrayEquals(new int[]{0, 1, 3}, graph.inputOffsets);
+        assertArrayEquals(new int[]{0, 1, 1}, new int[]{store.inputOrdinal(0), store.inputOrdinal(1),
+                store.inputOrdinal(2)});
+    }
+}
@@ -5,10 +5,21 @@ import org.junit.Test;
 import org.neo4j.driver.v1.Config;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.exceptions.ClientException;
 import org.neo4j.harness.junit.Neo4jRule;
 
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.neo4j.driver.v1.Values.parameters;
 
 
@@ -31,7 +42,8 @@ public class SatTest {
 
     @Rule
     public Neo4jRule neo4j = new Neo4jRule()
-            .withProcedure(SATSudoku.class);
+            .withProcedure(SATSudoku.class)
+            .withProcedure(DatabaseHelpers.class);
 
     @Test
     public void shouldIdentifySimpleSpendSAT() throws Throwable {
@@ -172,4 +184,389 @@ public class SatTest {
             assertEquals(10, numberUniqueSpends);
         }
     }
+
+    @Test
+    public void shouldIdentifySingleUniqueSpendWithEveryEncoding() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            String[] encodings = {"pairwise", "sequential", "commander", "product", "native"};
+            for (int v = 0; v < encodings.length; v++) {
+                session.run(singleUniqueSpendQuery, parameters("value", v + 1));
+                session.run("CALL mixinsudoku.sat.single({value}, {encoding})",
+                        parameters("value", v + 1, "encoding", encodings[v]));
+            }
+
+            // Then every encoding should find the same unique spend
+            long numberUniqueSpends = session.run("MATCH (i:Input {id: 0})-[:SAT_SPEND]->(o:SatSpend) RETURN COUNT(o)")
+                    .single().get(0).asLong();
+            assertEquals(encodings.length, numberUniqueSpends);
+        }
+    }
+
+    @Test
+    public void shouldReportImpossibleReferences() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a simple graph example
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+
+            // When I run the sudoku algorithm
+            String summary = session.run("CALL mixinsudoku.sat.single({value})", parameters("value", 10))
+                    .single().get("summary").asString();
+
+            // Then the reference of input 0 to the contested output is ruled out
+            assertEquals("Value 10: 1 new unique spends, 1 removed references.", summary);
+        }
+    }
+
+    @Test
+    public void shouldOrderCatalogByEstimatedCost() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a cheap and an expensive denomination
+            session.run(threeTrivialSpendsQuery, parameters("value", 10));
+            session.run(singleUniqueSpendQuery, parameters("value", 20));
+
+            // When I list the catalog
+            List<Record> catalog = session.run("CALL mixinsudoku.sat.catalog()").list();
+
+            // Then the expensive denomination comes first
+            assertEquals(2, catalog.size());
+            assertEquals(20, catalog.get(0).get("value").asLong());
+            assertEquals(3, catalog.get(0).get("inputs").asLong());
+            assertEquals(6, catalog.get(0).get("references").asLong());
+            assertEquals(12.0, catalog.get(0).get("estimatedCost").asDouble(), 1e-9);
+            assertEquals(10, catalog.get(1).get("value").asLong());
+        }
+    }
+
+    @Test
+    public void shouldCatalogOnlyOpenInputsAndReferences() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a denomination with a spend from the SAT stage and an impossible reference
+            session.run(singleUniqueSpendQuery, parameters("value", 20));
+            session.run("MATCH (i:Input {id: 0})-[:REFERENCES]->(o:Output) WHERE NOT (o)<-[:REFERENCES]-(:Input {id: 1})" +
+                    " SET o:SatSpend CREATE (i)-[:SAT_SPEND]->(o)");
+            session.run("MATCH (:Input {id: 0})-[:REFERENCES]->(o:Output)<-[r:REFERENCES]-(:Input {id: 1})" +
+                    " SET r.impossible = true");
+
+            // When I list the catalog
+            Record denomination = session.run("CALL mixinsudoku.sat.catalog()").single();
+
+            // Then it counts what the SAT stage would load: inputs 1 and 2 with their three remaining references
+            assertEquals(2, denomination.get("inputs").asLong());
+            assertEquals(3, denomination.get("references").asLong());
+        }
+    }
+
+    @Test
+    public void shouldStreamOneRowPerDenomination() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+            session.run(threeTrivialSpendsQuery, parameters("value", 20));
+
+            // When I run the Mixin Sudoku for all denominations
+            List<Record> rows = session.run("CALL mixinsudoku.sat.all(2) YIELD value, newSpends, removedReferences, status" +
+                    " RETURN value, newSpends, removedReferences, status ORDER BY value").list();
+
+            // Then there is one solved row per denomination
+            assertEquals(2, rows.size());
+            assertEquals(10, rows.get(0).get("value").asLong());
+            assertEquals(1, rows.get(0).get("newSpends").asLong());
+            assertEquals(1, rows.get(0).get("removedReferences").asLong());
+            assertEquals("solved", rows.get(0).get("status").asString());
+            assertEquals(3, rows.get(1).get("newSpends").asLong());
+        }
+    }
+
+    @Test
+    public void shouldMatchLikeTheSolver() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+            session.run(threeTrivialSpendsQuery, parameters("value", 0));
+
+            // When I match all denominations, including RingCT
+            List<Record> rows = session.run("CALL mixinsudoku.matching() YIELD value, newSpends, removedReferences, " +
+                    "status RETURN value, newSpends, removedReferences, status ORDER BY value").list();
+
+            // Then the rows are the same as those of sat.all
+            assertEquals(2, rows.size());
+            assertEquals(0, rows.get(0).get("value").asLong());
+            assertEquals(3, rows.get(0).get("newSpends").asLong());
+            assertEquals(10, rows.get(1).get("value").asLong());
+            assertEquals(1, rows.get(1).get("newSpends").asLong());
+            assertEquals(1, rows.get(1).get("removedReferences").asLong());
+            assertEquals("solved", rows.get(1).get("status").asString());
+
+            long idDeanonymizedInput = session.run("MATCH (i:Input {value: 10})-[:SAT_SPEND]->(o:SatSpend) RETURN i.id")
+                    .single().get(0).asLong();
+            assertEquals(0, idDeanonymizedInput);
+            long impossible = session.run("MATCH ()-[r:REFERENCES {impossible: true}]->() RETURN count(r)")
+                    .single().get(0).asLong();
+            assertEquals(1, impossible);
+
+            // and a second run has nothing left to do
+            Record again = session.run("CALL mixinsudoku.matching(10)").single();
+            assertEquals(0, again.get("newSpends").asLong());
+        }
+    }
+
+    @Test
+    public void shouldKeepEffectiveRingSizeUpToDate() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given inputs 0 and 1 sharing outputs 1 and 2, so that input 2 has to spend 3, input 3 then 4, and
+            // input 4 can only choose between 5 and 6
+            session.run("CREATE (a:Input {id: 0, value: 10}), (b:Input {id: 1, value: 10}), " +
+                    "(c:Input {id: 2, value: 10}), (d:Input {id: 3, value: 10}), (e:Input {id: 4, value: 10}), " +
+                    "(o1:Output {value: 10}), (o2:Output {value: 10}), (o3:Output {value: 10}), " +
+                    "(o4:Output {value: 10}), (o5:Output {value: 10}), (o6:Output {value: 10}), " +
+                    "(a)-[:REFERENCES]->(o1), (a)-[:REFERENCES]->(o2), (b)-[:REFERENCES]->(o1), " +
+                    "(b)-[:REFERENCES]->(o2), (c)-[:REFERENCES]->(o1), (c)-[:REFERENCES]->(o2), " +
+                    "(c)-[:REFERENCES]->(o3), (d)-[:REFERENCES]->(o3), (d)-[:REFERENCES]->(o4), " +
+                    "(e)-[:REFERENCES]->(o1), (e)-[:REFERENCES]->(o5), (e)-[:REFERENCES]->(o6)");
+            session.run("MATCH (i:Input) SET i.effectiveRingSize = size((i)-[:REFERENCES]->())");
+
+            // When the SAT stage writes its spends and impossible references
+            session.run("CALL mixinsudoku.sat.single({value})", parameters("value", 10));
+
+            // Then every input counts the references that are left
+            List<Long> sizes = session.run("MATCH (i:Input) RETURN i.effectiveRingSize ORDER BY i.id")
+                    .list(record -> record.get(0).asLong());
+            assertEquals(Arrays.asList(2L, 2L, 1L, 1L, 2L), sizes);
+        }
+    }
+
+    @Test
+    public void shouldReuseCachedProblems() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            String cache = "cache";
+
+            // Given two inputs that can spend either of two outputs, so that a run finds nothing
+            session.run("CREATE (n0:Input {value: 10}), (n1:Input {value: 10}), " +
+                    "(n2:Output {value: 10}), (n3:Output {value: 10}), " +
+                    "(n0)-[:REFERENCES]->(n2), (n0)-[:REFERENCES]->(n3), " +
+                    "(n1)-[:REFERENCES]->(n2), (n1)-[:REFERENCES]->(n3)");
+            session.run("CALL mixinsudoku.stats.reset()");
+
+            // When I run it twice with a cache
+            session.run("CALL mixinsudoku.sat.single(10, 'auto', {}, {cache})", parameters("cache", cache));
+            session.run("CALL mixinsudoku.sat.single(10, 'pairwise', {}, {cache})", parameters("cache", cache));
+
+            // Then the rings are only extracted once
+            assertEquals(1, extractRuns(session));
+
+            // and again once the denomination has changed
+            session.run("CREATE (:Input {value: 10})-[:REFERENCES]->(:Output {value: 10})");
+            session.run("CALL mixinsudoku.sat.single(10, 'auto', {}, {cache})", parameters("cache", cache));
+            assertEquals(2, extractRuns(session));
+        }
+    }
+
+    @Test
+    public void shouldExportDimacs() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+            String directory = "dimacs";
+
+            Record row = session.run("CALL mixinsudoku.sat.dimacs(10, {directory}, 'pairwise')",
+                    parameters("directory", directory)).single();
+
+            assertEquals(3, row.get("inputs").asLong());
+            assertEquals(6, row.get("variables").asLong());
+            List<String> lines = Files.readAllLines(new File(row.get("file").asString()).toPath());
+            assertEquals(6, lines.stream().filter(line -> line.startsWith("c ref ")).count());
+            assertTrue(lines.stream().anyMatch(line -> line.startsWith("p cnf 6 " + row.get("clauses").asLong())));
+
+            // nothing is written to the graph
+            assertEquals(0, session.run("MATCH (o:SatSpend) RETURN count(o)").single().get(0).asLong());
+
+            // the inputs are not in any block, so a height range has no problems
+            assertEquals(0, session.run("CALL mixinsudoku.sat.dimacs(10, {directory}, 'pairwise', '', 0, 1)",
+                    parameters("directory", directory)).list().size());
+        }
+    }
+
+    @Test(expected = ClientException.class)
+    public void shouldOnlyWriteBelowTheImportDirectory() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+
+            session.run("CALL mixinsudoku.sat.dimacs(10, '../dimacs', 'pairwise')").consume();
+        }
+    }
+
+    private static long extractRuns(Session session) {
+        return session.run("CALL mixinsudoku.stats() YIELD stage, value, runs " +
+                "WHERE stage = 'extract' AND value = 10 RETURN runs").single().get(0).asLong();
+    }
+
+    @Test
+    public void shouldCountEveryStage() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+
+            session.run("CALL mixinsudoku.stats.reset()");
+            session.run("CALL mixinsudoku.sat.single(10)");
+
+            List<Record> rows = session.run("CALL mixinsudoku.stats() YIELD stage, value, active, runs, rows, " +
+                    "variables, clauses, models, relationships RETURN * ORDER BY stage").list();
+            assertEquals(5, rows.size());
+            Record clauses = rows.get(0);
+            assertEquals("clauses", clauses.get("stage").asString());
+            assertEquals(10, clauses.get("value").asLong());
+            assertEquals(1, clauses.get("runs").asLong());
+            assertTrue(clauses.get("variables").asLong() >= 6);
+            assertTrue(clauses.get("clauses").asLong() > 0);
+            // inputs 1 and 2 share the ring of outputs 4 and 5
+            Record closedSets = rows.get(1);
+            assertEquals("closed-sets", closedSets.get("stage").asString());
+            assertEquals(2, closedSets.get("models").asLong());
+            Record extract = rows.get(2);
+            assertEquals("extract", extract.get("stage").asString());
+            // 3 inputs and 6 references
+            assertEquals(9, extract.get("rows").asLong());
+            Record solve = rows.get(3);
+            assertEquals("solve", solve.get("stage").asString());
+            assertEquals(0, solve.get("active").asLong());
+            assertTrue(solve.get("models").asLong() > 0);
+            Record write = rows.get(4);
+            assertEquals("write", write.get("stage").asString());
+            assertEquals(1, write.get("relationships").asLong());
+
+            // the MXBean maps the counters to tabular data, one row per counter
+            Map<?, ?> counters = (Map<?, ?>) ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(new ObjectName("mixinsudoku:type=Stats"), "Counters");
+            assertEquals(5 * 11, counters.size());
+        }
+    }
+
+    @Test
+    public void shouldStreamOneRowPerComponent() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a denomination with one non-trivial component and three trivial ones
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+            session.run(threeTrivialSpendsQuery, parameters("value", 10));
+
+            // When I stream the components
+            List<Record> rows = session.run("CALL mixinsudoku.sat.single.stream({value}, 2)",
+                    parameters("value", 10)).list();
+
+            // Then the trivial components are solved together
+            assertEquals(2, rows.size());
+            long newSpends = 0;
+            for (Record row : rows) {
+                newSpends += row.get("newSpends").asLong();
+            }
+            assertEquals(4, newSpends);
+
+            long nSat = session.run("MATCH (o:SatSpend) RETURN COUNT(o)").single().get(0).asLong();
+            assertEquals(4, nSat);
+        }
+    }
+
+    @Test
+    public void shouldSolveRingCTByHeightWindows() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given RingCT inputs in blocks 0 and 2, and an empty block 3
+            session.run("CREATE (b0:Block {height: 0}), (b1:Block {height: 1}), (b2:Block {height: 2})," +
+                    "(b3:Block {height: 3}), (t0:Transaction)-[:IN_BLOCK]->(b0), (t2:Transaction)-[:IN_BLOCK]->(b2)," +
+                    "(n0:Input {id: 0, value: 0}), (n1:Input {value: 0}), (n2:Input {value: 0})," +
+                    "(n3:Output {value: 0}), (n4:Output {value: 0}), (n5:Output {value: 0})," +
+                    "(t0)-[:TX_INPUT]->(n0), (t0)-[:TX_INPUT]->(n1), (t0)-[:TX_INPUT]->(n2)," +
+                    "(n0)-[:REFERENCES]->(n3), (n0)-[:REFERENCES]->(n4)," +
+                    "(n1)-[:REFERENCES]->(n4), (n1)-[:REFERENCES]->(n5)," +
+                    "(n2)-[:REFERENCES]->(n4), (n2)-[:REFERENCES]->(n5)," +
+                    "(n6:Input {id: 6, value: 0}), (n7:Output {value: 0}), (t2)-[:TX_INPUT]->(n6)," +
+                    "(n6)-[:REFERENCES]->(n7)");
+
+            // When I solve RingCT in windows of two blocks
+            List<Record> rows = session.run("CALL mixinsudoku.sat.ringct(2, 2) YIELD fromHeight, inputs, newSpends, status" +
+                    " RETURN fromHeight, inputs, newSpends, status ORDER BY fromHeight").list();
+
+            // Then there is one solved row per window
+            assertEquals(2, rows.size());
+            assertEquals(0, rows.get(0).get("fromHeight").asLong());
+            assertEquals(3, rows.get(0).get("inputs").asLong());
+            assertEquals(1, rows.get(0).get("newSpends").asLong());
+            assertEquals(2, rows.get(1).get("fromHeight").asLong());
+            assertEquals(1, rows.get(1).get("newSpends").asLong());
+            assertEquals("solved", rows.get(1).get("status").asString());
+
+            long nSat = session.run("MATCH (i:Input)-[:SAT_SPEND]->(o:SatSpend) RETURN COUNT(o)").single().get(0).asLong();
+            assertEquals(2, nSat);
+        }
+    }
+
+    @Test
+    public void shouldUseDenseVariables() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+
+            // Given a small problem whose relationships have large ids
+            session.run("UNWIND range(1, 1000) AS i CREATE (:Filler)-[:FILLS]->(:Filler)");
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+
+            // When I solve it
+            Record row = session.run("CALL mixinsudoku.sat.single.stream({value})", parameters("value", 10)).single();
+
+            // Then the solver only needs variables for its own references and the encoding
+            assertEquals(1, row.get("newSpends").asLong());
+            assertEquals(6, row.get("variables").asLong());
+        }
+    }
+
+    @Test
+    public void shouldContinueWhereThePreviousRunStopped() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(singleUniqueSpendQuery, parameters("value", 10));
+
+            Record first = session.run("CALL mixinsudoku.sat.single.stream(10)").single();
+            assertEquals(1, first.get("newSpends").asLong());
+            assertEquals(1, first.get("removedReferences").asLong());
+            long nImpossible = session.run("MATCH (:Input)-[r:REFERENCES {impossible: true}]->() RETURN count(r)")
+                    .single().get(0).asLong();
+            assertEquals(1, nImpossible);
+
+            // the spend and the impossible reference are not loaded again
+            Record second = session.run("CALL mixinsudoku.sat.single.stream(10)").single();
+            assertEquals(0, second.get("newSpends").asLong());
+            assertEquals(0, second.get("removedReferences").asLong());
+            assertEquals(1, session.run("MATCH ()-[r:SAT_SPEND]->() RETURN count(r)").single().get(0).asLong());
+        }
+    }
 }
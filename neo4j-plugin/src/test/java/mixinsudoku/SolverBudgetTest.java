@@ -0,0 +1,84 @@
+package mixinsudoku;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class SolverBudgetTest {
+
+    @Test
+    public void shouldKeepProvenLiteralsOfUnfinishedProblems() {
+        RingGraph graph = TestRings.randomRings(1000, 3, 0, 42);
+        SolverBudget tiny = new SolverBudget(1, 0, 0, 4, 0.5);
+
+        SudokuResult unfinished = new SudokuSolver(null, 1, graph, AtMostOne.Encoding.PAIRWISE, tiny).deduce();
+        SudokuResult solved = new SudokuSolver(null, 1, graph, AtMostOne.Encoding.PAIRWISE, SolverBudget.DEFAULT)
+                .deduce();
+
+        assertEquals(SudokuResult.Status.UNFINISHED, unfinished.getStatus());
+        assertTrue(unfinished.getOpenReferences() > 0);
+        assertEquals(SudokuResult.Status.SOLVED, solved.getStatus());
+        assertEquals(0, solved.getOpenReferences());
+
+        // everything proven within the budget is part of the backbone
+        Set<Integer> backbone = new HashSet<>();
+        for (int k = 0; k < solved.size(); k++) {
+            backbone.add(solved.getLiterals().get(k));
+        }
+        for (int k = 0; k < unfinished.size(); k++) {
+            assertTrue(backbone.contains(unfinished.getLiterals().get(k)));
+        }
+    }
+
+    @Test
+    public void shouldEscalateBudgetOfNearlyFinishedProblems() {
+        RingGraph graph = TestRings.randomRings(1000, 3, 0, 42);
+        SolverBudget escalating = new SolverBudget(1, 0, 30, 2, 0);
+
+        SudokuResult result = new SudokuSolver(null, 1, graph, AtMostOne.Encoding.PAIRWISE, escalating).deduce();
+
+        assertEquals(SudokuResult.Status.SOLVED, result.getStatus());
+        assertTrue(result.getEscalations() > 0);
+    }
+
+    @Test
+    public void shouldNotWriteProblemsWithoutValidAssignment() {
+        // inputs 0 and 2 both can only spend output 0, and three inputs share the two outputs 0 and 1
+        int[][][] overConstrained = {{{0}, {0, 1}, {0}}, {{0, 1}, {0, 1}, {0, 1}}};
+
+        for (int[][] rings : overConstrained) {
+            SudokuResult result = new SudokuSolver(null, 1, TestRings.rings(rings), AtMostOne.Encoding.AUTO,
+                    SolverBudget.DEFAULT).deduce();
+
+            // neither the closed sets found on the way nor anything else is written
+            assertEquals(SudokuResult.Status.ERROR, result.getStatus());
+            assertEquals(0, result.size());
+        }
+    }
+
+    @Test
+    public void shouldReadBudgetInSeconds() {
+        SolverBudget budget = SolverBudget.parse(Collections.singletonMap("timeout", 1.5));
+        assertEquals(1500, budget.timeout);
+        assertEquals(SolverBudget.DEFAULT.escalations, budget.escalations);
+        assertFalse(budget.shouldEscalate(1));
+
+        budget = new SolverBudget(budget.timeout, 0, 2, 4, 0.5);
+
+        SolverBudget escalated = budget.escalate();
+        assertEquals(6000, escalated.timeout);
+        assertEquals(budget.escalations - 1, escalated.escalations);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownBudget() {
+        SolverBudget.parse(Collections.singletonMap("timeOut", 10L));
+    }
+}
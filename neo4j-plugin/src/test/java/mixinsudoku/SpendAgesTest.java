@@ -0,0 +1,93 @@
+package mixinsudoku;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.harness.junit.Neo4jRule;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class SpendAgesTest {
+
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule()
+            .withProcedure(DatabaseHelpers.class);
+
+    /**
+     * Blocks 0 and 1 are mined in 2014, block 2 in 2015. Input 0 in block 1 spends the newer of 10-0 and 10-1,
+     * input 1 in block 2 the oldest of 10-0, 10-1 and 10-2, and the spend of input 2 is not known.
+     */
+    private static final String CHAIN = "CREATE (b0:Block {height: 0, timestamp: 1400000000}), " +
+            "(b1:Block {height: 1, timestamp: 1400000120}), (b2:Block {height: 2, timestamp: 1420070400}), " +
+            "(t0:Transaction)-[:IN_BLOCK]->(b0), (t1:Transaction)-[:IN_BLOCK]->(b1), " +
+            "(t2:Transaction)-[:IN_BLOCK]->(b2), " +
+            "(t0)-[:TX_OUTPUT]->(o0:Output {value: 10, index: 0}), " +
+            "(t0)-[:TX_OUTPUT]->(o1:Output {value: 10, index: 1}), " +
+            "(t1)-[:TX_OUTPUT]->(o2:Output {value: 10, index: 2}), " +
+            "(t1)-[:TX_OUTPUT]->(p0:Output {value: 20, index: 0}), " +
+            "(t1)-[:TX_INPUT]->(i0:Input {id: 0, value: 10, mixin: 1, anonset: 2}), " +
+            "(i0)-[:REFERENCES]->(o0), (i0)-[:REFERENCES]->(o1), (i0)-[:SPENDS]->(o1), " +
+            "(t2)-[:TX_INPUT]->(i1:Input {id: 1, value: 10, mixin: 2, anonset: 3}), " +
+            "(i1)-[:REFERENCES]->(o0), (i1)-[:REFERENCES]->(o1), (i1)-[:REFERENCES]->(o2), " +
+            "(i1)-[:SAT_SPEND]->(o0), " +
+            "(t2)-[:TX_INPUT]->(i2:Input {id: 2, value: 20, mixin: 0, anonset: 1}), " +
+            "(i2)-[:REFERENCES]->(p0)";
+
+    private static final String AGES = "CALL mixinsudoku.ages(%s) " +
+            "YIELD year, mixin, value, kind, age, references " +
+            "RETURN year + '/' + mixin + '/' + value + '/' + kind + '/' + age + ':' + references AS row";
+
+    @Test
+    public void shouldCountReferenceAges() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(CHAIN);
+
+            assertEquals(Arrays.asList("2014/1/10/decoy/1:1", "2014/1/10/spend/1:1", "2015/2/10/decoy/1:1",
+                    "2015/2/10/decoy/2:1", "2015/2/10/spend/2:1", "2015/0/20/unknown/1:1"),
+                    rows(session, String.format(AGES, "1, 0, 2")));
+            assertEquals(Arrays.asList("2014/1/10/decoy/0:1", "2014/1/10/spend/0:1", "2015/2/10/decoy/0:1",
+                    "2015/2/10/decoy/2:1", "2015/2/10/spend/2:1"),
+                    rows(session, String.format(AGES, "2, 2, 2")));
+
+            // the same with the stored heights, and only for the last block
+            session.run("CALL mixinsudoku.heights()");
+            assertEquals(Arrays.asList("2015/2/10/decoy/1:1", "2015/2/10/decoy/2:1", "2015/2/10/spend/2:1",
+                    "2015/0/20/unknown/1:1"),
+                    rows(session, String.format(AGES, "1, 0, 2, 2")));
+        }
+    }
+
+    @Test
+    public void shouldRankKnownSpends() throws Throwable {
+        try (Driver driver = GraphDatabase.driver(neo4j.boltURI(), Config.build()
+                .withEncryptionLevel(Config.EncryptionLevel.NONE).toConfig())) {
+            Session session = driver.session();
+            session.run(CHAIN);
+
+            assertEquals(Arrays.asList("2014/1/10/0:1", "2015/2/10/2:1"), rows(session,
+                    "CALL mixinsudoku.ranks(0, 2) YIELD year, mixin, value, rank, inputs " +
+                            "RETURN year + '/' + mixin + '/' + value + '/' + rank + ':' + inputs AS row"));
+
+            List<Record> newest = session.run("CALL mixinsudoku.newest(0, 2)").list();
+            assertEquals(2, newest.size());
+            assertEquals(1, newest.get(0).get("newest").asLong());
+            assertEquals(1.0, newest.get(0).get("accuracy").asDouble(), 0);
+            assertEquals(2015, newest.get(1).get("year").asLong());
+            assertEquals(0.0, newest.get(1).get("accuracy").asDouble(), 0);
+        }
+    }
+
+    private static List<String> rows(Session session, String query) {
+        return session.run(query).list(record -> record.get("row").asString());
+    }
+}
@@ -0,0 +1,65 @@
+package mixinsudoku;
+
+import java.util.Random;
+
+
+/**
+ * Small ring graphs for the tests of the algorithms that work on a {@link RingGraph} without a database. Input i has
+ * id i, output o has id o, and references are numbered in the order of the rings. The benchmarks generate larger,
+ * more realistic graphs with SyntheticRings.
+ */
+final class TestRings {
+
+    private TestRings() {
+    }
+
+    /**
+     * @return a graph with one input per ring and as many outputs as the highest output referenced
+     */
+    static RingGraph rings(int[][] rings) {
+        int nOutputs = 0;
+        for (int[] ring : rings) {
+            for (int output : ring) {
+                nOutputs = Math.max(nOutputs, output + 1);
+            }
+        }
+        return rings(rings, nOutputs);
+    }
+
+    /**
+     * @return a graph with one input per ring and nOutputs outputs
+     */
+    static RingGraph rings(int[][] rings, int nOutputs) {
+        RingGraph.Builder builder = new RingGraph.Builder(true);
+        for (int o = 0; o < nOutputs; o++) {
+            builder.addOutput(o);
+        }
+        long reference = 0;
+        for (int i = 0; i < rings.length; i++) {
+            builder.addInput(i);
+            for (int output : rings[i]) {
+                builder.addReference(reference++, output);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Input i spends output i and references ringSize - 1 random outputs among the ten around it. The last
+     * unspentOutputs outputs are not spent by any input.
+     */
+    static RingGraph randomRings(int nInputs, int ringSize, int unspentOutputs, long seed) {
+        Random random = new Random(seed);
+        int nOutputs = nInputs + unspentOutputs;
+        int[][] rings = new int[nInputs][];
+        for (int i = 0; i < nInputs; i++) {
+            int[] ring = new int[ringSize];
+            ring[0] = i;
+            for (int k = 1; k < ringSize; k++) {
+                ring[k] = Math.min(nOutputs - 1, Math.max(0, i + random.nextInt(11) - 5));
+            }
+            rings[i] = ring;
+        }
+        return rings(rings, nOutputs);
+    }
+}